@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.logparser.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Description;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import hudson.FilePath;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.plugins.logparser.LogParserCheckpoint;
+import hudson.plugins.logparser.LogParserParser;
+import hudson.plugins.logparser.LogParserResult;
+
+/**
+ * Parses the log of a build into the parsed log files, as the publisher does:
+ * one operation is the whole log, read, classified and written out as HTML by
+ * LogParserParser.parseLog. The build runs in a Jenkins started once per
+ * trial, its log replaced by a generated one.
+ * <p>
+ * The logs are kept small by default. Larger ones are asked for with
+ * -p lines=1000000,10000000: a log of 10M lines takes about 800MB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HtmlWritingBenchmark {
+
+    @Param({ "MAVEN", "GRADLE" })
+    public SyntheticLogs.Style style;
+
+    @Param({ "10", "500" })
+    public int rules;
+
+    @Param({ "1000", "100000" })
+    public int lines;
+
+    @Param({ "true", "false" })
+    public boolean preformattedHtml;
+
+    private BenchmarkJenkinsRule jenkinsRule;
+    private FreeStyleBuild build;
+    private File rulesFile;
+
+    @Setup
+    public void setUp() throws Throwable {
+        jenkinsRule = new BenchmarkJenkinsRule();
+        jenkinsRule.before();
+        final FreeStyleProject project = jenkinsRule.createFreeStyleProject();
+        build = jenkinsRule.buildAndAssertSuccess(project);
+        SyntheticLogs.writeLog(build.getLogFile(), style, lines, 1);
+        rulesFile = new File(build.getRootDir(), "rules.txt");
+        SyntheticLogs.writeRules(rulesFile, rules);
+    }
+
+    @Setup(Level.Invocation)
+    public void removeCheckpoint() {
+        // Otherwise the log would only be parsed once
+        new File(build.getRootDir(), LogParserCheckpoint.FILE_NAME).delete();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        jenkinsRule.after();
+    }
+
+    @Benchmark
+    public LogParserResult parseLog() throws Exception {
+        return new LogParserParser(new FilePath(rulesFile), preformattedHtml)
+                .parseLog(build);
+    }
+
+    /**
+     * A JenkinsRule started outside of a JUnit test
+     */
+    static class BenchmarkJenkinsRule extends JenkinsRule {
+        BenchmarkJenkinsRule() {
+            testDescription = Description.createSuiteDescription(HtmlWritingBenchmark.class);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.logparser.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import hudson.plugins.logparser.ConsoleNoteUtils;
+import hudson.plugins.logparser.LogParserLineStatuses;
+import hudson.plugins.logparser.LogParserRuleMatcher;
+import hudson.plugins.logparser.LogParserUtils;
+
+/**
+ * Classifies the lines of a log held in memory, as LogParserThread does for
+ * each part of the log: one operation is the whole log. The lines are also
+ * classified by running every rule on every line, as they were before
+ * LogParserRuleMatcher, for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LineClassificationBenchmark {
+
+    @Param({ "MAVEN", "GRADLE" })
+    public SyntheticLogs.Style style;
+
+    @Param({ "10", "100", "500" })
+    public int rules;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int lines;
+
+    private LogParserRuleMatcher ruleMatcher;
+    private String[] ruleLines;
+    private Pattern[] rulePatterns;
+    private String[] log;
+
+    @Setup
+    public void setUp() {
+        final List<String> ruleLines = SyntheticLogs.generateRules(rules);
+        this.ruleLines = ruleLines.toArray(new String[ruleLines.size()]);
+        ruleMatcher = new LogParserRuleMatcher(LogParserUtils.compilePatterns(this.ruleLines,
+                Logger.getAnonymousLogger()));
+        rulePatterns = new Pattern[this.ruleLines.length];
+        for (int i = 0; i < rulePatterns.length; i++) {
+            final String rule = this.ruleLines[i];
+            if (!LogParserUtils.skipParsingRule(rule)) {
+                rulePatterns[i] = Pattern.compile(rule.substring(rule.indexOf('/') + 1,
+                        rule.lastIndexOf('/')));
+            }
+        }
+        final List<String> logLines = SyntheticLogs.generateLines(style, lines, 1);
+        log = logLines.toArray(new String[logLines.size()]);
+    }
+
+    @Benchmark
+    public LogParserLineStatuses classify() {
+        final LogParserLineStatuses statuses = new LogParserLineStatuses();
+        for (int i = 0; i < log.length; i++) {
+            final int ruleIndex = ruleMatcher.getMatchingRule(ConsoleNoteUtils
+                    .removeNotes((CharSequence) log[i]));
+            if (ruleIndex != LogParserLineStatuses.NO_MATCH) {
+                statuses.add(i, ruleIndex);
+            }
+        }
+        return statuses;
+    }
+
+    @Benchmark
+    public LogParserLineStatuses classifyWithEveryRule() {
+        final LogParserLineStatuses statuses = new LogParserLineStatuses();
+        for (int i = 0; i < log.length; i++) {
+            final CharSequence line = ConsoleNoteUtils.removeNotes((CharSequence) log[i]);
+            for (int rule = 0; rule < rulePatterns.length; rule++) {
+                if (rulePatterns[rule] != null && rulePatterns[rule].matcher(line).find()) {
+                    statuses.add(i, rule);
+                    break;
+                }
+            }
+        }
+        return statuses;
+    }
+}
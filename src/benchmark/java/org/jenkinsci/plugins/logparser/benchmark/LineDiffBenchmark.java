@@ -0,0 +1,49 @@
+package org.jenkinsci.plugins.logparser.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import hudson.plugins.logparser.DiffToHtmlGenerator;
+
+/**
+ * Diffs the logs of two builds line by line and renders the diff as HTML, as
+ * the line diff page does: one operation is the whole diff.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LineDiffBenchmark {
+
+    @Param({ "MAVEN" })
+    public SyntheticLogs.Style style;
+
+    @Param({ "1000", "10000", "100000" })
+    public int lines;
+
+    // Share of the lines changed from one build to the next
+    @Param({ "0.01", "0.1" })
+    public double changeRate;
+
+    private List<String> previous;
+    private List<String> current;
+
+    @Setup
+    public void setUp() {
+        previous = SyntheticLogs.generateLines(style, lines, 1);
+        current = SyntheticLogs.mutate(previous, changeRate, 2);
+    }
+
+    @Benchmark
+    public String diff() {
+        return new DiffToHtmlGenerator(previous, current).generateHtmlString(true);
+    }
+}
@@ -0,0 +1,140 @@
+package org.jenkinsci.plugins.logparser.benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import hudson.plugins.logparser.LogParserUtils;
+
+/**
+ * Turns lines of a log into the HTML of the parsed log, escaped, colored and
+ * marked, as LogParserParser writes them, against the former parseLine
+ * building each line with replaceAll and StringBuffers. One operation is a
+ * line; run with -prof gc for the bytes allocated per line
+ * (gc.alloc.rate.norm), e.g. -Dbenchmark.args="LineRendering -prof gc".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LineRenderingBenchmark {
+
+    private static final int LINES = 10000;
+
+    @Param({ "MAVEN", "GRADLE" })
+    public SyntheticLogs.Style style;
+
+    @Param({ "true", "false" })
+    public boolean preformattedHtml;
+
+    private String[] lines;
+    // The color of the status of each line, null for the lines without one
+    private String[] colors;
+    private Writer out;
+
+    @Setup
+    public void setUp() {
+        final List<String> generated = SyntheticLogs.generateLines(style, LINES, 1);
+        lines = generated.toArray(new String[LINES]);
+        colors = new String[LINES];
+        for (int i = 0; i < LINES; i++) {
+            if (lines[i].contains("ERROR")) {
+                colors[i] = "red";
+            } else if (lines[i].contains("WARN")) {
+                colors[i] = "orange";
+            }
+        }
+        out = new NullWriter();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void writeHtmlLine() throws IOException {
+        for (int i = 0; i < LINES; i++) {
+            if (colors[i] != null) {
+                out.write("<a name=\"ERROR");
+                out.write(Integer.toString(i));
+                out.write("\"></a>");
+            }
+            LogParserUtils.writeHtmlLine(out, lines[i], colors[i], preformattedHtml);
+            out.write('\n');
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void formerParseLine() throws IOException {
+        for (int i = 0; i < LINES; i++) {
+            out.write(formerParseLine(lines[i], colors[i], i));
+            out.write('\n');
+        }
+    }
+
+    /**
+     * The former LogParserParser.parseLine, with colorLine and
+     * addMarkerAndLink
+     */
+    private String formerParseLine(final String line, final String color, final int marker) {
+        String parsedLine = line.replaceAll("<", "&lt;");
+        parsedLine = parsedLine.replaceAll(">", "&gt;");
+        if (color != null) {
+            final StringBuffer colored = new StringBuffer("<span style=\"color:");
+            colored.append(color);
+            colored.append("\">");
+            colored.append(parsedLine);
+            colored.append("</span>");
+            final StringBuffer markedLine = new StringBuffer("<a name=\"");
+            markedLine.append("ERROR" + Integer.toString(marker));
+            markedLine.append("\"></a>");
+            markedLine.append(colored.toString());
+            parsedLine = markedLine.toString();
+        }
+        final StringBuffer result = new StringBuffer(parsedLine);
+        if (!preformattedHtml) {
+            result.append("<br/>\n");
+        }
+        return result.toString();
+    }
+
+    /**
+     * Stands for the buffered writer of the parsed log, without the cost of
+     * compressing it
+     */
+    private static final class NullWriter extends Writer {
+
+        private long count;
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(final int c) {
+            count++;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
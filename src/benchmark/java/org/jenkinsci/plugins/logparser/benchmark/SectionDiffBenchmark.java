@@ -0,0 +1,51 @@
+package org.jenkinsci.plugins.logparser.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import hudson.plugins.logparser.LogSection;
+import hudson.plugins.logparser.LogSectionDiff;
+
+/**
+ * Splits the logs of two builds into their error, warning and info sections
+ * and diffs each section, as the section diff page does: one operation is the
+ * whole diff.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SectionDiffBenchmark {
+
+    @Param({ "MAVEN" })
+    public SyntheticLogs.Style style;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int lines;
+
+    // Share of the lines changed from one build to the next
+    @Param({ "0.01", "0.1" })
+    public double changeRate;
+
+    private List<String> previous;
+    private List<String> current;
+
+    @Setup
+    public void setUp() {
+        previous = SyntheticLogs.generateLines(style, lines, 1);
+        current = SyntheticLogs.mutate(previous, changeRate, 2);
+    }
+
+    @Benchmark
+    public LogSectionDiff diff() {
+        return new LogSectionDiff(new LogSection(1, previous), new LogSection(2, current));
+    }
+}
@@ -0,0 +1,216 @@
+package org.jenkinsci.plugins.logparser.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates the logs and rules files the benchmarks run on: logs that look
+ * like Maven or Gradle builds, with the usual share of matching lines, and
+ * rules files starting with the rules most installations have, completed with
+ * rules for specific modules and errors.
+ */
+public final class SyntheticLogs {
+
+    public enum Style {
+        MAVEN, GRADLE
+    }
+
+    // The rules most rules files start with
+    private static final String[] COMMON_RULES = {
+        "ok /not really/",
+        "# match line starting with 'error ', case-insensitive",
+        "error /(?i)^error /",
+        "error /\\[ERROR\\]/",
+        "error /BUILD FAILURE/",
+        "error /FAILURE: Build failed/",
+        "error /Exception in thread/",
+        "error /Tests run: .*, Failures: [1-9]/",
+        "warning /\\[WARNING\\]/",
+        "warning /(?i)^warning: /",
+        "warning /\\[deprecation\\]/",
+        "info /\\[INFO\\] BUILD SUCCESS/",
+        "info /BUILD SUCCESSFUL/",
+        "debug /\\[DEBUG\\]/",
+        "start /^\\[INFO\\] --- /",
+        "start /^> Task :/",
+    };
+
+    private static final String[] TAGS = { "error", "warning", "info", "debug" };
+
+    private SyntheticLogs() {
+        // Utility class
+    }
+
+    /**
+     * @param count
+     *            how many rules, at least the common ones
+     * @return the lines of a rules file
+     */
+    public static List<String> generateRules(final int count) {
+        final List<String> rules = new ArrayList<String>();
+        for (String rule : COMMON_RULES) {
+            rules.add(rule);
+        }
+        for (int i = 0; rules.size() < count; i++) {
+            final String tag = TAGS[i % TAGS.length];
+            switch (i % 5) {
+                case 0:
+                    rules.add(tag + " /^\\[" + tag.toUpperCase() + "\\] module-" + i + ": /");
+                    break;
+                case 1:
+                    rules.add(tag + " /^Running org\\.example\\.module" + i + "\\.[A-Za-z]+Test$/");
+                    break;
+                case 2:
+                    rules.add(tag + " /java\\.lang\\.[A-Za-z]+Exception: code " + i + "/");
+                    break;
+                case 3:
+                    rules.add(tag + " /> Task :module-" + i + ":[a-z]+ FAILED/");
+                    break;
+                default:
+                    rules.add(tag + " /\\b" + tag + "-marker-" + i + "\\b/");
+                    break;
+            }
+        }
+        return rules;
+    }
+
+    public static void writeRules(final File file, final int count) throws IOException {
+        final Writer writer = newWriter(file);
+        try {
+            for (String rule : generateRules(count)) {
+                writer.write(rule);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return the lines of a log, the same ones for the same seed
+     */
+    public static List<String> generateLines(final Style style, final int count, final long seed) {
+        final Random random = new Random(seed);
+        final List<String> lines = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            lines.add(nextLine(style, random, i));
+        }
+        return lines;
+    }
+
+    /**
+     * Writes a log one line at a time, so that logs larger than the heap can
+     * be generated
+     */
+    public static void writeLog(final File file, final Style style, final long count,
+            final long seed) throws IOException {
+        final Random random = new Random(seed);
+        final Writer writer = newWriter(file);
+        try {
+            for (long i = 0; i < count; i++) {
+                writer.write(nextLine(style, random, i));
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @param lines
+     *            the log of a build
+     * @param changeRate
+     *            the share of lines changed, inserted or deleted
+     * @return the log of the next build, mostly the same
+     */
+    public static List<String> mutate(final List<String> lines, final double changeRate,
+            final long seed) {
+        final Random random = new Random(seed);
+        final List<String> result = new ArrayList<String>(lines.size());
+        for (String line : lines) {
+            if (random.nextDouble() >= changeRate) {
+                result.add(line);
+                continue;
+            }
+            switch (random.nextInt(3)) {
+                case 0:
+                    // Deleted
+                    break;
+                case 1:
+                    result.add(line);
+                    result.add("[INFO] Inserted line " + random.nextInt(100000));
+                    break;
+                default:
+                    result.add(line + " (" + random.nextInt(1000) + " ms)");
+                    break;
+            }
+        }
+        return result;
+    }
+
+    private static String nextLine(final Style style, final Random random, final long lineNumber) {
+        final int module = random.nextInt(50);
+        final int kind = random.nextInt(100);
+        if (style == Style.MAVEN) {
+            if (kind < 2) {
+                return "[ERROR] module-" + module + ": Failed to execute goal on line "
+                        + lineNumber;
+            } else if (kind < 8) {
+                return "[WARNING] /workspace/module-" + module + "/src/main/java/Foo"
+                        + random.nextInt(500) + ".java:[" + random.nextInt(300)
+                        + ",8] [deprecation] getFoo() has been deprecated";
+            } else if (kind < 10) {
+                return "[INFO] --- maven-compiler-plugin:3.1:compile (default-compile) @ module-"
+                        + module + " ---";
+            } else if (kind < 40) {
+                return "[INFO] Compiling " + random.nextInt(200) + " source files to /workspace/module-"
+                        + module + "/target/classes";
+            } else if (kind < 60) {
+                return "Tests run: " + random.nextInt(100) + ", Failures: 0, Errors: 0, Skipped: "
+                        + random.nextInt(3) + ", Time elapsed: " + random.nextInt(10) + "."
+                        + random.nextInt(1000) + " sec - in org.example.module" + module + ".FooTest";
+            } else if (kind < 80) {
+                return "Downloaded: https://repo.maven.apache.org/maven2/org/example/lib-" + module
+                        + "/1." + random.nextInt(20) + "/lib-" + module + ".jar (" + random.nextInt(900)
+                        + " KB at " + random.nextInt(9000) + ".0 KB/sec)";
+            } else if (kind < 81) {
+                return "[INFO] BUILD SUCCESS";
+            } else {
+                return "[INFO] Copying " + random.nextInt(40) + " resources";
+            }
+        } else {
+            if (kind < 2) {
+                return "e: /workspace/module-" + module + "/src/main/kotlin/Foo.kt: (" + random.nextInt(300)
+                        + ", 12): error: unresolved reference";
+            } else if (kind < 8) {
+                return "warning: [deprecation] getFoo() in Foo" + random.nextInt(500)
+                        + " has been deprecated";
+            } else if (kind < 20) {
+                return "> Task :module-" + module + ":compileJava";
+            } else if (kind < 45) {
+                return "> Task :module-" + module + ":processResources UP-TO-DATE";
+            } else if (kind < 70) {
+                return "org.example.module" + module + ".FooTest > test" + random.nextInt(100)
+                        + "() PASSED";
+            } else if (kind < 71) {
+                return "BUILD SUCCESSFUL in " + random.nextInt(10) + "m " + random.nextInt(60) + "s";
+            } else {
+                return "Download https://plugins.gradle.org/m2/org/example/plugin-" + module + "/1."
+                        + random.nextInt(20) + "/plugin-" + module + ".pom";
+            }
+        }
+    }
+
+    private static Writer newWriter(final File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                Charset.defaultCharset()));
+    }
+}
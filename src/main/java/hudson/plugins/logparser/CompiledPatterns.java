@@ -4,15 +4,24 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
 
+/**
+ * The parsing rules compiled once before parsing: rules that are skipped or
+ * could not be compiled are left out, and each remaining rule holds its
+ * pattern and its standardized status, in the order of the rules file.
+ */
 public class CompiledPatterns {
 
     private String errorMsg;
+    private String[] parsingRules;
     private Pattern[] compiledPatterns;
+    private String[] statuses;
     private List<String> extraTags;
 
     public CompiledPatterns() {
         this.errorMsg = null;
-        this.compiledPatterns = null;
+        this.parsingRules = new String[0];
+        this.compiledPatterns = new Pattern[0];
+        this.statuses = new String[0];
         this.extraTags = new ArrayList<String>();
     }
 
@@ -28,12 +37,36 @@ public class CompiledPatterns {
         }
     }
 
+    /**
+     * @return the number of rules in the table
+     */
+    public int size() {
+        return compiledPatterns.length;
+    }
+
+    /**
+     * @return the text of each rule, as found in the rules file
+     */
+    public String[] getParsingRules() {
+        return parsingRules;
+    }
+
     public Pattern[] getCompiledPatterns() {
         return compiledPatterns;
     }
 
-    public void setCompiledPatters(final Pattern[] compiledPatterns) {
+    /**
+     * @return the status of each rule, standardized and interned
+     */
+    public String[] getStatuses() {
+        return statuses;
+    }
+
+    public void setRules(final String[] parsingRules, final Pattern[] compiledPatterns,
+            final String[] statuses) {
+        this.parsingRules = parsingRules;
         this.compiledPatterns = compiledPatterns;
+        this.statuses = statuses;
     }
 
     public List<String> getExtraTags() {
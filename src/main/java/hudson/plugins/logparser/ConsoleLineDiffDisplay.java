@@ -1,8 +1,14 @@
 package hudson.plugins.logparser;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
 
+import org.apache.commons.jelly.XMLOutput;
 import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.bind.JavaScriptMethod;
 
 import hudson.model.Action;
@@ -10,11 +16,24 @@ import hudson.model.Run;
 
 /**
  * This class gets user input, calls DiffToHtmlGenerator to generate the diff
- * result in html format, and then display the diff result on the build page
+ * result in html format, and then display the diff result on the build page.
+ * The html is written to the page, or to the report downloaded, as it is
+ * generated: it is not kept, but the line diff is, in DiffResultCache. The
+ * page only shows the unchanged lines around each delta, the others are
+ * fetched when a collapsed block is expanded.
+ * <p>
+ * The line diff is computed by a DiffJob. The page shows its progress until it
+ * is done, then is loaded again with the id of the job, to get its result.
  */
 
 public class ConsoleLineDiffDisplay implements Action{
 
+    /**
+     * the unchanged lines shown on the page before and after each delta,
+     * unless the request gives another context
+     */
+    public static final int DEFAULT_CONTEXT = 3;
+
     /**
      * the current build object
      */
@@ -26,9 +45,20 @@ public class ConsoleLineDiffDisplay implements Action{
     private String prevBuild;
 
     /**
-     * html string that will be displayed on the page
+     * the diff, whose html is displayed on the page
+     */
+    private DiffToHtmlGenerator d2h;
+
+    /**
+     * the job computing the line diff, or null if it was kept
      */
-    private String html;
+    private DiffJob<List<LineDiff.Edit>> job;
+
+    /**
+     * the unchanged lines shown on the page around each delta, or
+     * DiffToHtmlGenerator.ALL_LINES
+     */
+    private int context;
     
     private String fileName;
 
@@ -41,6 +71,11 @@ public class ConsoleLineDiffDisplay implements Action{
     public ConsoleLineDiffDisplay(Run<?, ?> build) {
         this.currentBuild = build;
         this.prevBuild = Stapler.getCurrentRequest().getParameter("prevBuild");
+        String contextParam = Stapler.getCurrentRequest().getParameter("context");
+        this.context = contextParam == null ? DEFAULT_CONTEXT : Integer.parseInt(contextParam);
+        if (this.context < 0) {
+            this.context = DiffToHtmlGenerator.ALL_LINES;
+        }
         int currBuildNum = build.getNumber();
         int prevBuildNum = Integer.parseInt(prevBuild);
 
@@ -49,14 +84,32 @@ public class ConsoleLineDiffDisplay implements Action{
         String currLogFileLocation = currentBuild.getLogFile().getAbsolutePath();
         String prevLogFileLocation = previousBuild.getLogFile().getAbsolutePath();
 
-        DiffToHtmlGenerator d2h = null;
-        try {
-            d2h = new DiffToHtmlGenerator(prevLogFileLocation, currLogFileLocation, currBuildNum, prevBuildNum);
-        } catch (IOException e) {
-            e.printStackTrace();
+        final DiffResultCache.Key key = DiffResultCache.Key.of(previousBuild, currentBuild, getUrlName(), "");
+        List<LineDiff.Edit> edits = DiffResultCache.getInstance().getEdits(key);
+        if (edits == null) {
+            edits = DiffJob.takeResult(Stapler.getCurrentRequest().getParameter("job"),
+                    previousBuild, currentBuild, getUrlName());
+        }
+        if (edits == null) {
+            final File prevLog = new File(prevLogFileLocation);
+            final File currLog = new File(currLogFileLocation);
+            job = DiffJob.submit(new DiffJob<List<LineDiff.Edit>>(previousBuild, currentBuild, getUrlName()) {
+                @Override
+                protected List<LineDiff.Edit> compute() throws IOException {
+                    setPhase(Phase.READING_LOGS);
+                    int[] prevHashes = LineDiff.hashLines(prevLog);
+                    int[] currHashes = LineDiff.hashLines(currLog);
+                    setPhase(Phase.DIFFING);
+                    List<LineDiff.Edit> res = LineDiff.diff(prevHashes, currHashes);
+                    DiffResultCache.getInstance().putEdits(key, res);
+                    return res;
+                }
+            });
+        }
+        if (edits != null) {
+            d2h = new DiffToHtmlGenerator(prevLogFileLocation, currLogFileLocation, currBuildNum, prevBuildNum,
+                    edits);
         }
-
-        html = d2h.generateHtmlString();
         
         fileName = "build_" + prevBuildNum + "_" + currBuildNum + "_console_line_diff.html";
     }
@@ -80,36 +133,88 @@ public class ConsoleLineDiffDisplay implements Action{
     }
 
     /**
-     * returns html string
+     * returns whether the diff is computed, to be shown
      * 
-     * @return html string
+     * @return whether the diff is computed
      */
-    public String getHtml() {
-        return this.html;
+    public boolean isReady() {
+        return this.d2h != null;
     }
-    
+
     /**
-     * returns html content
+     * returns the job computing the diff
      * 
-     * @return html content
+     * @return the job, or null if the diff was kept
      */
-    
-    @JavaScriptMethod
-    public String exportHtml(){
-        return this.html;
+    public DiffJob<List<LineDiff.Edit>> getJob() {
+        return this.job;
     }
-    
+
     /**
-     * returns download file name
-     *  
-     * @return download file name
+     * returns the unchanged lines shown around each delta
+     * 
+     * @return the context, or DiffToHtmlGenerator.ALL_LINES
+     */
+    public int getContext() {
+        return this.context;
+    }
+
+    /**
+     * writes the html of the diff into the page
+     * 
+     * @param output
+     *            the output of the page
+     * @throws IOException
+     */
+    public void writeHtml(XMLOutput output) throws IOException {
+        if (d2h != null) {
+            final Writer out = output.asWriter();
+            d2h.writeHtml(out, false, context);
+            out.flush();
+        }
+    }
+
+    /**
+     * returns the rows of a block of unchanged lines collapsed on the page
+     * 
+     * @param prevStart
+     *            the first line of the block in the previous build, from 0
+     * @param currStart
+     *            the first line of the block in the current build, from 0
+     * @param count
+     *            the number of lines of the block
+     * @return the html of the rows of the left column then of the right one
+     * @throws IOException
      */
-    
     @JavaScriptMethod
-    public String exportFileName(){
-        return this.fileName;
+    public String[] expandLines(int prevStart, int currStart, int count) throws IOException {
+        if (d2h == null) {
+            return new String[] { "", "" };
+        }
+        return d2h.generateUnchangedRows(prevStart, currStart, count);
     }
 
+    /**
+     * sends the html of the diff as a file to download
+     * 
+     * @param req
+     *            the request
+     * @param rsp
+     *            the response
+     * @throws IOException
+     */
+    public void doExport(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        if (d2h == null) {
+            rsp.sendError(StaplerResponse.SC_NOT_FOUND);
+            return;
+        }
+        rsp.setContentType("text/html;charset=UTF-8");
+        rsp.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+        final Writer out = rsp.getWriter();
+        d2h.writeHtml(out, false);
+        out.flush();
+    }
+    
     /** * {@inheritDoc} */
     @Override
     public String getDisplayName() {
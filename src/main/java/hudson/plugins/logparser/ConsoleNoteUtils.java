@@ -0,0 +1,90 @@
+package hudson.plugins.logparser;
+
+import hudson.console.ConsoleNote;
+
+/**
+ * Removes console notes from log lines like ConsoleNote.removeNotes, without
+ * allocating anything for the lines that have no note, which are most of
+ * them.
+ */
+public final class ConsoleNoteUtils {
+
+    // Every note starts with this character
+    private static final char NOTE_START = ConsoleNote.PREAMBLE_STR.charAt(0);
+
+    // Buffers larger than this are not kept for the next line
+    private static final int MAX_KEPT_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
+
+    private ConsoleNoteUtils() {
+        // Utility class
+    }
+
+    /**
+     * @param line
+     *            a log line
+     * @return the line without its console notes; the same instance if it has
+     *         none
+     */
+    public static String removeNotes(final String line) {
+        if (line.indexOf(NOTE_START) < 0) {
+            return line;
+        }
+        final CharSequence stripped = removeNotes((CharSequence) line);
+        return stripped == line ? line : stripped.toString();
+    }
+
+    /**
+     * @param line
+     *            a log line
+     * @return the line itself if it has no console note. Otherwise the line
+     *         without its notes, in a buffer of the calling thread that is
+     *         only valid until its next call.
+     */
+    public static CharSequence removeNotes(final CharSequence line) {
+        if (!hasNoteStart(line)) {
+            return line;
+        }
+        StringBuilder buffer = BUFFER.get();
+        if (buffer.capacity() > MAX_KEPT_CAPACITY) {
+            buffer = new StringBuilder();
+            BUFFER.set(buffer);
+        }
+        buffer.setLength(0);
+        buffer.append(line);
+
+        // Same as ConsoleNote.removeNotes, searching again from the start
+        // after each note removed
+        boolean removed = false;
+        while (true) {
+            final int start = buffer.indexOf(ConsoleNote.PREAMBLE_STR);
+            if (start < 0) {
+                break;
+            }
+            final int end = buffer.indexOf(ConsoleNote.POSTAMBLE_STR, start);
+            if (end < 0) {
+                break;
+            }
+            buffer.delete(start, end + ConsoleNote.POSTAMBLE_STR.length());
+            removed = true;
+        }
+        return removed ? buffer : line;
+    }
+
+    private static boolean hasNoteStart(final CharSequence line) {
+        final int length = line.length();
+        for (int i = 0; i < length; i++) {
+            if (line.charAt(i) == NOTE_START) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
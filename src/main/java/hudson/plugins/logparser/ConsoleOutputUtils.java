@@ -12,8 +12,6 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import hudson.console.ConsoleNote;
-
 /**
  * ConsoleOutputUtils contains static methods to extract information from
  * Jenkins console output.
@@ -53,7 +51,7 @@ public class ConsoleOutputUtils {
     }
 
     private static String getMavenPhaseTitle(String line) {
-        line = ConsoleNote.removeNotes(line).trim();
+        line = ConsoleNoteUtils.removeNotes(line).trim();
         Matcher m = phasePattern.matcher(line);
         if (m.matches()) {
             return m.group(1);
@@ -66,7 +64,7 @@ public class ConsoleOutputUtils {
         List<String> content = new ArrayList<>();
         String line;
         while ((line = reader.readLine()) != null) {
-            line = ConsoleNote.removeNotes(line);
+            line = ConsoleNoteUtils.removeNotes(line);
             String trimmedLine = line.trim();
             if (separatorPattern.matcher(trimmedLine).matches()) {
                 break;
@@ -100,7 +98,7 @@ public class ConsoleOutputUtils {
         try (BufferedReader reader = new BufferedReader(new FileReader(consoleOutputFile))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                line = ConsoleNote.removeNotes(line);
+                line = ConsoleNoteUtils.removeNotes(line);
                 Matcher m = sectionPattern.matcher(line);
                 if (m.matches()) {
                     sections.get(m.group(1)).add(line);
@@ -49,10 +49,6 @@ public class DependencyDiffAction implements Action {
             throws Exception {
         this.prevBuild = job.getBuildByNumber(build2);
         this.owner = job.getBuildByNumber(build1);
-        Map<String, List<String>> pomcontent1 = SCMUtils.getFilesFromBuild("pom.xml", (AbstractProject<?, ?>) job,
-                build1, launcher, workspace);
-        Map<String, List<String>> pomcontent2 = SCMUtils.getFilesFromBuild("pom.xml", (AbstractProject<?, ?>) job,
-                build2, launcher, workspace);
         this.html = "";
 
         String configPath = job.getConfigFile().getFile().getAbsolutePath();
@@ -65,16 +61,31 @@ public class DependencyDiffAction implements Action {
                 break;
             }
         }
-        List<String> contentlist1 = pomcontent1.get(pomPath);
-        List<String> contentlist2 = pomcontent2.get(pomPath);
-        
-        InputStream in1 = getInStream(contentlist1);
-        ArrayList<Dependency> deplist1 = DependencyDiffUtils.parsePom(in1);
-        InputStream in2 = getInStream(contentlist2);
-        ArrayList<Dependency> deplist2 = DependencyDiffUtils.parsePom(in2);
         br.close();
-        this.html += DependencyDiffUtils.toHtml(deplist1, deplist2, DependencyDiffUtils.diff(deplist1, deplist2),
-                owner.getNumber(), prevBuild.getNumber());
+
+        // the checkouts are only done if the diff of this pom is not kept
+        // already
+        DiffResultCache cache = DiffResultCache.getInstance();
+        DiffResultCache.Key key = DiffResultCache.Key.of(owner, prevBuild, getUrlName(), pomPath);
+        String cached = cache.getHtml(key);
+        if (cached != null) {
+            this.html = cached;
+        } else {
+            Map<String, List<String>> pomcontent1 = SCMUtils.getFilesFromBuild("pom.xml",
+                    (AbstractProject<?, ?>) job, build1, launcher, workspace);
+            Map<String, List<String>> pomcontent2 = SCMUtils.getFilesFromBuild("pom.xml",
+                    (AbstractProject<?, ?>) job, build2, launcher, workspace);
+            List<String> contentlist1 = pomcontent1.get(pomPath);
+            List<String> contentlist2 = pomcontent2.get(pomPath);
+
+            InputStream in1 = getInStream(contentlist1);
+            ArrayList<Dependency> deplist1 = DependencyDiffUtils.parsePom(in1);
+            InputStream in2 = getInStream(contentlist2);
+            ArrayList<Dependency> deplist2 = DependencyDiffUtils.parsePom(in2);
+            this.html += DependencyDiffUtils.toHtml(deplist1, deplist2,
+                    DependencyDiffUtils.diff(deplist1, deplist2), owner.getNumber(), prevBuild.getNumber());
+            cache.putHtml(key, this.html);
+        }
         this.fileName = "dependency_diff.html";
 
     }
@@ -1,10 +1,17 @@
 package hudson.plugins.logparser;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import com.google.gson.Gson;
 
 import hudson.Extension;
 import hudson.FilePath;
@@ -105,6 +112,27 @@ public class DiffBuildAction implements Action, Describable<DiffBuildAction> {
                 DescriptorImpl.workspace);
     }
 
+    /**
+     * Send the progress of a diff computed in the background, as JSON: its
+     * phase, whether it is done, and why it failed if it did
+     * @param req the request, with the id of the diff job as parameter job
+     * @param rsp the response
+     * @throws IOException
+     */
+    public void doProgress(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        DiffJob<?> job = DiffJob.get(req.getParameter("job"));
+        if (job == null) {
+            rsp.sendError(StaplerResponse.SC_NOT_FOUND);
+            return;
+        }
+        Map<String, Object> progress = new HashMap<String, Object>();
+        progress.put("phase", job.getPhase().name());
+        progress.put("done", job.isDone());
+        progress.put("error", job.getError());
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.getWriter().write(new Gson().toJson(progress));
+    }
+
     /** * {@inheritDoc} */
     @Override
     public String getIconFileName() {
@@ -0,0 +1,297 @@
+package hudson.plugins.logparser;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.model.Run;
+
+/**
+ * A diff between two builds computed in the background, so that a slow diff
+ * does not hold the request of its page: the page shows the progress of the
+ * job, polled through DiffBuildAction.doProgress, until it is done.
+ * <p>
+ * No more than LogParserConsts.DIFF_THREADS diffs are computed at once, and
+ * LogParserConsts.DIFF_QUEUE_SIZE more may wait. A diff between two completed
+ * builds requested again while it is computed, by a reload or by another user,
+ * is not computed twice: the job already running is returned. Once done, its
+ * result is in DiffResultCache. The diffs of a build still running are
+ * computed for each request, its log growing, and their result is only given
+ * to the page that polled the job, by takeResult. A job done is forgotten once
+ * its result is taken, or after LogParserConsts.FINISHED_DIFF_RETENTION.
+ *
+ * @param <T>
+ *            the result of the diff
+ */
+public abstract class DiffJob<T> {
+
+    private static final Logger LOGGER = Logger.getLogger(DiffJob.class.getName());
+
+    /**
+     * What a diff is doing
+     */
+    public enum Phase {
+        QUEUED, READING_LOGS, DIFFING, RENDERING, DONE, FAILED
+    }
+
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            LogParserConsts.DIFF_THREADS, LogParserConsts.DIFF_THREADS, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(LogParserConsts.DIFF_QUEUE_SIZE),
+            new ThreadFactory() {
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r, "Log parser diff #"
+                            + THREAD_COUNT.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    // The jobs running by diff, for the diffs between two completed builds,
+    // and the jobs running or done in the last FINISHED_DIFF_RETENTION by id
+    private static final Map<DiffResultCache.Key, DiffJob<?>> BY_KEY =
+            new HashMap<DiffResultCache.Key, DiffJob<?>>();
+    private static final Map<String, DiffJob<?>> BY_ID = new HashMap<String, DiffJob<?>>();
+
+    // null for a diff of a build still running
+    private final DiffResultCache.Key key;
+    private final String name;
+    private final String id = UUID.randomUUID().toString();
+
+    private Phase phase = Phase.QUEUED;
+    private T result;
+    private String error;
+    private long finishedAt;
+
+    /**
+     * @param prevBuild
+     *            the build diffed against
+     * @param currBuild
+     *            the build diffed
+     * @param type
+     *            the type of diff, as the url name of its page
+     */
+    protected DiffJob(final Run<?, ?> prevBuild, final Run<?, ?> currBuild, final String type) {
+        this(DiffResultCache.Key.of(prevBuild, currBuild, type, ""), getName(prevBuild,
+                currBuild, type));
+    }
+
+    /**
+     * @param key
+     *            the diff computed, the same for the jobs computing the same
+     *            result
+     */
+    protected DiffJob(final DiffResultCache.Key key) {
+        this(key, key.toString());
+    }
+
+    private DiffJob(final DiffResultCache.Key key, final String name) {
+        this.key = key;
+        this.name = name;
+    }
+
+    private static String getName(final Run<?, ?> prevBuild, final Run<?, ?> currBuild,
+            final String type) {
+        return currBuild.getParent().getFullName() + " #" + prevBuild.getNumber() + " #"
+                + currBuild.getNumber() + " " + type;
+    }
+
+    /**
+     * Computes the diff, in the background
+     *
+     * @return the result of the diff
+     */
+    protected abstract T compute() throws Exception;
+
+    /**
+     * Starts a job, unless the same diff between two completed builds is
+     * computed already
+     *
+     * @param job
+     *            the job to start
+     * @return the job started, or the one computing the same diff
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> DiffJob<T> submit(final DiffJob<T> job) {
+        synchronized (DiffJob.class) {
+            prune();
+            final DiffJob<?> running = job.key == null ? null : BY_KEY.get(job.key);
+            if (running != null) {
+                // Jobs of the same diff compute the same result
+                return (DiffJob<T>) running;
+            }
+            try {
+                EXECUTOR.execute(new Runnable() {
+                    public void run() {
+                        job.run();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                job.finish(null, "Too many diffs are being computed, try again later");
+                return job;
+            }
+            if (job.key != null) {
+                BY_KEY.put(job.key, job);
+            }
+            BY_ID.put(job.id, job);
+        }
+        return job;
+    }
+
+    /**
+     * @param id
+     *            the id of a job
+     * @return the job, or null if it is not known or was done a while ago
+     */
+    public static synchronized DiffJob<?> get(final String id) {
+        prune();
+        return id == null ? null : BY_ID.get(id);
+    }
+
+    /**
+     * Gives the result of a job done to the page that polled it, loaded again
+     * with the id of the job. The job is then forgotten.
+     *
+     * @param id
+     *            the id of the job, or null
+     * @param prevBuild
+     *            the build diffed against
+     * @param currBuild
+     *            the build diffed
+     * @param type
+     *            the type of diff, as the url name of its page
+     * @return the result of the diff, or null if the job is not known, is not
+     *         done, failed, or computed another diff
+     */
+    @SuppressWarnings("unchecked")
+    public static synchronized <T> T takeResult(final String id, final Run<?, ?> prevBuild,
+            final Run<?, ?> currBuild, final String type) {
+        final DiffJob<?> job = id == null ? null : BY_ID.get(id);
+        if (job == null || !job.name.equals(getName(prevBuild, currBuild, type))) {
+            return null;
+        }
+        final Object result = job.getResult();
+        if (result != null) {
+            BY_ID.remove(id);
+        }
+        return (T) result;
+    }
+
+    /**
+     * Forgets the jobs done more than FINISHED_DIFF_RETENTION ago
+     */
+    private static void prune() {
+        final long now = System.currentTimeMillis();
+        final Iterator<DiffJob<?>> jobs = BY_ID.values().iterator();
+        while (jobs.hasNext()) {
+            final DiffJob<?> job = jobs.next();
+            if (job.isDone() && now - job.getFinishedAt() > LogParserConsts.FINISHED_DIFF_RETENTION) {
+                jobs.remove();
+            }
+        }
+    }
+
+    private void run() {
+        try {
+            finish(compute(), null);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Cannot compute the diff " + name, e);
+            finish(null, e.toString());
+        } catch (Error e) {
+            finish(null, e.toString());
+            throw e;
+        }
+    }
+
+    private void finish(final T result, final String error) {
+        synchronized (DiffJob.class) {
+            // Requested again, the diff is in DiffResultCache, or is computed
+            // again if it failed
+            if (key != null && BY_KEY.get(key) == this) {
+                BY_KEY.remove(key);
+            }
+        }
+        synchronized (this) {
+            this.result = result;
+            this.error = error;
+            this.phase = error == null ? Phase.DONE : Phase.FAILED;
+            this.finishedAt = System.currentTimeMillis();
+            notifyAll();
+        }
+        synchronized (DiffJob.class) {
+            prune();
+        }
+    }
+
+    /**
+     * Waits for the job to be done, for a while
+     *
+     * @param timeout
+     *            how long to wait, in milliseconds
+     * @return the result of the diff, or null if it is not done or failed
+     */
+    public synchronized T await(final long timeout) throws InterruptedException {
+        final long end = System.currentTimeMillis() + timeout;
+        long left = timeout;
+        while (!isDone() && left > 0) {
+            wait(left);
+            left = end - System.currentTimeMillis();
+        }
+        return result;
+    }
+
+    /**
+     * @param phase
+     *            what the diff starts doing
+     */
+    protected synchronized void setPhase(final Phase phase) {
+        this.phase = phase;
+    }
+
+    /**
+     * @return the result of the diff, or null if it is not done or failed
+     */
+    public synchronized T getResult() {
+        return result;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public synchronized Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return whether the diff is done or failed
+     */
+    public synchronized boolean isDone() {
+        return phase == Phase.DONE || phase == Phase.FAILED;
+    }
+
+    /**
+     * @return why the diff failed, or null
+     */
+    public synchronized String getError() {
+        return error;
+    }
+
+    private synchronized long getFinishedAt() {
+        return finishedAt;
+    }
+}
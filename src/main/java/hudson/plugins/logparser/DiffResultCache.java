@@ -0,0 +1,531 @@
+package hudson.plugins.logparser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Run;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import jenkins.model.Jenkins;
+
+/**
+ * The results of the diffs between two builds, so that a diff page visited
+ * again, reloaded or exported, even after a restart, is not computed again. A
+ * result is kept in memory and in a file under the Jenkins root directory,
+ * keyed by the job, the two builds, the type of diff and its options.
+ * <p>
+ * The least recently used results are dropped once there are more than
+ * LogParserUtils.getDiffCacheMemorySize() megabytes of them in memory, or
+ * LogParserUtils.getDiffCacheDiskSize() megabytes on disk. The results of a
+ * build are dropped when it is deleted, and those of a job when it is deleted
+ * or renamed: another job may take its name. Only the diffs between two
+ * completed builds are kept: the log of a running build still grows.
+ */
+public final class DiffResultCache {
+
+    private static final Logger LOGGER = Logger.getLogger(DiffResultCache.class.getName());
+
+    /**
+     * The directory of the results on disk, in the Jenkins root directory
+     */
+    public static final String DIRECTORY_NAME = "logparser-diff-cache";
+
+    private static final String SUFFIX = ".gz";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private static DiffResultCache instance;
+
+    private final File directory;
+    private final long memorySize;
+    private final long diskSize;
+
+    // In access order, as are the files
+    private final Map<Key, byte[]> memory = new LinkedHashMap<Key, byte[]>(16, 0.75f, true);
+    private long memoryUsed = 0;
+    // The sizes of the files, listed from the directory on first use
+    private Map<File, Long> files;
+    private long diskUsed = 0;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    /**
+     * @param directory
+     *            where the results are kept on disk
+     * @param memorySize
+     *            the most bytes of results kept in memory
+     * @param diskSize
+     *            the most bytes of results kept on disk
+     */
+    public DiffResultCache(final File directory, final long memorySize, final long diskSize) {
+        this.directory = directory;
+        this.memorySize = memorySize;
+        this.diskSize = diskSize;
+    }
+
+    /**
+     * @return the results of this Jenkins
+     */
+    public static synchronized DiffResultCache getInstance() {
+        if (instance == null) {
+            instance = new DiffResultCache(new File(Jenkins.getInstance().getRootDir(),
+                    DIRECTORY_NAME), LogParserUtils.getDiffCacheMemorySize() * MEGABYTE,
+                    LogParserUtils.getDiffCacheDiskSize() * MEGABYTE);
+        }
+        return instance;
+    }
+
+    /**
+     * @param key
+     *            the diff, or null if it is not kept
+     * @return its html, or null if it is not kept
+     */
+    public String getHtml(final Key key) {
+        final byte[] data = get(key);
+        return data == null ? null : new String(data, UTF_8);
+    }
+
+    /**
+     * Keeps the html of a diff
+     *
+     * @param key
+     *            the diff, or null if it is not kept
+     */
+    public void putHtml(final Key key, final String html) {
+        put(key, html.getBytes(UTF_8));
+    }
+
+    /**
+     * @param key
+     *            the diff, or null if it is not kept
+     * @return its changes from the previous text to the current one, or null
+     *         if they are not kept
+     */
+    public List<LineDiff.Edit> getEdits(final Key key) {
+        final byte[] data = get(key);
+        if (data == null) {
+            return null;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            final int size = in.readInt();
+            final List<LineDiff.Edit> edits = new ArrayList<LineDiff.Edit>(size);
+            for (int i = 0; i < size; i++) {
+                edits.add(new LineDiff.Edit(in.readInt(), in.readInt(), in.readInt(),
+                        in.readInt()));
+            }
+            return Collections.unmodifiableList(edits);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot read the line diff of " + key, e);
+            return null;
+        }
+    }
+
+    /**
+     * Keeps the changes of a line diff
+     *
+     * @param key
+     *            the diff, or null if it is not kept
+     */
+    public void putEdits(final Key key, final List<LineDiff.Edit> edits) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + 16 * edits.size());
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(edits.size());
+            for (LineDiff.Edit edit : edits) {
+                out.writeInt(edit.getPrevStart());
+                out.writeInt(edit.getPrevEnd());
+                out.writeInt(edit.getCurrStart());
+                out.writeInt(edit.getCurrEnd());
+            }
+        } catch (IOException e) {
+            // not thrown by a ByteArrayOutputStream
+            throw new IllegalStateException(e);
+        }
+        put(key, bytes.toByteArray());
+    }
+
+    /**
+     * @param key
+     *            the diff, or null if it is not kept
+     * @return its result, from memory or else from disk, or null if it is not
+     *         kept
+     */
+    public byte[] get(final Key key) {
+        if (key == null) {
+            return null;
+        }
+        final File file = key.getFile(directory);
+        final byte[] kept;
+        synchronized (this) {
+            // used, on disk as well
+            final boolean onDisk = getFiles().get(file) != null;
+            kept = memory.get(key);
+            if (kept != null) {
+                hitCount++;
+            } else if (!onDisk) {
+                missCount++;
+                return null;
+            }
+        }
+        // So that the order of use is kept after a restart
+        file.setLastModified(System.currentTimeMillis());
+        if (kept != null) {
+            return kept;
+        }
+
+        // Read outside of the lock: the other diffs do not wait for it
+        final byte[] data;
+        try {
+            final InputStream in = new GZIPInputStream(new FileInputStream(file));
+            try {
+                data = IOUtils.toByteArray(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cannot read the diff result " + file, e);
+            synchronized (this) {
+                forget(file);
+                missCount++;
+            }
+            return null;
+        }
+        synchronized (this) {
+            hitCount++;
+            keepInMemory(key, data);
+        }
+        return data;
+    }
+
+    /**
+     * Keeps the result of a diff in memory and on disk
+     *
+     * @param key
+     *            the diff, or null if it is not kept
+     */
+    public void put(final Key key, final byte[] data) {
+        if (key == null) {
+            return;
+        }
+        synchronized (this) {
+            keepInMemory(key, data);
+            // listed before any file is written aside
+            getFiles();
+        }
+        if (diskSize <= 0) {
+            return;
+        }
+        final File file = key.getFile(directory);
+        try {
+            writeFile(file, data);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cannot write the diff result " + file, e);
+            return;
+        }
+        synchronized (this) {
+            forget(file);
+            getFiles().put(file, file.length());
+            diskUsed += file.length();
+            final Iterator<Map.Entry<File, Long>> eldest = files.entrySet().iterator();
+            while (diskUsed > diskSize && eldest.hasNext()) {
+                final Map.Entry<File, Long> entry = eldest.next();
+                entry.getKey().delete();
+                diskUsed -= entry.getValue();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the results of the diffs of a build
+     *
+     * @param job
+     *            the full name of the job of the build
+     * @param number
+     *            the number of the build
+     */
+    public synchronized void remove(final String job, final int number) {
+        final Iterator<Map.Entry<Key, byte[]>> entries = memory.entrySet().iterator();
+        while (entries.hasNext()) {
+            final Map.Entry<Key, byte[]> entry = entries.next();
+            if (entry.getKey().isOf(job, number)) {
+                memoryUsed -= entry.getValue().length;
+                entries.remove();
+            }
+        }
+        final File[] jobFiles = new File(directory, Util.getDigestOf(job)).listFiles();
+        if (jobFiles != null) {
+            for (File file : jobFiles) {
+                final String[] builds = file.getName().split("-", 3);
+                if (builds.length == 3 && (builds[0].equals(String.valueOf(number))
+                        || builds[1].equals(String.valueOf(number)))) {
+                    forget(file);
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the results of the diffs of all the builds of a job
+     *
+     * @param job
+     *            the full name of the job
+     */
+    public synchronized void remove(final String job) {
+        final Iterator<Map.Entry<Key, byte[]>> entries = memory.entrySet().iterator();
+        while (entries.hasNext()) {
+            final Map.Entry<Key, byte[]> entry = entries.next();
+            if (entry.getKey().job.equals(job)) {
+                memoryUsed -= entry.getValue().length;
+                entries.remove();
+            }
+        }
+        final File jobDir = new File(directory, Util.getDigestOf(job));
+        final File[] jobFiles = jobDir.listFiles();
+        if (jobFiles != null) {
+            for (File file : jobFiles) {
+                forget(file);
+                file.delete();
+            }
+        }
+        jobDir.delete();
+    }
+
+    /**
+     * @return how many times a result was found in memory or on disk
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return how many times a result had to be computed
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    private void keepInMemory(final Key key, final byte[] data) {
+        final byte[] previous = memory.remove(key);
+        if (previous != null) {
+            memoryUsed -= previous.length;
+        }
+        if (data.length > memorySize) {
+            return;
+        }
+        memory.put(key, data);
+        memoryUsed += data.length;
+        final Iterator<byte[]> eldest = memory.values().iterator();
+        while (memoryUsed > memorySize) {
+            memoryUsed -= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    private void forget(final File file) {
+        final Long size = getFiles().remove(file);
+        if (size != null) {
+            diskUsed -= size;
+        }
+    }
+
+    /**
+     * @return the files of the results, least recently used first
+     */
+    private Map<File, Long> getFiles() {
+        if (files == null) {
+            files = new LinkedHashMap<File, Long>(16, 0.75f, true);
+            final List<File> found = new ArrayList<File>();
+            final File[] jobDirs = directory.listFiles();
+            if (jobDirs != null) {
+                for (File jobDir : jobDirs) {
+                    final File[] jobFiles = jobDir.listFiles();
+                    if (jobFiles != null) {
+                        found.addAll(Arrays.asList(jobFiles));
+                    }
+                }
+            }
+            Collections.sort(found, new Comparator<File>() {
+                public int compare(final File a, final File b) {
+                    return Long.compare(a.lastModified(), b.lastModified());
+                }
+            });
+            for (File file : found) {
+                if (file.getName().endsWith(SUFFIX)) {
+                    files.put(file, file.length());
+                    diskUsed += file.length();
+                } else {
+                    // left by a write that did not complete
+                    file.delete();
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Writes a file of results as a whole: it is written aside then renamed
+     */
+    private static void writeFile(final File file, final byte[] data) throws IOException {
+        final File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        final File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            final OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp));
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+                throw new IOException("Cannot rename " + tmp + " to " + file);
+            }
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * A diff between two builds of a job
+     */
+    public static final class Key {
+
+        private final String job;
+        private final int prevBuild;
+        private final int currBuild;
+        private final String type;
+        private final String options;
+
+        /**
+         * @param job
+         *            the full name of the job
+         * @param prevBuild
+         *            the number of the build diffed against
+         * @param currBuild
+         *            the number of the build diffed
+         * @param type
+         *            the type of diff, as the url name of its page
+         * @param options
+         *            whatever else the result depends on, or ""
+         */
+        public Key(final String job, final int prevBuild, final int currBuild, final String type,
+                final String options) {
+            this.job = job;
+            this.prevBuild = prevBuild;
+            this.currBuild = currBuild;
+            this.type = type;
+            this.options = options;
+        }
+
+        /**
+         * @return the diff between the two builds, or null if it is not kept
+         *         because one of them is still running
+         */
+        public static Key of(final Run<?, ?> prevBuild, final Run<?, ?> currBuild,
+                final String type, final String options) {
+            if (prevBuild.isBuilding() || currBuild.isBuilding()) {
+                return null;
+            }
+            return new Key(currBuild.getParent().getFullName(), prevBuild.getNumber(),
+                    currBuild.getNumber(), type, options);
+        }
+
+        boolean isOf(final String job, final int number) {
+            return this.job.equals(job) && (prevBuild == number || currBuild == number);
+        }
+
+        File getFile(final File directory) {
+            return new File(new File(directory, Util.getDigestOf(job)), prevBuild + "-"
+                    + currBuild + "-" + type + "-" + Util.getDigestOf(options) + SUFFIX);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return job.equals(other.job) && prevBuild == other.prevBuild
+                    && currBuild == other.currBuild && type.equals(other.type)
+                    && options.equals(other.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[] { job, prevBuild, currBuild, type, options });
+        }
+
+        @Override
+        public String toString() {
+            return job + " #" + prevBuild + " #" + currBuild + " " + type + " " + options;
+        }
+    }
+
+    /**
+     * Drops the results of the diffs of the builds deleted
+     */
+    @Extension
+    public static class BuildDeletionListener extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onDeleted(final Run<?, ?> build) {
+            getInstance().remove(build.getParent().getFullName(), build.getNumber());
+        }
+    }
+
+    /**
+     * Drops the results of the diffs of the jobs deleted or renamed, as their
+     * builds are not deleted one by one. The results of a renamed job are
+     * computed again under its new name.
+     */
+    @Extension
+    public static class JobListener extends ItemListener {
+
+        @Override
+        public void onDeleted(final Item item) {
+            // a folder, with the jobs in it
+            for (Job<?, ?> job : item.getAllJobs()) {
+                getInstance().remove(job.getFullName());
+            }
+        }
+
+        @Override
+        public void onLocationChanged(final Item item, final String oldFullName,
+                final String newFullName) {
+            // called for each of the jobs in a folder as well
+            getInstance().remove(oldFullName);
+        }
+    }
+}
@@ -1,23 +1,30 @@
 package hudson.plugins.logparser;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.LineIterator;
+
 import difflib.ChangeDelta;
+import difflib.Chunk;
 import difflib.DeleteDelta;
 import difflib.Delta;
-import difflib.DiffUtils;
 import difflib.InsertDelta;
-import difflib.Patch;
 
 /**
- * This class can generate a html page based on line diff result
+ * This class can generate a html page based on line diff result. The diff is
+ * computed by LineDiff; the lines of two console output files are not kept in
+ * memory, they are read again as the html is generated.
  */
 
 public class DiffToHtmlGenerator {
@@ -25,13 +32,17 @@ public class DiffToHtmlGenerator {
     /**
      * line diff results
      */
+    private List<LineDiff.Edit> edits = null;
     private List<Delta> deltas = null;
 
     /**
-     * previous and current console output text
+     * previous and current console output text, or the files they are read
+     * from
      */
     private List<String> prevText = null;
     private List<String> currText = null;
+    private File prevFile = null;
+    private File currFile = null;
 
     /**
      * generated html string
@@ -55,13 +66,55 @@ public class DiffToHtmlGenerator {
     private static final int CHANGED = 3;
 
     /**
-     * @return deltas
+     * the context to show all the unchanged lines, none collapsed
+     */
+    public static final int ALL_LINES = -1;
+
+    /**
+     * the most unchanged lines shown when a collapsed block is expanded, the
+     * others staying collapsed
+     */
+    static final int EXPAND_LINES = 500;
+
+    /**
+     * @return deltas, with the lines of the texts they change, read again from
+     *         the console output files if the texts were not given
      */
 
     public List<Delta> getDeltas() {
+        if (deltas == null) {
+            deltas = new ArrayList<Delta>(edits.size());
+            final LineReader prevLines = openPrev();
+            final LineReader currLines = openCurr();
+            try {
+                for (LineDiff.Edit edit : edits) {
+                    final Chunk original = new Chunk(edit.getPrevStart(),
+                            prevLines.read(edit.getPrevStart(), edit.getPrevEnd()));
+                    final Chunk revised = new Chunk(edit.getCurrStart(),
+                            currLines.read(edit.getCurrStart(), edit.getCurrEnd()));
+                    if (edit.isInsert()) {
+                        deltas.add(new InsertDelta(original, revised));
+                    } else if (edit.isDelete()) {
+                        deltas.add(new DeleteDelta(original, revised));
+                    } else {
+                        deltas.add(new ChangeDelta(original, revised));
+                    }
+                }
+            } finally {
+                prevLines.close();
+                currLines.close();
+            }
+        }
         return deltas;
     }
 
+    /**
+     * @return the changes from the previous text to the current one
+     */
+    public List<LineDiff.Edit> getEdits() {
+        return edits;
+    }
+
     /**
      * @return htmlString
      */
@@ -87,8 +140,7 @@ public class DiffToHtmlGenerator {
     public DiffToHtmlGenerator(List<String> prevText, List<String> currText) {
         this.prevText = prevText;
         this.currText = currText;
-        Patch patch = DiffUtils.diff(prevText, currText);
-        deltas = patch.getDeltas();
+        edits = LineDiff.diff(prevText, currText);
     }
 
     /**
@@ -108,26 +160,36 @@ public class DiffToHtmlGenerator {
      */
 
     public DiffToHtmlGenerator(String prevPath, String currPath, int prevNum, int currNum) throws IOException {
-        BufferedReader prevReader = new BufferedReader(new FileReader(prevPath));
-        prevText = new ArrayList<String>();
-        String line = "";
-        while ((line = prevReader.readLine()) != null) {
-            prevText.add(line);
-        }
-        prevReader.close();
+        this(prevPath, currPath, prevNum, currNum, LineDiff.diff(new File(prevPath), new File(currPath)));
+    }
 
-        BufferedReader currReader = new BufferedReader(new FileReader(currPath));
-        currText = new ArrayList<String>();
-        while ((line = currReader.readLine()) != null) {
-            currText.add(line);
-        }
-        currReader.close();
+    /**
+     * 
+     * create new DiffToHtmlGenerator object for two console output files
+     * already diffed
+     * 
+     * @param prevPath
+     *            previous console output path
+     * @param currPath
+     *            current console output path
+     * @param prevNum
+     *            previous build number
+     * @param currNum
+     *            current build number
+     * @param edits
+     *            the changes from the previous console output to the current
+     *            one
+     */
+
+    public DiffToHtmlGenerator(String prevPath, String currPath, int prevNum, int currNum,
+            List<LineDiff.Edit> edits) {
+        prevFile = new File(prevPath);
+        currFile = new File(currPath);
 
         curr = currNum;
         prev = prevNum;
 
-        Patch patch = DiffUtils.diff(prevText, currText);
-        deltas = patch.getDeltas();
+        this.edits = edits;
     }
 
     /**
@@ -148,158 +210,375 @@ public class DiffToHtmlGenerator {
      */
 
     public String generateHtmlString(boolean bodyOnly) {
-        StringBuilder res = new StringBuilder();
+        StringWriter res = new StringWriter();
+        try {
+            writeHtml(res, bodyOnly);
+        } catch (IOException e) {
+            // not thrown by a StringWriter
+            throw new IllegalStateException(e);
+        }
+        htmlString = res.toString();
+        return htmlString;
+    }
+
+    /**
+     * write the html based on deltas as it is generated, a row at a time, so
+     * that the html of a diff of large files is never held in memory
+     *
+     * @param out
+     *            where the html is written
+     * @param bodyOnly
+     *            only generate the body html
+     * @throws IOException
+     */
 
+    public void writeHtml(Writer out, boolean bodyOnly) throws IOException {
+        writeHtml(out, bodyOnly, ALL_LINES);
+    }
+
+    /**
+     * write the html based on deltas, showing only the unchanged lines around
+     * each delta. The other unchanged lines are collapsed: each block of them
+     * is a row, with class d2h-collapsed, giving the first of its lines in
+     * both texts (attributes data-prev and data-curr, from 0) and their number
+     * (data-count), whose lines generateUnchangedRows writes.
+     *
+     * @param out
+     *            where the html is written
+     * @param bodyOnly
+     *            only generate the body html
+     * @param context
+     *            the unchanged lines shown before and after each delta, or
+     *            ALL_LINES
+     * @throws IOException
+     */
+
+    public void writeHtml(Writer out, boolean bodyOnly, int context) throws IOException {
         if (!bodyOnly) {
-            res.append("<!doctype html>\n");
-            res.append("<html lang='en'>\n");
-            res.append(generateHead());
-            res.append("<body>\n");
+            out.write("<!doctype html>\n");
+            out.write("<html lang='en'>\n");
+            out.write(generateHead());
+            out.write("<body>\n");
         }
 
-        res.append("<div style='margin: 0 auto;'>\n");
-        res.append("<div class='d2h-wrapper'>\n");
-        res.append("<div class='d2h-file-wrapper'>\n");
-        res.append("<div class='d2h-file-header'>\n");
+        out.write("<div style='margin: 0 auto;'>\n");
+        out.write("<div class='d2h-wrapper'>\n");
+        out.write("<div class='d2h-file-wrapper'>\n");
+        out.write("<div class='d2h-file-header'>\n");
 
         if (!bodyOnly) {
-            res.append("<div class='d2h-file-name'>line diff between build" + prev + " and build" + curr + ' ' 
+            out.write("<div class='d2h-file-name'>line diff between build" + prev + " and build" + curr + ' ' 
             		+ DiffToHtmlUtils.generateButton("0","Show/Hide") + "</div>\n");
         }
 
-        res.append("</div>\n");
-        res.append("<div class='d2h-files-diff'>\n");
-        res.append("<div class='d2h-file-side-diff'>\n");
-        res.append("<div class='d2h-code-wrapper'>\n");
-        res.append("<table class='d2h-diff-table'>\n");
-        res.append("<tbody class='d2h-diff-tbody'>\n");
-
-        // generate table based on diff result (deltas)
+        out.write("</div>\n");
+        out.write("<div class='d2h-files-diff'>\n");
+        out.write("<div class='d2h-file-side-diff'>\n");
+        out.write("<div class='d2h-code-wrapper'>\n");
+        out.write("<table class='d2h-diff-table'>\n");
+        out.write("<tbody class='d2h-diff-tbody'>\n");
 
-        StringBuilder prev = new StringBuilder();
-        StringBuilder curr = new StringBuilder();
+        // generate table based on diff result (deltas), a column at a time
 
-        generateHtmlFromDeltas(prev, curr);
+        generateHtmlFromDeltas(out, true, context);
+        out.write("</tbody>\n</table>\n</div>\n</div>\n");
 
-        res.append(prev.toString());
-        res.append("</tbody>\n</table>\n</div>\n</div>\n");
+        out.write("<div class='d2h-file-side-diff'>\n");
+        out.write("<div class='d2h-code-wrapper'>\n");
+        out.write("<table class='d2h-diff-table'>\n");
+        out.write("<tbody class='d2h-diff-tbody'>\n");
 
-        res.append("<div class='d2h-file-side-diff'>\n");
-        res.append("<div class='d2h-code-wrapper'>\n");
-        res.append("<table class='d2h-diff-table'>\n");
-        res.append("<tbody class='d2h-diff-tbody'>\n");
-
-        res.append(curr.toString());
-        res.append("</tbody>\n</table>\n</div>\n</div>\n</div>\n</div>\n</div>\n</div>\n");
+        generateHtmlFromDeltas(out, false, context);
+        out.write("</tbody>\n</table>\n</div>\n</div>\n</div>\n</div>\n</div>\n</div>\n");
 
         if (!bodyOnly) {
-            res.append("</body>\n" + "</html>\n");
+            out.write("</body>\n" + "</html>\n");
         }
-
-        htmlString = res.toString();
-        return htmlString;
     }
 
     /**
      * 
-     * generate left and right column using deltas
+     * generate the left or the right column using deltas
      * 
-     * @param prev
-     *            stores left column
-     * @param curr
-     *            stores right column
+     * @param out
+     *            where the column is written
+     * @param prevSide
+     *            whether to write the left column, of the previous text, or
+     *            the right one
+     * @param context
+     *            the unchanged lines shown before and after each delta, or
+     *            ALL_LINES
      */
 
-    private void generateHtmlFromDeltas(StringBuilder prev, StringBuilder curr) {
-        int last = -1;
+    private void generateHtmlFromDeltas(Writer out, boolean prevSide, int context)
+            throws IOException {
+        final LineReader prevLines = openPrev();
+        final LineReader currLines = openCurr();
+        try {
+            generateHtmlFromDeltas(out, prevSide, context, prevLines, currLines);
+        } finally {
+            prevLines.close();
+            currLines.close();
+        }
+    }
+
+    private void generateHtmlFromDeltas(Writer out, boolean prevSide, int context,
+            LineReader prevLines, LineReader currLines) throws IOException {
         int prevIndex = 0, currIndex = 0;
-        int prevNumOfRows = 0, currNumOfRows = 0;
+        boolean first = true;
 
-        for (Delta delta : deltas) {
+        for (LineDiff.Edit edit : edits) {
 
-            // append unchanged text
+            // append unchanged text: if it is collapsed, only the context
+            // after the delta before and the context before this one
 
-            if (last + 1 < delta.getOriginal().getPosition()) {
+            final int unchanged = edit.getPrevStart() - prevIndex;
+            final int after = first ? 0 : context;
+            int head = unchanged;
+            int collapsed = 0;
+            if (context != ALL_LINES && unchanged > after + context) {
+                head = after;
+                collapsed = unchanged - after - context;
+            }
+            first = false;
 
-                for (int i = last + 1; i < delta.getOriginal().getPosition(); i++) {
-                    prev.append(generateTableRow(prevText.get(i), prevIndex, UNCHANGED));
-                    curr.append(generateTableRow(prevText.get(i), currIndex, UNCHANGED));
-                    prevIndex++;
-                    currIndex++;
-                    prevNumOfRows++;
-                    currNumOfRows++;
-                }
+            for (int i = 0; i < head; i++) {
+                appendUnchanged(out, prevSide, prevLines.next(), currLines.next(),
+                        prevSide ? prevIndex : currIndex);
+                prevIndex++;
+                currIndex++;
+            }
 
+            if (collapsed > 0) {
+                prevLines.skip(collapsed);
+                currLines.skip(collapsed);
+                generateCollapsedRow(out, prevIndex, currIndex, collapsed);
+                prevIndex += collapsed;
+                currIndex += collapsed;
             }
 
-            // append changed/inserted/deleted text
+            while (prevIndex < edit.getPrevStart()) {
+                appendUnchanged(out, prevSide, prevLines.next(), currLines.next(),
+                        prevSide ? prevIndex : currIndex);
+                prevIndex++;
+                currIndex++;
+            }
 
-            List<?> prevBlock = delta.getOriginal().getLines();
-            List<?> currBlock = delta.getRevised().getLines();
+            // append changed/inserted/deleted text
 
-            int typeNum = 0;
+            int typeNum = CHANGED;
 
-            if (delta instanceof InsertDelta) {
+            if (edit.isInsert()) {
                 typeNum = INSERTED;
-            } else if (delta instanceof DeleteDelta) {
+            } else if (edit.isDelete()) {
                 typeNum = DELETED;
-            } else if (delta instanceof ChangeDelta) {
-                typeNum = CHANGED;
             }
 
-            for (Object obj : prevBlock) {
-                prev.append(generateTableRow(obj.toString(), prevIndex, typeNum));
+            final int prevSize = edit.getPrevEnd() - edit.getPrevStart();
+            final int currSize = edit.getCurrEnd() - edit.getCurrStart();
+
+            for (int i = 0; i < prevSize; i++) {
+                final String line = prevLines.next();
+                if (prevSide) {
+                    generateTableRow(out, line, prevIndex, typeNum);
+                }
                 prevIndex++;
-                prevNumOfRows++;
             }
 
-            for (Object obj : currBlock) {
-                curr.append(generateTableRow(obj.toString(), currIndex, typeNum));
+            for (int i = 0; i < currSize; i++) {
+                final String line = currLines.next();
+                if (!prevSide) {
+                    generateTableRow(out, line, currIndex, typeNum);
+                }
                 currIndex++;
-                currNumOfRows++;
             }
 
-            while (currNumOfRows < prevNumOfRows) {
-                curr.append(generateTableRow("", -1, UNCHANGED));
-                currNumOfRows++;
+            // pad the shorter side of the block, so that the rows after it
+            // are side by side
+
+            for (int i = prevSide ? prevSize : currSize; i < (prevSide ? currSize : prevSize); i++) {
+                generateTableRow(out, "", -1, UNCHANGED);
             }
+        }
+
+        // the unchanged lines after the last delta: as their number is not
+        // known, those not shown are counted as they are skipped
 
-            while (prevNumOfRows < currNumOfRows) {
-                prev.append(generateTableRow("", -1, UNCHANGED));
-                prevNumOfRows++;
+        final int after = first ? 0 : context;
+        for (int i = 0; prevLines.hasNext(); i++) {
+            if (context != ALL_LINES && i == after) {
+                final int collapsed = prevLines.skip(Integer.MAX_VALUE);
+                currLines.skip(collapsed);
+                generateCollapsedRow(out, prevIndex, currIndex, collapsed);
+                break;
             }
+            appendUnchanged(out, prevSide, prevLines.next(), currLines.next(),
+                    prevSide ? prevIndex : currIndex);
+            currIndex++;
+            prevIndex++;
+        }
+    }
+
+    /**
+     * generate the rows of unchanged lines of a collapsed block, for the
+     * left and for the right column. No more than EXPAND_LINES are written:
+     * the lines after them are written as a collapsed block.
+     *
+     * @param prevStart
+     *            the first line of the block in the previous text, from 0
+     * @param currStart
+     *            the first line of the block in the current text, from 0
+     * @param count
+     *            the number of lines of the block
+     * @return the html of the rows of the left column then of the right one
+     * @throws IOException
+     */
 
-            last = delta.getOriginal().last();
+    public String[] generateUnchangedRows(int prevStart, int currStart, int count)
+            throws IOException {
+        if (prevStart < 0 || currStart < 0 || count < 0) {
+            throw new IllegalArgumentException("Invalid line range: " + prevStart + ", "
+                    + currStart + ", " + count);
+        }
+        final List<String> prevBlock = new ArrayList<String>();
+        final List<String> currBlock = new ArrayList<String>();
+        final LineReader prevLines = openPrev();
+        final LineReader currLines = openCurr();
+        try {
+            prevLines.skip(prevStart);
+            currLines.skip(currStart);
+            while (prevBlock.size() < Math.min(count, EXPAND_LINES) && prevLines.hasNext()
+                    && currLines.hasNext()) {
+                prevBlock.add(prevLines.next());
+                currBlock.add(currLines.next());
+            }
+        } finally {
+            prevLines.close();
+            currLines.close();
         }
 
-        if (last + 1 < prevText.size()) {
-            for (int i = last + 1; i < prevText.size(); i++) {
-                curr.append(generateTableRow(prevText.get(i), currIndex, UNCHANGED));
-                prev.append(generateTableRow(prevText.get(i), prevIndex, UNCHANGED));
-                currIndex++;
-                prevIndex++;
+        final String[] res = new String[2];
+        for (int side = 0; side < 2; side++) {
+            final boolean prevSide = side == 0;
+            final StringWriter rows = new StringWriter();
+            for (int i = 0; i < prevBlock.size(); i++) {
+                appendUnchanged(rows, prevSide, prevBlock.get(i), currBlock.get(i),
+                        (prevSide ? prevStart : currStart) + i);
+            }
+            if (prevBlock.size() == EXPAND_LINES && count > EXPAND_LINES) {
+                generateCollapsedRow(rows, prevStart + EXPAND_LINES, currStart + EXPAND_LINES,
+                        count - EXPAND_LINES);
+            }
+            res[side] = rows.toString();
+        }
+        return res;
+    }
+
+    /**
+     * append a line that is the same in both texts to a column. Lines with
+     * the same hash code were taken as unchanged: a line that is not the same
+     * is shown as changed.
+     */
+    private void appendUnchanged(Writer out, boolean prevSide, String prevLine, String currLine,
+            int index) throws IOException {
+        if (prevLine.equals(currLine)) {
+            generateTableRow(out, prevLine, index, UNCHANGED);
+        } else {
+            generateTableRow(out, prevSide ? prevLine : currLine, index, CHANGED);
+        }
+    }
+
+    private LineReader openPrev() {
+        return prevText != null ? new LineReader(prevText) : new LineReader(prevFile);
+    }
+
+    private LineReader openCurr() {
+        return currText != null ? new LineReader(currText) : new LineReader(currFile);
+    }
+
+    /**
+     * reads the lines of a text one after the other, from a list or from a
+     * console output file
+     */
+    private static final class LineReader {
+
+        private final Iterator<String> lines;
+        private final LineIterator fileLines;
+        private int lineNumber;
+
+        LineReader(List<String> text) {
+            this.lines = text.iterator();
+            this.fileLines = null;
+        }
+
+        LineReader(File file) {
+            try {
+                this.fileLines = IOUtils.lineIterator(new FileReader(file));
+            } catch (FileNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+            this.lines = fileLines;
+        }
+
+        boolean hasNext() {
+            return lines.hasNext();
+        }
+
+        String next() {
+            lineNumber++;
+            return lines.next();
+        }
+
+        /**
+         * @return the number of lines skipped, fewer than count at the end of
+         *         the text
+         */
+        int skip(int count) {
+            int skipped = 0;
+            while (skipped < count && lines.hasNext()) {
+                next();
+                skipped++;
+            }
+            return skipped;
+        }
+
+        /**
+         * @return the lines from start to end (excluded), skipping those
+         *         before
+         */
+        List<String> read(int start, int end) {
+            skip(start - lineNumber);
+            List<String> res = new ArrayList<String>(end - start);
+            while (lineNumber < end) {
+                res.add(next());
+            }
+            return res;
+        }
+
+        void close() {
+            if (fileLines != null) {
+                fileLines.close();
             }
         }
     }
 
     /**
      * 
-     * generate a
+     * write a
      * <tr>
      * element based on the content
      * 
+     * @param out
+     *            where the row is written
      * @param s
      *            content in the row
      * @param index
      *            row number
      * @param typeNum
      *            unchanged/changed/deleted/inserted
-     * @return a
-     *         <tr>
-     *         tag
      */
 
-    private String generateTableRow(String s, int index, int typeNum) {
+    private void generateTableRow(Writer out, String s, int index, int typeNum) throws IOException {
         String type = "";
         String indexString = index >= 0 ? String.valueOf(index) : "";
 
@@ -320,10 +599,43 @@ public class DiffToHtmlGenerator {
                 break;
         }
 
-        String res = "" + "<tr>\n" + "<td class='d2h-code-side-linenumber d2h-" + type + "'>" + indexString + "</td>\n"
-                + "<td class='d2h-" + type + "'>\n" + "<div class='d2h-code-side-line d2h-" + type + "' id = 'check-"
-                + type + "'><span class='d2h-code-line-ctn hljs'>" + s + "</span></div>\n" + "</td>\n" + "</tr>\n";
-        return res;
+        out.write("<tr>\n<td class='d2h-code-side-linenumber d2h-");
+        out.write(type);
+        out.write("'>");
+        out.write(indexString);
+        out.write("</td>\n<td class='d2h-");
+        out.write(type);
+        out.write("'>\n<div class='d2h-code-side-line d2h-");
+        out.write(type);
+        out.write("' id = 'check-");
+        out.write(type);
+        out.write("'><span class='d2h-code-line-ctn hljs'>");
+        out.write(s);
+        out.write("</span></div>\n</td>\n</tr>\n");
+    }
+
+    /**
+     * 
+     * write a row standing for a block of collapsed unchanged lines
+     * 
+     * @param out
+     *            where the row is written
+     * @param prevStart
+     *            the first line of the block in the previous text
+     * @param currStart
+     *            the first line of the block in the current text
+     * @param count
+     *            the number of lines of the block
+     */
+
+    private void generateCollapsedRow(Writer out, int prevStart, int currStart, int count)
+            throws IOException {
+        out.write("<tr class='d2h-collapsed' data-prev='" + prevStart + "' data-curr='"
+                + currStart + "' data-count='" + count + "'>\n");
+        out.write("<td class='d2h-code-side-linenumber d2h-info'>...</td>\n<td class='d2h-info'>\n");
+        out.write("<div class='d2h-code-side-line d2h-info'><span class='d2h-code-line-ctn'>");
+        out.write(count + (count == 1 ? " unchanged line" : " unchanged lines"));
+        out.write("</span></div>\n</td>\n</tr>\n");
     }
 
     private String generateHead() {
@@ -364,7 +676,9 @@ public class DiffToHtmlGenerator {
                 + "border-width:0 1px;cursor:pointer;overflow:hidden;"
                 + "text-overflow:ellipsis}.d2h-del{background-color:#fee8e9;"
                 + "border-color:#e9aeae}.d2h-ins{background-color:#dfd;"
-                + "border-color:#b4e2b4}.d2h-rev{background-color:#A9F5F2;" + "border-color:#00BFFF}";
+                + "border-color:#b4e2b4}.d2h-rev{background-color:#A9F5F2;" + "border-color:#00BFFF}"
+                + ".d2h-info{background-color:#f1f8ff;border-color:#d8d8d8;"
+                + "color:rgba(0,0,0,0.5);cursor:pointer}";
 
         return res;
     }
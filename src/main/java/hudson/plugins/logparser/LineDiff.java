@@ -0,0 +1,406 @@
+package hudson.plugins.logparser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import difflib.Chunk;
+import difflib.Delta;
+import difflib.DiffUtils;
+
+/**
+ * Diffs two texts line by line in memory that grows with the number of lines,
+ * not with their length or with the size of the diff, so that the console
+ * logs of two builds can be compared however large they are.
+ * <p>
+ * Each line is reduced to its hash code. The lines the two texts start and end
+ * with are taken as unchanged. What is left in between is split at anchors, as
+ * a histogram diff does: a line that occurs the fewest times in the previous
+ * text, and also occurs in the current one, is matched with its longest run of
+ * common lines, and the regions before and after it are diffed in turn.
+ * Regions small enough are diffed with the Myers algorithm of difflib. A large
+ * region without any anchor is cut into windows diffed one at a time.
+ * <p>
+ * Two lines with the same hash code are taken as equal: DiffToHtmlGenerator
+ * checks the lines of the unchanged regions when it reads them again.
+ */
+public class LineDiff {
+
+    /**
+     * The largest region, in lines of both texts, diffed with the Myers
+     * algorithm, whose memory grows with the product of its size and of the
+     * number of its differences
+     */
+    static final int MYERS_MAX_LINES = 2000;
+
+    /**
+     * A line occurring more often than this in the region of the previous
+     * text is not taken as an anchor
+     */
+    static final int MAX_OCCURRENCES = 64;
+
+    /**
+     * The lines read to find anchors, in multiples of the lines of the two
+     * texts, after which the regions left are diffed in windows
+     */
+    static final int MAX_WORK_FACTOR = 32;
+
+    private final int[] prev;
+    private final int[] curr;
+    private final List<Edit> edits = new ArrayList<Edit>();
+    private long work;
+    private final long maxWork;
+
+    private LineDiff(final int[] prev, final int[] curr) {
+        this.prev = prev;
+        this.curr = curr;
+        this.maxWork = (long) MAX_WORK_FACTOR * (prev.length + curr.length);
+    }
+
+    /**
+     * Diffs two files, read with the default charset
+     *
+     * @return the changes from the previous file to the current one, in order
+     */
+    public static List<Edit> diff(final File prevFile, final File currFile) throws IOException {
+        return diff(hashLines(prevFile), hashLines(currFile));
+    }
+
+    /**
+     * @return the changes from the previous lines to the current ones, in
+     *         order
+     */
+    public static List<Edit> diff(final List<String> prevLines, final List<String> currLines) {
+        return diff(hashLines(prevLines), hashLines(currLines));
+    }
+
+    /**
+     * @param prev
+     *            the hash codes of the previous lines
+     * @param curr
+     *            the hash codes of the current lines
+     */
+    static List<Edit> diff(final int[] prev, final int[] curr) {
+        final LineDiff diff = new LineDiff(prev, curr);
+        diff.run();
+        return Collections.unmodifiableList(diff.edits);
+    }
+
+    static int[] hashLines(final File file) throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            int[] hashes = new int[1024];
+            int size = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (size == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, size * 2);
+                }
+                hashes[size++] = line.hashCode();
+            }
+            return Arrays.copyOf(hashes, size);
+        } finally {
+            reader.close();
+        }
+    }
+
+    static int[] hashLines(final List<String> lines) {
+        final int[] hashes = new int[lines.size()];
+        int i = 0;
+        for (String line : lines) {
+            hashes[i++] = line.hashCode();
+        }
+        return hashes;
+    }
+
+    /**
+     * Diffs the regions left to diff in order, those before an anchor before
+     * those after it
+     */
+    private void run() {
+        final List<int[]> regions = new ArrayList<int[]>();
+        regions.add(new int[] { 0, prev.length, 0, curr.length });
+        while (!regions.isEmpty()) {
+            final int[] region = regions.remove(regions.size() - 1);
+            final int[] anchor = diffRegion(region[0], region[1], region[2], region[3]);
+            if (anchor != null) {
+                // The region after the anchor is diffed after the one before
+                regions.add(new int[] { anchor[1], region[1], anchor[3], region[3] });
+                regions.add(new int[] { region[0], anchor[0], region[2], anchor[2] });
+            }
+        }
+    }
+
+    /**
+     * Diffs a region, unless it has an anchor
+     *
+     * @return the common lines to split the region at, as the start and end
+     *         in the previous text then in the current one, or null if the
+     *         region was diffed
+     */
+    private int[] diffRegion(int prevStart, int prevEnd, int currStart, int currEnd) {
+        // A small region is diffed as difflib would diff it on its own
+        if (prevEnd - prevStart + currEnd - currStart <= MYERS_MAX_LINES) {
+            if (prevStart == prevEnd || currStart == currEnd) {
+                addEdit(prevStart, prevEnd, currStart, currEnd);
+            } else {
+                diffMyers(prevStart, prevEnd, currStart, currEnd);
+            }
+            return null;
+        }
+        while (prevStart < prevEnd && currStart < currEnd && prev[prevStart] == curr[currStart]) {
+            prevStart++;
+            currStart++;
+        }
+        while (prevStart < prevEnd && currStart < currEnd
+                && prev[prevEnd - 1] == curr[currEnd - 1]) {
+            prevEnd--;
+            currEnd--;
+        }
+        if (prevStart == prevEnd || currStart == currEnd) {
+            addEdit(prevStart, prevEnd, currStart, currEnd);
+            return null;
+        }
+        final int size = prevEnd - prevStart + currEnd - currStart;
+        if (size <= MYERS_MAX_LINES) {
+            diffMyers(prevStart, prevEnd, currStart, currEnd);
+            return null;
+        }
+        final int[] anchor = work + size <= maxWork ? findAnchor(prevStart, prevEnd, currStart,
+                currEnd) : null;
+        work += size;
+        if (anchor == null) {
+            diffWindows(prevStart, prevEnd, currStart, currEnd);
+        }
+        return anchor;
+    }
+
+    /**
+     * @return the longest run of common lines around the line of the current
+     *         region occurring the fewest times in the previous region, or
+     *         null if no line of the current region occurs in the previous
+     *         one, up to MAX_OCCURRENCES times
+     */
+    private int[] findAnchor(final int prevStart, final int prevEnd, final int currStart,
+            final int currEnd) {
+        final HashCounts counts = new HashCounts(prevEnd - prevStart);
+        for (int i = prevStart; i < prevEnd; i++) {
+            counts.increment(prev[i]);
+        }
+        int anchorLine = -1;
+        int anchorCount = MAX_OCCURRENCES + 1;
+        for (int j = currStart; j < currEnd && anchorCount > 1; j++) {
+            final int count = counts.get(curr[j]);
+            if (count > 0 && count < anchorCount) {
+                anchorLine = j;
+                anchorCount = count;
+            }
+        }
+        if (anchorLine < 0) {
+            return null;
+        }
+
+        int[] best = null;
+        for (int i = prevStart; i < prevEnd; i++) {
+            if (prev[i] != curr[anchorLine]) {
+                continue;
+            }
+            int start = 0;
+            while (i - start > prevStart && anchorLine - start > currStart
+                    && prev[i - start - 1] == curr[anchorLine - start - 1]) {
+                start++;
+            }
+            int end = 1;
+            while (i + end < prevEnd && anchorLine + end < currEnd
+                    && prev[i + end] == curr[anchorLine + end]) {
+                end++;
+            }
+            if (best == null || start + end > best[1] - best[0]) {
+                best = new int[] { i - start, i + end, anchorLine - start, anchorLine + end };
+            }
+        }
+        return best;
+    }
+
+    private void diffMyers(final int prevStart, final int prevEnd, final int currStart,
+            final int currEnd) {
+        for (Delta delta : DiffUtils.diff(new HashList(prev, prevStart, prevEnd),
+                new HashList(curr, currStart, currEnd)).getDeltas()) {
+            final Chunk original = delta.getOriginal();
+            final Chunk revised = delta.getRevised();
+            addEdit(prevStart + original.getPosition(),
+                    prevStart + original.getPosition() + original.size(),
+                    currStart + revised.getPosition(),
+                    currStart + revised.getPosition() + revised.size());
+        }
+    }
+
+    /**
+     * Cuts the region in windows of the same share of both texts, each small
+     * enough to be diffed with the Myers algorithm
+     */
+    private void diffWindows(final int prevStart, final int prevEnd, final int currStart,
+            final int currEnd) {
+        final int prevSize = prevEnd - prevStart;
+        final int currSize = currEnd - currStart;
+        final long windows = (prevSize + currSize + MYERS_MAX_LINES - 1) / MYERS_MAX_LINES;
+        for (long w = 0; w < windows; w++) {
+            final int prevFrom = prevStart + (int) (prevSize * w / windows);
+            final int prevTo = prevStart + (int) (prevSize * (w + 1) / windows);
+            final int currFrom = currStart + (int) (currSize * w / windows);
+            final int currTo = currStart + (int) (currSize * (w + 1) / windows);
+            if (prevFrom == prevTo || currFrom == currTo) {
+                addEdit(prevFrom, prevTo, currFrom, currTo);
+            } else {
+                diffMyers(prevFrom, prevTo, currFrom, currTo);
+            }
+        }
+    }
+
+    /**
+     * Adds a change, merged with the one before if they touch
+     */
+    private void addEdit(final int prevStart, final int prevEnd, final int currStart,
+            final int currEnd) {
+        if (prevStart == prevEnd && currStart == currEnd) {
+            return;
+        }
+        if (!edits.isEmpty()) {
+            final Edit last = edits.get(edits.size() - 1);
+            if (last.prevEnd == prevStart && last.currEnd == currStart) {
+                edits.set(edits.size() - 1, new Edit(last.prevStart, prevEnd, last.currStart,
+                        currEnd));
+                return;
+            }
+        }
+        edits.add(new Edit(prevStart, prevEnd, currStart, currEnd));
+    }
+
+    /**
+     * A change from the previous text to the current one: the lines from
+     * prevStart to prevEnd (excluded) of the previous text are replaced by
+     * those from currStart to currEnd of the current text. Line numbers are
+     * from 0.
+     */
+    public static final class Edit {
+
+        private final int prevStart;
+        private final int prevEnd;
+        private final int currStart;
+        private final int currEnd;
+
+        public Edit(final int prevStart, final int prevEnd, final int currStart,
+                final int currEnd) {
+            this.prevStart = prevStart;
+            this.prevEnd = prevEnd;
+            this.currStart = currStart;
+            this.currEnd = currEnd;
+        }
+
+        public int getPrevStart() {
+            return prevStart;
+        }
+
+        public int getPrevEnd() {
+            return prevEnd;
+        }
+
+        public int getCurrStart() {
+            return currStart;
+        }
+
+        public int getCurrEnd() {
+            return currEnd;
+        }
+
+        /**
+         * @return whether lines are only inserted in the current text
+         */
+        public boolean isInsert() {
+            return prevStart == prevEnd;
+        }
+
+        /**
+         * @return whether lines are only deleted from the previous text
+         */
+        public boolean isDelete() {
+            return currStart == currEnd;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + prevStart + "," + prevEnd + ") -> [" + currStart + "," + currEnd + ")";
+        }
+    }
+
+    /**
+     * A region of hash codes, as the list difflib diffs
+     */
+    private static final class HashList extends AbstractList<Integer> {
+
+        private final int[] hashes;
+        private final int start;
+        private final int end;
+
+        HashList(final int[] hashes, final int start, final int end) {
+            this.hashes = hashes;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Integer get(final int index) {
+            return hashes[start + index];
+        }
+
+        @Override
+        public int size() {
+            return end - start;
+        }
+    }
+
+    /**
+     * The number of times each hash code occurs, in an open addressing table
+     */
+    private static final class HashCounts {
+
+        private final int[] keys;
+        private final int[] counts;
+        private final int mask;
+
+        HashCounts(final int expected) {
+            int capacity = 16;
+            while (capacity < expected * 2) {
+                capacity <<= 1;
+            }
+            keys = new int[capacity];
+            counts = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        private int slot(final int key) {
+            final int hash = key * 0x9E3779B9;
+            int slot = (hash ^ hash >>> 16) & mask;
+            while (counts[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        void increment(final int key) {
+            final int slot = slot(key);
+            keys[slot] = key;
+            counts[slot]++;
+        }
+
+        int get(final int key) {
+            return counts[slot(key)];
+        }
+    }
+}
@@ -3,6 +3,7 @@ package hudson.plugins.logparser;
 import hudson.Functions;
 import hudson.model.AbstractBuild;
 import hudson.model.Action;
+import hudson.model.Api;
 import hudson.model.Run;
 import hudson.util.Area;
 import hudson.util.ChartUtil;
@@ -10,6 +11,7 @@ import hudson.util.ColorPalette;
 import hudson.util.DataSetBuilder;
 import hudson.util.ShiftedCategoryAxis;
 import hudson.util.StackedAreaRenderer2;
+import org.apache.commons.io.IOUtils;
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.CategoryAxis;
@@ -22,12 +24,19 @@ import org.jfree.data.category.CategoryDataset;
 import org.jfree.ui.RectangleInsets;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
 
 import javax.servlet.ServletException;
 import java.awt.*;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
 
+@ExportedBean
 public class LogParserAction implements Action {
 
     final private Run<?, ?> build;
@@ -68,10 +77,19 @@ public class LogParserAction implements Action {
 
     // Used by the summary.jelly of this class to show some totals from the
     // result
+    @Exported(inline = true)
     public LogParserResult getResult() {
         return result;
     }
 
+    /**
+     * Remote API access, giving the totals and the parsing metrics of the
+     * build at parsed_console/api/json
+     */
+    public Api getApi() {
+        return new Api(this);
+    }
+
     public LogParserAction getPreviousAction() {
         Run<?, ?> build = this.getOwner();
 
@@ -94,10 +112,122 @@ public class LogParserAction implements Action {
         final String fileArray[] = file.split("/");
         final String lastFileInPath = fileArray[fileArray.length - 1];
         final File f = new File(dir + "/" + lastFileInPath);
+        final File compressed = new File(f.getPath() + ".gz");
+        if (!f.exists() && compressed.isFile()) {
+            serveCompressed(req, rsp, compressed);
+            return;
+        }
         rsp.serveFile(req, f.toURI().toURL());
 
     }
 
+    /**
+     * Serves a parsed html file stored gzip-compressed. The reference page, a
+     * single gzip member, is sent as it is with Content-Encoding: gzip to the
+     * browsers accepting it; the files compressed in blocks are decompressed
+     * on the fly, as browsers may stop at the end of the first member.
+     */
+    private static void serveCompressed(final StaplerRequest req, final StaplerResponse rsp,
+            final File file) throws IOException {
+        final String acceptEncoding = req.getHeader("Accept-Encoding");
+        final boolean asIs = file.getName().equals(LogParserConsts.REF_FILE_NAME)
+                && acceptEncoding != null && acceptEncoding.contains("gzip");
+        rsp.setContentType("text/html;charset=" + Charset.defaultCharset().name());
+        rsp.addHeader("Vary", "Accept-Encoding");
+        final InputStream in;
+        if (asIs) {
+            in = new FileInputStream(file);
+            rsp.setHeader("Content-Encoding", "gzip");
+            rsp.setContentLength((int) file.length());
+        } else {
+            in = LogParserUtils.openHtmlFile(file);
+        }
+        try {
+            IOUtils.copy(in, rsp.getOutputStream());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Serves a page of the parsed log: the lines of the page holding the line
+     * given by the line parameter (from 1), as many as the lines parameter
+     * tells, read from the parsed log through its LogParserContentIndex: only
+     * the blocks of the parsed log holding the page are decompressed. The
+     * parsed log of a build parsed before there was an index is served whole.
+     */
+    public void doPage(final StaplerRequest req, final StaplerResponse rsp) throws IOException {
+        final File dir = new File(result.getHtmlLogPath());
+        final LogParserContentIndex index = LogParserContentIndex.read(new File(dir,
+                LogParserContentIndex.FILE_NAME));
+        if (index == null) {
+            rsp.sendRedirect2("log_content.html");
+            return;
+        }
+        final int pageLines = Math.max(1, Math.min(LogParserConsts.MAX_PAGE_LINES,
+                getIntParameter(req, "lines", LogParserConsts.PAGE_LINES)));
+        final long lineCount = index.getLineCount();
+        final long line = Math.max(1, Math.min(lineCount, getIntParameter(req, "line", 1)));
+        final long start = (line - 1) / pageLines * pageLines;
+
+        final String navigation = getPageNavigation(start, pageLines, lineCount,
+                pageLines != LogParserConsts.PAGE_LINES);
+        final Charset charset = Charset.defaultCharset();
+        rsp.setContentType("text/html;charset=" + charset.name());
+        final OutputStream out = rsp.getOutputStream();
+        final StringBuilder header = new StringBuilder(LogParserConsts.getHtmlOpeningTags());
+        header.append(navigation);
+        if (index.isPreformattedHtml()) {
+            header.append("<pre>");
+        }
+        out.write(header.toString().getBytes(charset));
+        index.copyLines(start, pageLines, out);
+        final StringBuilder footer = new StringBuilder();
+        if (index.isPreformattedHtml()) {
+            footer.append("</pre>");
+        }
+        footer.append(navigation);
+        footer.append(LogParserConsts.getHtmlClosingTags());
+        out.write(footer.toString().getBytes(charset));
+        out.flush();
+    }
+
+    private static String getPageNavigation(final long start, final int pageLines,
+            final long lineCount, final boolean withPageLines) {
+        final long end = Math.min(start + pageLines, lineCount);
+        final long lastStart = lineCount == 0 ? 0 : (lineCount - 1) / pageLines * pageLines;
+        final String suffix = withPageLines ? "&amp;lines=" + pageLines : "";
+        final StringBuilder navigation = new StringBuilder("<p>Lines ");
+        navigation.append(lineCount == 0 ? 0 : start + 1).append(" to ").append(end)
+                .append(" of ").append(lineCount);
+        if (start > 0) {
+            navigation.append(" | <a href=\"page?line=1").append(suffix).append("\">First</a>");
+            navigation.append(" | <a href=\"page?line=").append(start - pageLines + 1)
+                    .append(suffix).append("\">Previous</a>");
+        }
+        if (start < lastStart) {
+            navigation.append(" | <a href=\"page?line=").append(end + 1).append(suffix)
+                    .append("\">Next</a>");
+            navigation.append(" | <a href=\"page?line=").append(lastStart + 1).append(suffix)
+                    .append("\">Last</a>");
+        }
+        navigation.append("</p>\n");
+        return navigation.toString();
+    }
+
+    private static int getIntParameter(final StaplerRequest req, final String name,
+            final int defaultValue) {
+        final String value = req.getParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
     public void doGraph(StaplerRequest req, StaplerResponse rsp) throws IOException {
         if (ChartUtil.awtProblemCause != null) {
             // not available. send out error message
@@ -0,0 +1,86 @@
+package hudson.plugins.logparser;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses a parsed log file as a series of gzip members, a new one being
+ * started after each flush. The members read as a single gzip file (e.g. with
+ * GZIPInputStream), and each one can also be read on its own from its offset,
+ * so that a part of the file is decompressed without the parts before it. A
+ * file cut back to the end of a member is still a complete gzip file, which
+ * lets a parsing resumed from a checkpoint append to it.
+ * <p>
+ * The stream given must count the bytes written to it when the offset of the
+ * members are needed: a member is complete in it once flush returns.
+ */
+public class LogParserBlockGzipOutputStream extends FilterOutputStream {
+
+    private static final int DEFLATER_BUFFER_SIZE = 8 * 1024;
+
+    private Member member;
+
+    public LogParserBlockGzipOutputStream(final OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        getMember().write(b);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        getMember().write(b, off, len);
+    }
+
+    /**
+     * Completes the current member, if anything was written since the last
+     * flush, and flushes the underlying stream
+     */
+    @Override
+    public void flush() throws IOException {
+        if (member != null) {
+            member.end();
+            member = null;
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private Member getMember() throws IOException {
+        // Started on the first write, so that flushing twice does not write
+        // an empty member
+        if (member == null) {
+            member = new Member(out);
+        }
+        return member;
+    }
+
+    /**
+     * A gzip member, ended without closing the file it is written to
+     */
+    private static final class Member extends GZIPOutputStream {
+
+        Member(final OutputStream out) throws IOException {
+            super(out, DEFLATER_BUFFER_SIZE);
+        }
+
+        void end() throws IOException {
+            finish();
+            // Released now rather than when collected, as the parsed log
+            // has a member every LogParserConsts.CONTENT_INDEX_INTERVAL lines
+            def.end();
+        }
+    }
+}
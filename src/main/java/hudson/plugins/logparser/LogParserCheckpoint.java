@@ -0,0 +1,265 @@
+package hudson.plugins.logparser;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * How far LogParserParser got in the log of a build: everything it needs to
+ * carry on from there, with the lengths the parsed log files had at that
+ * point. It is saved in the log directory of the build between two parts of
+ * the log, and once more when the parsing is complete, with the metrics of
+ * the parsing then, for a parsing of the same log to give them again.
+ * <p>
+ * The file is a plain record of the fields, written with a DataOutputStream
+ * as the parse index is: it is not deserialized into arbitrary objects.
+ */
+public class LogParserCheckpoint {
+
+    static final int MAGIC = 0x4c50434b;
+    static final int VERSION = 1;
+
+    public static final String FILE_NAME = "log_parser_checkpoint.dat";
+
+    private final String rulesDigest;
+    private final boolean preformattedHtml;
+
+    private final long byteOffset;
+    private final boolean afterCarriageReturn;
+    private final boolean atLineStart;
+    private final int lineNumber;
+
+    private final long contentLength;
+    private final long parseIndexLength;
+
+    private final HashMap<String, Integer> statusCount;
+    private final int sectionCounter;
+    private final int[] ruleHits;
+
+    private boolean complete = false;
+    // Only kept once the parsing is complete
+    private LogParserMetrics metrics;
+
+    /**
+     * @param lastPart
+     *            the last log part written out, after which the parsing
+     *            carries on
+     */
+    public LogParserCheckpoint(final String rulesDigest, final boolean preformattedHtml,
+            final LogParserLogPart lastPart, final int lineNumber, final long contentLength,
+            final long parseIndexLength, final HashMap<String, Integer> statusCount,
+            final int sectionCounter, final int[] ruleHits) {
+        this(rulesDigest, preformattedHtml, lastPart.getEndByteOffset(),
+                lastPart.isEndAfterCarriageReturn(), lastPart.isEndAtLineStart(), lineNumber,
+                contentLength, parseIndexLength, new HashMap<String, Integer>(statusCount),
+                sectionCounter, ruleHits.clone());
+    }
+
+    // The maps and arrays are copies, as the parser keeps updating its own
+    private LogParserCheckpoint(final String rulesDigest, final boolean preformattedHtml,
+            final long byteOffset, final boolean afterCarriageReturn,
+            final boolean atLineStart, final int lineNumber, final long contentLength,
+            final long parseIndexLength, final HashMap<String, Integer> statusCount,
+            final int sectionCounter, final int[] ruleHits) {
+        this.rulesDigest = rulesDigest;
+        this.preformattedHtml = preformattedHtml;
+        this.byteOffset = byteOffset;
+        this.afterCarriageReturn = afterCarriageReturn;
+        this.atLineStart = atLineStart;
+        this.lineNumber = lineNumber;
+        this.contentLength = contentLength;
+        this.parseIndexLength = parseIndexLength;
+        this.statusCount = statusCount;
+        this.sectionCounter = sectionCounter;
+        this.ruleHits = ruleHits;
+    }
+
+    /**
+     * @return the checkpoint saved in the given file, or null if there is
+     *         none or it cannot be read
+     */
+    public static LogParserCheckpoint load(final File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            // Small enough to be read at once, which bounds what is read from it
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    FileUtils.readFileToByteArray(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a checkpoint of this version");
+            }
+            final String rulesDigest = in.readUTF();
+            final boolean preformattedHtml = in.readBoolean();
+            final long byteOffset = in.readLong();
+            final boolean afterCarriageReturn = in.readBoolean();
+            final boolean atLineStart = in.readBoolean();
+            final int lineNumber = in.readInt();
+            final long contentLength = in.readLong();
+            final long parseIndexLength = in.readLong();
+            final int numStatuses = readSize(in);
+            final HashMap<String, Integer> statusCount = new HashMap<String, Integer>();
+            for (int i = 0; i < numStatuses; i++) {
+                statusCount.put(in.readUTF(), in.readInt());
+            }
+            final int sectionCounter = in.readInt();
+            final int[] ruleHits = new int[readSize(in)];
+            for (int i = 0; i < ruleHits.length; i++) {
+                ruleHits[i] = in.readInt();
+            }
+            final LogParserCheckpoint checkpoint = new LogParserCheckpoint(rulesDigest,
+                    preformattedHtml, byteOffset, afterCarriageReturn, atLineStart, lineNumber,
+                    contentLength, parseIndexLength, statusCount, sectionCounter, ruleHits);
+            checkpoint.complete = in.readBoolean();
+            if (in.readBoolean()) {
+                checkpoint.metrics = LogParserMetrics.read(in);
+            }
+            return checkpoint;
+        } catch (Exception e) {
+            // An older or partly written checkpoint: parse from the start
+            Logger.getLogger(LogParserCheckpoint.class.getName()).log(Level.FINE,
+                    "Ignoring the checkpoint " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return a number of entries read, checked against what is left to read
+     */
+    static int readSize(final DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        if (size < 0 || size > in.available()) {
+            throw new IOException("Bad size " + size);
+        }
+        return size;
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file first, so that the file
+     * always holds a whole checkpoint.
+     */
+    public void save(final File file) throws IOException {
+        final File tempFile = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(rulesDigest);
+            out.writeBoolean(preformattedHtml);
+            out.writeLong(byteOffset);
+            out.writeBoolean(afterCarriageReturn);
+            out.writeBoolean(atLineStart);
+            out.writeInt(lineNumber);
+            out.writeLong(contentLength);
+            out.writeLong(parseIndexLength);
+            out.writeInt(statusCount.size());
+            for (Map.Entry<String, Integer> entry : statusCount.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+            out.writeInt(sectionCounter);
+            out.writeInt(ruleHits.length);
+            for (int hits : ruleHits) {
+                out.writeInt(hits);
+            }
+            out.writeBoolean(complete);
+            out.writeBoolean(metrics != null);
+            if (metrics != null) {
+                metrics.write(out);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            // Windows does not rename over an existing file
+            if (!file.delete() || !tempFile.renameTo(file)) {
+                throw new IOException("Cannot write " + file);
+            }
+        }
+    }
+
+    /**
+     * @return whether the parsing this checkpoint was saved from is the one
+     *         asked for now, on a log that still has what was parsed of it
+     */
+    public boolean matches(final String rulesDigest, final boolean preformattedHtml,
+            final long logLength) {
+        return this.rulesDigest.equals(rulesDigest) && this.preformattedHtml == preformattedHtml
+                && logLength >= byteOffset;
+    }
+
+    /**
+     * @return whether the parsing can carry on from this checkpoint with the
+     *         rest of the log
+     */
+    public boolean isResumable() {
+        return atLineStart;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void setComplete(final boolean complete) {
+        this.complete = complete;
+    }
+
+    /**
+     * @return the metrics of the parsing, once it is complete, or null
+     */
+    public LogParserMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(final LogParserMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public long getByteOffset() {
+        return byteOffset;
+    }
+
+    public boolean isAfterCarriageReturn() {
+        return afterCarriageReturn;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public long getParseIndexLength() {
+        return parseIndexLength;
+    }
+
+    public HashMap<String, Integer> getStatusCount() {
+        return statusCount;
+    }
+
+    public int getSectionCounter() {
+        return sectionCounter;
+    }
+
+    /**
+     * @return how many lines each rule of the rule table matched up to the
+     *         checkpoint
+     */
+    public int[] getRuleHits() {
+        return ruleHits;
+    }
+
+}
@@ -0,0 +1,233 @@
+package hudson.plugins.logparser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.console.ConsoleLogFilter;
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+
+/**
+ * Parses the log of a build while it is being written, for the projects whose
+ * LogParserPublisher has live parsing enabled. Each line is classified and
+ * appended to the parsed log files as it goes to the console, so that when
+ * the publisher runs it only has to complete the files.
+ * <p>
+ * Only the global parsing rules can be used: project rules are read from the
+ * workspace, which is not there yet when the log starts.
+ */
+@Extension
+public class LogParserConsoleLogFilter extends ConsoleLogFilter {
+
+    private static final Logger LOGGER = Logger.getLogger(LogParserConsoleLogFilter.class
+            .getName());
+
+    // The builds being parsed live
+    private static final Map<Run<?, ?>, LiveParser> LIVE_PARSERS = Collections
+            .synchronizedMap(new WeakHashMap<Run<?, ?>, LiveParser>());
+
+    @Override
+    public OutputStream decorateLogger(final AbstractBuild build, final OutputStream logger)
+            throws IOException, InterruptedException {
+        final AbstractProject<?, ?> project = (AbstractProject<?, ?>) build.getProject();
+        final LogParserPublisher publisher = project.getPublishersList().get(
+                LogParserPublisher.class);
+        if (publisher == null || !publisher.liveParsing || publisher.useProjectRule
+                || publisher.parsingRulesPath == null) {
+            return logger;
+        }
+
+        final boolean preformattedHtml = !((LogParserPublisher.DescriptorImpl) publisher
+                .getDescriptor()).getLegacyFormatting();
+        try {
+            final LogParserParser parser = new LogParserParser(new FilePath(new File(
+                    publisher.parsingRulesPath)), preformattedHtml);
+            parser.startLog(build);
+            final LiveParser liveParser = new LiveParser(parser, publisher.parsingRulesPath,
+                    preformattedHtml);
+            final LiveParserOutputStream out = new LiveParserOutputStream(logger, liveParser,
+                    build.getCharset());
+            liveParser.setOutput(out);
+            LIVE_PARSERS.put(build, liveParser);
+            return out;
+        } catch (IOException e) {
+            // The log will be parsed once the build is done instead
+            LOGGER.log(Level.WARNING, "Cannot parse the log of " + build + " while it runs", e);
+            return logger;
+        }
+    }
+
+    /**
+     * Completes the parsing of a build which was parsed while it ran.
+     *
+     * @param build
+     *            the build
+     * @param parsingRulesPath
+     *            the rules the build should be parsed with
+     * @param preformattedHtml
+     *            the formatting the build should be parsed with
+     * @return the result of the parsing, or null if the build was not parsed
+     *         live, or not with these rules and formatting, and should be
+     *         parsed in full
+     */
+    public static LogParserResult finishLiveParsing(final Run<?, ?> build,
+            final String parsingRulesPath, final boolean preformattedHtml) throws IOException {
+        final LiveParser liveParser = LIVE_PARSERS.remove(build);
+        if (liveParser == null) {
+            return null;
+        }
+        final LogParserResult result = liveParser.finish(build);
+        if (!liveParser.parsingRulesPath.equals(parsingRulesPath)
+                || liveParser.preformattedHtml != preformattedHtml) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * A parser fed with the lines of the log; the lines written once it is
+     * finished are ignored.
+     */
+    private static class LiveParser {
+
+        private final LogParserParser parser;
+        private final String parsingRulesPath;
+        private final boolean preformattedHtml;
+        private boolean finished = false;
+        private boolean failed = false;
+        // Holds the last line until its end of line is written
+        private LiveParserOutputStream out;
+
+        LiveParser(final LogParserParser parser, final String parsingRulesPath,
+                final boolean preformattedHtml) {
+            this.parser = parser;
+            this.parsingRulesPath = parsingRulesPath;
+            this.preformattedHtml = preformattedHtml;
+        }
+
+        synchronized void parse(final String lines) {
+            if (finished || failed) {
+                return;
+            }
+            try {
+                // Split the lines as BufferedReader.readLine does when the
+                // log is parsed in full
+                int start = 0;
+                final int length = lines.length();
+                for (int i = 0; i < length; i++) {
+                    final char c = lines.charAt(i);
+                    if (c == '\n' || c == '\r') {
+                        parser.parseLogLine(lines.substring(start, i));
+                        if (c == '\r' && i + 1 < length && lines.charAt(i + 1) == '\n') {
+                            i++;
+                        }
+                        start = i + 1;
+                    }
+                }
+                if (start < length) {
+                    parser.parseLogLine(lines.substring(start));
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Live log parsing failed", e);
+                failed = true;
+            }
+        }
+
+        void setOutput(final LiveParserOutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * @return the result, or null if the parsing failed
+         */
+        synchronized LogParserResult finish(final Run<?, ?> build) throws IOException {
+            // A last line without an end of line is parsed, as it is when the
+            // log is parsed in full
+            if (out != null && !finished) {
+                out.endPendingLine();
+            }
+            finished = true;
+            final LogParserResult result = parser.finishLog(build);
+            return failed ? null : result;
+        }
+    }
+
+    private static class LiveParserOutputStream extends LineTransformationOutputStream {
+
+        private final OutputStream out;
+        private final LiveParser liveParser;
+        // The encoding of the log, in which it is also read back to be
+        // parsed in full
+        private final Charset charset;
+
+        LiveParserOutputStream(final OutputStream out, final LiveParser liveParser,
+                final Charset charset) {
+            this.out = out;
+            this.liveParser = liveParser;
+            this.charset = charset;
+        }
+
+        /**
+         * Gives the line not ended yet to the parser
+         */
+        void endPendingLine() throws IOException {
+            forceEol();
+        }
+
+        @Override
+        protected void eol(final byte[] b, final int len) throws IOException {
+            out.write(b, 0, len);
+            liveParser.parse(new String(b, 0, len, charset));
+        }
+
+        /**
+         * Flushes the console only: the console is flushed after each output
+         * of the build, and the parsed log files end a gzip member when they
+         * are flushed
+         */
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Completes the parsing of the builds whose publisher did not run, to
+     * close their files
+     */
+    @Extension
+    public static class LiveParserCleaner extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(final Run<?, ?> build, final TaskListener listener) {
+            final LiveParser liveParser = LIVE_PARSERS.remove(build);
+            if (liveParser != null) {
+                try {
+                    liveParser.finish(build);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Cannot complete the live parsing of " + build, e);
+                }
+            }
+        }
+    }
+
+}
@@ -24,6 +24,10 @@ public class LogParserConsts {
     public static final List<String> STATUSES_WITH_LINK_FILES = Arrays.asList(ERROR, WARNING, INFO, DEBUG);
     public static final List<String> STATUSES_WITH_SECTIONS_IN_LINK_FILES = Arrays.asList(ERROR, WARNING, DEBUG);
 
+    // The links to the lines of each status, shown beside the parsed log, a
+    // single gzip member served compressed as log_ref.html
+    public static final String REF_FILE_NAME = "log_ref.html.gz";
+
     public static String getHtmlOpeningTags() {
         final String hudsonRoot = Jenkins.getActiveInstance().getRootUrl();
         return "<!DOCTYPE html>\n" + "<html>\n" + "\t<head>\n"
@@ -41,7 +45,54 @@ public class LogParserConsts {
     public static final int LINES_PER_THREAD = 10000; // How many lines to parse
                                                       // in each thread
     public static final int MAX_THREADS = 2; // How many concurrent threads to
-                                             // run (unused when implementing
-                                             // cached thread pool)
+                                             // run
+    // The lines of a log part are turned into html by the threads in chunks:
+    // up to this many chunks per thread, so the chunks done can be written
+    // out while the others are rendered
+    public static final int RENDER_CHUNKS_PER_THREAD = 4;
+    // and no smaller than this, for which a thread is not worth it
+    public static final int MIN_LINES_PER_RENDER_CHUNK = 500;
+
+    // How often the parsing of a log saves where it is, in milliseconds
+    public static final long CHECKPOINT_INTERVAL = 10000;
+
+    // How many compiled rule sets are kept for the next parsings
+    public static final int RULE_CACHE_SIZE = 16;
+
+    // How many megabytes of diff results between two builds are kept in
+    // memory, and on disk, for the next visits of the diff pages
+    public static final int DIFF_CACHE_MEMORY_SIZE = 64;
+    public static final int DIFF_CACHE_DISK_SIZE = 512;
+
+    // How many diffs between two builds are computed at once in the
+    // background, and how many more may wait for their turn
+    public static final int DIFF_THREADS = 2;
+    public static final int DIFF_QUEUE_SIZE = 8;
+    // How long a diff computed is kept for its page, in milliseconds
+    public static final long FINISHED_DIFF_RETENTION = 60000;
+
+    // How many rules the parsed console page lists when rules are profiled
+    public static final int PROFILED_RULES_SHOWN = 10;
+    // The statistics of a rule are kept with the result of the build, in
+    // build.xml, only if it matched a line or took at least this long, in
+    // milliseconds, when profiled
+    public static final long MIN_RULE_STATISTICS_MILLIS = 1;
+
+    // How long the rules may take to classify a line and a log part, in
+    // milliseconds, before the line or the rest of the part is left
+    // unclassified
+    public static final long LINE_TIME_BUDGET = 1000;
+    public static final long PART_TIME_BUDGET = 60000;
+
+    // How many lines a rule may run out of time on before it is not used
+    // anymore for the log
+    public static final int MAX_RULE_TIMEOUTS = 3;
+
+    // The parsed log is shown a page at a time: one line in
+    // CONTENT_INDEX_INTERVAL has its offset in the parsed log indexed, and a
+    // page has PAGE_LINES lines unless asked otherwise, up to MAX_PAGE_LINES
+    public static final int CONTENT_INDEX_INTERVAL = 1000;
+    public static final int PAGE_LINES = 5000;
+    public static final int MAX_PAGE_LINES = 100000;
 
 }
\ No newline at end of file
@@ -0,0 +1,206 @@
+package hudson.plugins.logparser;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The index of the parsed log of a build, written by LogParserContentWriter:
+ * where each line of the parsed log starts, for one line in getInterval(), so
+ * that a window of lines can be read without reading the lines before it.
+ * <p>
+ * The file starts with a header (magic number, version, interval, whether the
+ * lines are preformatted, number of lines and end of the last line, the last
+ * two being -1 until all the lines are written), followed by the byte offset
+ * in the parsed log of lines 0, interval, 2 * interval and so on, as longs.
+ * Since version 2, the parsed log is log_content.html.gz and the offsets are
+ * those of the gzip members the lines start; version 1 indexes the
+ * uncompressed log_content.html of builds parsed before.
+ */
+public class LogParserContentIndex {
+
+    public static final String FILE_NAME = "log_content.idx";
+    public static final String CONTENT_FILE_NAME = "log_content.html.gz";
+    static final String UNCOMPRESSED_CONTENT_FILE_NAME = "log_content.html";
+
+    static final int MAGIC = 0x4c504349;
+    static final int VERSION = 2;
+    private static final int UNCOMPRESSED_VERSION = 1;
+    static final int HEADER_SIZE = 32;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File indexFile;
+    private final boolean compressed;
+    private final int interval;
+    private final boolean preformattedHtml;
+    private final long lineCount;
+    private final long endOffset;
+
+    private LogParserContentIndex(final File indexFile, final boolean compressed,
+            final int interval, final boolean preformattedHtml, final long lineCount,
+            final long endOffset) {
+        this.indexFile = indexFile;
+        this.compressed = compressed;
+        this.interval = interval;
+        this.preformattedHtml = preformattedHtml;
+        this.lineCount = lineCount;
+        this.endOffset = endOffset;
+    }
+
+    /**
+     * @param indexFile
+     *            the index, beside the parsed log
+     * @return the index, or null if there is none
+     */
+    public static LogParserContentIndex read(final File indexFile) {
+        return read(indexFile, true);
+    }
+
+    /**
+     * @param complete
+     *            whether to only return an index with all the lines of the
+     *            log, rather than one still being written
+     * @return the index, or null if there is none
+     */
+    static LogParserContentIndex read(final File indexFile, final boolean complete) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new FileInputStream(indexFile));
+            try {
+                if (in.readInt() != MAGIC) {
+                    return null;
+                }
+                final int version = in.readInt();
+                if (version != VERSION && version != UNCOMPRESSED_VERSION) {
+                    return null;
+                }
+                final int interval = in.readInt();
+                final boolean preformattedHtml = in.readInt() != 0;
+                final long lineCount = in.readLong();
+                final long endOffset = in.readLong();
+                if (interval <= 0 || (complete && lineCount < 0)) {
+                    return null;
+                }
+                return new LogParserContentIndex(indexFile, version == VERSION, interval,
+                        preformattedHtml, lineCount, endOffset);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return whether the parsed log is compressed, in log_content.html.gz
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return the parsed log indexed, in the directory of the index
+     */
+    public File getContentFile() {
+        return new File(indexFile.getParentFile(), compressed ? CONTENT_FILE_NAME
+                : UNCOMPRESSED_CONTENT_FILE_NAME);
+    }
+
+    /**
+     * @return the number of lines from one offset in the index to the next
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return whether the lines are in a pre element, rather than each
+     *         followed by a br element
+     */
+    public boolean isPreformattedHtml() {
+        return preformattedHtml;
+    }
+
+    /**
+     * @return the number of lines of the log, -1 if they are still being
+     *         written
+     */
+    public long getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Copies lines of the parsed log, as they are in log_content.html
+     *
+     * @param start
+     *            the first line to copy, from 0
+     * @param count
+     *            the number of lines to copy, fewer are copied at the end of
+     *            the log
+     * @param out
+     *            where to copy the lines
+     */
+    public void copyLines(final long start, final int count, final OutputStream out)
+            throws IOException {
+        if (start < 0 || start >= lineCount || count <= 0) {
+            return;
+        }
+        // A parsed line ends with an end of line, or with <br/> and two ends
+        // of lines
+        final int newlinesPerLine = preformattedHtml ? 1 : 2;
+        long toSkip = (start % interval) * newlinesPerLine;
+        long toCopy = Math.min(count, lineCount - start) * newlinesPerLine;
+
+        final long offset = getOffset(start / interval);
+        final FileInputStream file = new FileInputStream(getContentFile());
+        try {
+            file.getChannel().position(offset);
+            // The members after the one the lines start in are read on
+            final InputStream in = compressed ? new GZIPInputStream(file, BUFFER_SIZE) : file;
+            long available = compressed ? Long.MAX_VALUE : endOffset - offset;
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            while (toCopy > 0 && available > 0) {
+                final int read = in.read(buffer, 0, (int) Math.min(buffer.length, available));
+                if (read < 0) {
+                    throw new EOFException(getContentFile() + " is shorter than its index");
+                }
+                available -= read;
+                int from = 0;
+                while (toSkip > 0 && from < read) {
+                    if (buffer[from++] == '\n') {
+                        toSkip--;
+                    }
+                }
+                int to = from;
+                while (toCopy > 0 && to < read) {
+                    if (buffer[to++] == '\n') {
+                        toCopy--;
+                    }
+                }
+                out.write(buffer, from, to - from);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private long getOffset(final long entry) throws IOException {
+        final RandomAccessFile index = new RandomAccessFile(indexFile, "r");
+        try {
+            index.seek(HEADER_SIZE + 8 * entry);
+            return index.readLong();
+        } finally {
+            index.close();
+        }
+    }
+
+}
@@ -0,0 +1,226 @@
+package hudson.plugins.logparser;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the parsed log, log_content.html.gz, and beside it its
+ * LogParserContentIndex. The parsed log is compressed in blocks of
+ * LogParserConsts.CONTENT_INDEX_INTERVAL lines, each a gzip member (see
+ * LogParserBlockGzipOutputStream), and the index has the offset of each block,
+ * so that a page of the parsed log can be served without decompressing the
+ * lines before it.
+ * <p>
+ * The lines of the log are written with writeLine, one per line of the log,
+ * or with write between startLine and endLine; what comes before and after
+ * them (the html header and footer) with write.
+ */
+public class LogParserContentWriter extends BufferedWriter {
+
+    private final CountingOutputStream content;
+    private final DataOutputStream index;
+    private final File indexFile;
+    private final int interval;
+    private int lineCount;
+    private long endOffset = -1;
+
+    private LogParserContentWriter(final CountingOutputStream content, final File indexFile,
+            final DataOutputStream index, final int interval, final int lineCount) {
+        super(new OutputStreamWriter(new LogParserBlockGzipOutputStream(content),
+                Charset.defaultCharset()));
+        this.content = content;
+        this.indexFile = indexFile;
+        this.index = index;
+        this.interval = interval;
+        this.lineCount = lineCount;
+    }
+
+    /**
+     * Creates the parsed log and its index, replacing those of an earlier
+     * parsing
+     *
+     * @param preformattedHtml
+     *            whether the lines are written in a pre element, or each
+     *            followed by a br element
+     */
+    public static LogParserContentWriter create(final File contentFile,
+            final boolean preformattedHtml) throws IOException {
+        final File indexFile = getIndexFile(contentFile);
+        final DataOutputStream index = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexFile)));
+        final int interval = LogParserConsts.CONTENT_INDEX_INTERVAL;
+        index.writeInt(LogParserContentIndex.MAGIC);
+        index.writeInt(LogParserContentIndex.VERSION);
+        index.writeInt(interval);
+        index.writeInt(preformattedHtml ? 1 : 0);
+        // Line count and end of the lines, set once all lines are written
+        index.writeLong(-1);
+        index.writeLong(-1);
+        return new LogParserContentWriter(new CountingOutputStream(new FileOutputStream(
+                contentFile), 0), indexFile, index, interval, 0);
+    }
+
+    /**
+     * Opens the parsed log and its index to carry on writing them, after the
+     * given number of lines
+     *
+     * @param contentLength
+     *            the length the parsed log is cut back to, which must be the
+     *            end of a gzip member, as it is after a flush
+     * @param lineCount
+     *            the number of lines written to the parsed log up to there
+     * @return the writer, or null if there is no index matching the parsed log
+     */
+    public static LogParserContentWriter reopen(final File contentFile, final long contentLength,
+            final int lineCount, final boolean preformattedHtml) throws IOException {
+        final File indexFile = getIndexFile(contentFile);
+        final LogParserContentIndex existing = LogParserContentIndex.read(indexFile, false);
+        if (existing == null || !existing.isCompressed()
+                || existing.isPreformattedHtml() != preformattedHtml) {
+            return null;
+        }
+        // One offset for each interval started
+        final long indexLength = LogParserContentIndex.HEADER_SIZE
+                + 8L * ((lineCount + existing.getInterval() - 1) / existing.getInterval());
+        if (indexFile.length() < indexLength) {
+            return null;
+        }
+        final RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        try {
+            file.setLength(indexLength);
+            // No longer complete
+            file.seek(LogParserContentIndex.HEADER_SIZE - 16);
+            file.writeLong(-1);
+            file.writeLong(-1);
+        } finally {
+            file.close();
+        }
+        final RandomAccessFile contentRaf = new RandomAccessFile(contentFile, "rw");
+        try {
+            contentRaf.setLength(contentLength);
+        } finally {
+            contentRaf.close();
+        }
+        final DataOutputStream index = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(indexFile, true)));
+        return new LogParserContentWriter(new CountingOutputStream(new FileOutputStream(
+                contentFile, true), contentLength), indexFile, index, existing.getInterval(),
+                lineCount);
+    }
+
+    /**
+     * @return the index of the parsed log written to contentFile
+     */
+    public static File getIndexFile(final File contentFile) {
+        return new File(contentFile.getParentFile(), LogParserContentIndex.FILE_NAME);
+    }
+
+    /**
+     * Writes a line of the log, parsed, and its end of line
+     */
+    public void writeLine(final String parsedLine) throws IOException {
+        startLine();
+        write(parsedLine);
+        endLine();
+    }
+
+    /**
+     * Starts a line of the log, which is then written with write and ended
+     * with endLine
+     */
+    public void startLine() throws IOException {
+        if (lineCount % interval == 0) {
+            // Ends the block of the lines before: the bytes written so far
+            // are only known once encoded and compressed
+            super.flush();
+            index.writeLong(content.getCount());
+        }
+    }
+
+    /**
+     * Writes the end of line of the line started with startLine
+     */
+    public void endLine() throws IOException {
+        newLine(); // Write system dependent end of line.
+        lineCount++;
+    }
+
+    /**
+     * @return the number of lines of the log written
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Marks the end of the lines of the log: what is written after is not part
+     * of any line
+     */
+    public void finishLines() throws IOException {
+        super.flush();
+        endOffset = content.getCount();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        super.flush();
+        index.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            index.close();
+        }
+        if (endOffset >= 0) {
+            final RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+            try {
+                file.seek(LogParserContentIndex.HEADER_SIZE - 16);
+                file.writeLong(lineCount);
+                file.writeLong(endOffset);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes written to a file
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(final OutputStream out, final long count) {
+            super(new BufferedOutputStream(out, 64 * 1024));
+            this.count = count;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
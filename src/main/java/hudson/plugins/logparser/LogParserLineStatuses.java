@@ -0,0 +1,117 @@
+package hudson.plugins.logparser;
+
+import java.util.Arrays;
+
+/**
+ * The lines of a log (or of a log part) that matched a parsing rule, or that
+ * the rules took too long to classify (TIMED_OUT).
+ * <p>
+ * Only matched lines are recorded, as two parallel primitive arrays holding
+ * the line number and the index of the rule that matched it, so lines without
+ * a match cost nothing and nothing is boxed. Line numbers must be added in
+ * ascending order, which lets consumers walk the log and the matches side by
+ * side, or look a line up with a binary search.
+ */
+public class LogParserLineStatuses {
+
+    /**
+     * Rule index returned for a line that did not match any rule
+     */
+    public static final int NO_MATCH = -1;
+
+    /**
+     * Rule index returned for a line the rules took too long to classify, see
+     * LogParserMatchBudget
+     */
+    public static final int TIMED_OUT = -2;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] lineNumbers;
+    private int[] ruleIndexes;
+    private int size;
+
+    public LogParserLineStatuses() {
+        this.lineNumbers = new int[INITIAL_CAPACITY];
+        this.ruleIndexes = new int[INITIAL_CAPACITY];
+        this.size = 0;
+    }
+
+    /**
+     * Record that a line matched a rule
+     *
+     * @param lineNumber
+     *            the line number, greater than any line number added before
+     * @param ruleIndex
+     *            the index of the matching rule in the compiled rule table
+     */
+    public void add(final int lineNumber, final int ruleIndex) {
+        if (size > 0 && lineNumber <= lineNumbers[size - 1]) {
+            throw new IllegalArgumentException("Line " + lineNumber + " added after line "
+                    + lineNumbers[size - 1]);
+        }
+        ensureCapacity(size + 1);
+        lineNumbers[size] = lineNumber;
+        ruleIndexes[size] = ruleIndex;
+        size++;
+    }
+
+    /**
+     * Append the matches of a following log part
+     *
+     * @param other
+     *            the matches of the log part
+     * @param lineOffset
+     *            the line number of the first line of that log part
+     */
+    public void addAll(final LogParserLineStatuses other, final int lineOffset) {
+        ensureCapacity(size + other.size);
+        for (int i = 0; i < other.size; i++) {
+            add(other.lineNumbers[i] + lineOffset, other.ruleIndexes[i]);
+        }
+    }
+
+    /**
+     * @return the number of matched lines
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i
+     *            the position of the match, from 0 to size() - 1
+     * @return the line number of the i-th matched line
+     */
+    public int getLineNumber(final int i) {
+        return lineNumbers[i];
+    }
+
+    /**
+     * @param i
+     *            the position of the match, from 0 to size() - 1
+     * @return the index of the rule that matched the i-th matched line
+     */
+    public int getRuleIndex(final int i) {
+        return ruleIndexes[i];
+    }
+
+    /**
+     * @param lineNumber
+     *            a line number
+     * @return the index of the rule that matched the line, or NO_MATCH
+     */
+    public int getRuleIndexOfLine(final int lineNumber) {
+        final int i = Arrays.binarySearch(lineNumbers, 0, size, lineNumber);
+        return i >= 0 ? ruleIndexes[i] : NO_MATCH;
+    }
+
+    private void ensureCapacity(final int capacity) {
+        if (capacity > lineNumbers.length) {
+            final int newCapacity = Math.max(capacity, lineNumbers.length * 2);
+            lineNumbers = Arrays.copyOf(lineNumbers, newCapacity);
+            ruleIndexes = Arrays.copyOf(ruleIndexes, newCapacity);
+        }
+    }
+
+}
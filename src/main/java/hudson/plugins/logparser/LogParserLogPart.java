@@ -1,9 +1,23 @@
 package hudson.plugins.logparser;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
 public class LogParserLogPart {
 
     private String[] lines;
+    private long[] lineOffsets;
+    private boolean[] mayMatch;
+    // The lines ruled out by the reader, left in the mapping of the log
+    private ByteBuffer rawBytes;
+    private int[] rawStarts;
+    private int[] rawEnds;
+    private Charset charset;
     private int logPartNum;
+    // Where the reader was after the part, when the log is read as bytes
+    private long endByteOffset;
+    private boolean endAfterCarriageReturn;
+    private boolean endAtLineStart = true;
 
     // Intentional - first object is created, then fields are set later on.
     public LogParserLogPart() {
@@ -17,6 +31,71 @@ public class LogParserLogPart {
         this.lines = lines;
     }
 
+    /**
+     * @return where each line starts in the log, or null if the log was read
+     *         as text
+     */
+    public long[] getLineOffsets() {
+        return lineOffsets;
+    }
+
+    public void setLineOffsets(final long[] lineOffsets) {
+        this.lineOffsets = lineOffsets;
+    }
+
+    /**
+     * @return for each line, false if the reader found on its bytes that no
+     *         rule can match it; null if the reader did not look. A line
+     *         ruled out is not decoded: its text in getLines() is empty, and
+     *         its bytes are in getRawBytes().
+     */
+    public boolean[] getMayMatch() {
+        return mayMatch;
+    }
+
+    public void setMayMatch(final boolean[] mayMatch) {
+        this.mayMatch = mayMatch;
+    }
+
+    /**
+     * @param rawBytes
+     *            the mapping of the log the lines were read from
+     * @param rawStarts
+     *            where each line ruled out starts in rawBytes
+     * @param rawEnds
+     *            where each line ruled out ends in rawBytes, before its end
+     *            of line
+     * @param charset
+     *            the encoding of the log
+     */
+    public void setRawLines(final ByteBuffer rawBytes, final int[] rawStarts,
+            final int[] rawEnds, final Charset charset) {
+        this.rawBytes = rawBytes;
+        this.rawStarts = rawStarts;
+        this.rawEnds = rawEnds;
+        this.charset = charset;
+    }
+
+    /**
+     * @return the bytes of the lines ruled out, to be read through a
+     *         duplicate as several threads may read them
+     */
+    public ByteBuffer getRawBytes() {
+        return rawBytes;
+    }
+
+    public int getRawStart(final int line) {
+        return rawStarts[line];
+    }
+
+    public int getRawEnd(final int line) {
+        return rawEnds[line];
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
     public int getLogPartNum() {
         return logPartNum;
     }
@@ -25,6 +104,39 @@ public class LogParserLogPart {
         this.logPartNum = logPartNum;
     }
 
+    /**
+     * Keeps where the reader was after reading the part, for a checkpoint
+     * saved once the part is written out: the reader may have read further
+     * by then
+     */
+    public void setEnd(final long byteOffset, final boolean afterCarriageReturn,
+            final boolean atLineStart) {
+        this.endByteOffset = byteOffset;
+        this.endAfterCarriageReturn = afterCarriageReturn;
+        this.endAtLineStart = atLineStart;
+    }
+
+    /**
+     * @return the offset in the log of the byte after the part
+     */
+    public long getEndByteOffset() {
+        return endByteOffset;
+    }
+
+    /**
+     * @return whether the last line of the part ended with a carriage return
+     */
+    public boolean isEndAfterCarriageReturn() {
+        return endAfterCarriageReturn;
+    }
+
+    /**
+     * @return false if the last line of the part had no end of line
+     */
+    public boolean isEndAtLineStart() {
+        return endAtLineStart;
+    }
+
     public boolean isEmpty() {
         return (lines[0] == null);
     }
@@ -0,0 +1,230 @@
+package hudson.plugins.logparser;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the time the parsing rules may take, so that a rule that backtracks
+ * without end on some lines does not stall the parsing of the log.
+ * <p>
+ * Each line has LogParserUtils.getLineTimeBudget() to be classified, and each
+ * log part LogParserUtils.getPartTimeBudget(). The pattern of a rule runs on a
+ * view of the line that throws once the deadline has passed: the line is then
+ * left unclassified and counted as timed out, and the rule is blamed for it.
+ * A rule blamed LogParserConsts.MAX_RULE_TIMEOUTS times is not run anymore
+ * for the rest of the parsing, and the lines of a part left when the part has
+ * used up its budget are not classified. The time taken by a log part is thus
+ * bounded, whatever the rules and the log.
+ * <p>
+ * One budget is used for the whole parsing of a log, by all the threads
+ * classifying its parts.
+ */
+public class LogParserMatchBudget {
+
+    private final String[] parsingRules;
+    private final long lineBudgetNanos;
+    private final long partBudgetNanos;
+
+    private final int[] ruleTimeouts;
+    // The rules not run anymore, one bit per rule, replaced when one is added
+    private volatile long[] disabledRules;
+    private int timedOutLines;
+    private int skippedLines;
+    private int skippedParts;
+
+    /**
+     * @param parsingRules
+     *            the rules of the rule table, to report the rules that timed
+     *            out
+     * @param lineBudgetMillis
+     *            the time a line may take to be classified, 0 or less for no
+     *            limit
+     * @param partBudgetMillis
+     *            the time a log part may take to be classified, 0 or less for
+     *            no limit
+     */
+    public LogParserMatchBudget(final String[] parsingRules, final long lineBudgetMillis,
+            final long partBudgetMillis) {
+        this.parsingRules = parsingRules;
+        this.lineBudgetNanos = toNanos(lineBudgetMillis);
+        this.partBudgetNanos = toNanos(partBudgetMillis);
+        this.ruleTimeouts = new int[parsingRules.length];
+        this.disabledRules = new long[(parsingRules.length + 63) / 64];
+    }
+
+    /**
+     * @return the budget set with LogParserUtils, or null if the time the
+     *         rules take is not to be limited
+     */
+    public static LogParserMatchBudget create(final String[] parsingRules) {
+        final long lineBudget = LogParserUtils.getLineTimeBudget();
+        final long partBudget = LogParserUtils.getPartTimeBudget();
+        if (lineBudget <= 0 && partBudget <= 0) {
+            return null;
+        }
+        return new LogParserMatchBudget(parsingRules, lineBudget, partBudget);
+    }
+
+    /**
+     * @return when the classification of a log part starting now must end
+     */
+    public long getPartDeadline() {
+        return System.nanoTime() + partBudgetNanos;
+    }
+
+    /**
+     * @param partDeadline
+     *            the deadline of the log part the line is in
+     * @return when the classification of a line starting now must end
+     */
+    public long getLineDeadline(final long partDeadline) {
+        final long lineDeadline = System.nanoTime() + lineBudgetNanos;
+        return lineDeadline - partDeadline < 0 ? lineDeadline : partDeadline;
+    }
+
+    /**
+     * @return whether the deadline has passed
+     */
+    public static boolean isPast(final long deadline) {
+        return System.nanoTime() - deadline > 0;
+    }
+
+    /**
+     * @return the rules that are not to be run anymore, one bit per rule
+     *         index. Must not be modified.
+     */
+    public long[] getDisabledRules() {
+        return disabledRules;
+    }
+
+    /**
+     * Blames a rule for a line that could not be classified in time
+     *
+     * @param rule
+     *            the index of the rule that was running at the deadline
+     */
+    public synchronized void recordTimeout(final int rule) {
+        timedOutLines++;
+        ruleTimeouts[rule]++;
+        if (ruleTimeouts[rule] == LogParserConsts.MAX_RULE_TIMEOUTS) {
+            final long[] disabled = disabledRules.clone();
+            disabled[rule >> 6] |= 1L << rule;
+            disabledRules = disabled;
+        }
+    }
+
+    /**
+     * Counts the lines of a log part left unclassified once the part used up
+     * its budget
+     */
+    public synchronized void recordSkippedLines(final int lines) {
+        skippedLines += lines;
+        skippedParts++;
+    }
+
+    /**
+     * @return the number of lines left unclassified, for a rule or for their
+     *         log part running out of time
+     */
+    public synchronized int getTimedOutLines() {
+        return timedOutLines + skippedLines;
+    }
+
+    /**
+     * @return the number of times the rule ran out of time
+     */
+    public synchronized int getRuleTimeouts(final int rule) {
+        return ruleTimeouts[rule];
+    }
+
+    /**
+     * @return the rules that ran out of time and the lines left unclassified,
+     *         one per line, or null if all lines were classified in time
+     */
+    public synchronized String getReport() {
+        final StringBuilder report = new StringBuilder();
+        for (int i = 0; i < ruleTimeouts.length; i++) {
+            if (ruleTimeouts[i] == 0) {
+                continue;
+            }
+            report.append("Parsing rule ").append(parsingRules[i]).append(" ran out of time on ")
+                    .append(ruleTimeouts[i]).append(ruleTimeouts[i] == 1 ? " line" : " lines");
+            if (ruleTimeouts[i] >= LogParserConsts.MAX_RULE_TIMEOUTS) {
+                report.append(" and was not used for the rest of the log");
+            }
+            report.append('\n');
+        }
+        if (skippedLines > 0) {
+            report.append(skippedLines).append(" lines of ").append(skippedParts)
+                    .append(" log parts were not parsed, their part took more than ")
+                    .append(TimeUnit.NANOSECONDS.toMillis(partBudgetNanos)).append(" ms\n");
+        }
+        return report.length() == 0 ? null : report.toString().trim();
+    }
+
+    private static long toNanos(final long millis) {
+        // Far enough not to overflow when added to System.nanoTime()
+        return millis > 0 ? TimeUnit.MILLISECONDS.toNanos(millis) : Long.MAX_VALUE / 4;
+    }
+
+    /**
+     * Thrown by a DeadlineCharSequence read after its deadline
+     */
+    static final class MatchTimeoutException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        MatchTimeoutException() {
+            super("The time budget of the line is used up");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            // Thrown to unwind the regular expression engine only
+            return this;
+        }
+    }
+
+    /**
+     * A line as seen by the pattern of a rule: reading it after the deadline
+     * throws a MatchTimeoutException, which stops the regular expression
+     * engine wherever it is in its backtracking. The clock is only read every
+     * CHECK_INTERVAL characters.
+     */
+    static final class DeadlineCharSequence implements CharSequence {
+
+        private static final int CHECK_INTERVAL = 1024;
+
+        private final CharSequence line;
+        private final long deadline;
+        private int reads;
+
+        DeadlineCharSequence(final CharSequence line, final long deadline) {
+            this.line = line;
+            this.deadline = deadline;
+        }
+
+        public char charAt(final int index) {
+            if (++reads == CHECK_INTERVAL) {
+                reads = 0;
+                if (isPast(deadline)) {
+                    throw new MatchTimeoutException();
+                }
+            }
+            return line.charAt(index);
+        }
+
+        public int length() {
+            return line.length();
+        }
+
+        public CharSequence subSequence(final int start, final int end) {
+            return line.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return line.toString();
+        }
+    }
+
+}
@@ -0,0 +1,473 @@
+package hudson.plugins.logparser;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * What the parsing of a log cost: the time taken by each stage and how much
+ * was parsed, kept with the result of the build so that the cost of the
+ * parser can be followed from build to build. The times are those of this
+ * parsing only: when it resumed from a checkpoint, the lines parsed before
+ * are not counted, but the hits of the rules are those of the whole log. A
+ * parsing finding the log already parsed to its end gives the metrics of the
+ * parsing that did it, kept in its last checkpoint.
+ */
+@ExportedBean(defaultVisibility = 2)
+public class LogParserMetrics {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private long ruleLoadingNanos;
+    private long ruleCompilationNanos;
+    private boolean ruleCacheHit;
+
+    private long logReadingNanos;
+    private long classificationNanos;
+    private long maxPartClassificationNanos;
+    private int parts;
+    private long htmlWritingNanos;
+    private long checkpointNanos;
+    private long linkFileMergeNanos;
+    private long totalNanos;
+
+    private long lines;
+    private long bytes;
+    private long resumedAtLine;
+    private int peakPartsInFlight;
+
+    private List<RuleStatistics> ruleStatistics = new ArrayList<RuleStatistics>();
+    private boolean ruleProfiling;
+
+    /**
+     * @return the time taken to read the rules file
+     */
+    @Exported
+    public long getRuleLoadingMillis() {
+        return toMillis(ruleLoadingNanos);
+    }
+
+    /**
+     * @return the time taken to compile the rules, 0 when they were found
+     *         already compiled
+     */
+    @Exported
+    public long getRuleCompilationMillis() {
+        return toMillis(ruleCompilationNanos);
+    }
+
+    /**
+     * @return whether the compiled rules came from LogParserRuleCache
+     */
+    @Exported
+    public boolean isRuleCacheHit() {
+        return ruleCacheHit;
+    }
+
+    /**
+     * @return the time taken to read the lines of the log
+     */
+    @Exported
+    public long getLogReadingMillis() {
+        return toMillis(logReadingNanos);
+    }
+
+    /**
+     * @return the time taken to find the rule matching each line, for all the
+     *         parts of the log
+     */
+    @Exported
+    public long getClassificationMillis() {
+        return toMillis(classificationNanos);
+    }
+
+    /**
+     * @return the time taken to classify the slowest part of the log
+     */
+    @Exported
+    public long getMaxPartClassificationMillis() {
+        return toMillis(maxPartClassificationNanos);
+    }
+
+    /**
+     * @return the number of parts of LogParserUtils.getLinesPerThread() lines
+     *         the log was read in
+     */
+    @Exported
+    public int getParts() {
+        return parts;
+    }
+
+    /**
+     * @return the time taken to write the parsed log and the links files
+     */
+    @Exported
+    public long getHtmlWritingMillis() {
+        return toMillis(htmlWritingNanos);
+    }
+
+    /**
+     * @return the time taken to save the checkpoints
+     */
+    @Exported
+    public long getCheckpointMillis() {
+        return toMillis(checkpointNanos);
+    }
+
+    /**
+     * @return the time taken to write the reference page from the parse index
+     */
+    @Exported
+    public long getLinkFileMergeMillis() {
+        return toMillis(linkFileMergeNanos);
+    }
+
+    /**
+     * @return the time taken by the whole parsing, rules included
+     */
+    @Exported
+    public long getTotalMillis() {
+        return toMillis(totalNanos);
+    }
+
+    /**
+     * @return the number of lines parsed
+     */
+    @Exported
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * @return the number of bytes of the log parsed
+     */
+    @Exported
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the line the parsing resumed at, 0 if it started with the log
+     */
+    @Exported
+    public long getResumedAtLine() {
+        return resumedAtLine;
+    }
+
+    /**
+     * @return the largest number of log parts held in memory at once
+     */
+    @Exported
+    public int getPeakPartsInFlight() {
+        return peakPartsInFlight;
+    }
+
+    @Exported
+    public long getLinesPerSecond() {
+        return perSecond(lines);
+    }
+
+    @Exported
+    public long getBytesPerSecond() {
+        return perSecond(bytes);
+    }
+
+    /**
+     * @return how many lines each rule matched, in the order of the rules
+     *         file. Only the rules that matched a line, or that took at least
+     *         LogParserConsts.MIN_RULE_STATISTICS_MILLIS when profiled, are
+     *         kept.
+     */
+    @Exported(inline = true)
+    public List<RuleStatistics> getRuleStatistics() {
+        return ruleStatistics;
+    }
+
+    /**
+     * @return whether the time taken by each rule was recorded, see
+     *         LogParserUtils.isRuleProfiling()
+     */
+    @Exported
+    public boolean isRuleProfiling() {
+        return ruleProfiling;
+    }
+
+    /**
+     * @return the rules that took the most time, slowest first, at most
+     *         LogParserConsts.PROFILED_RULES_SHOWN of them. Empty unless the
+     *         rules were profiled.
+     */
+    public List<RuleStatistics> getMostExpensiveRules() {
+        final List<RuleStatistics> result = new ArrayList<RuleStatistics>();
+        if (!ruleProfiling) {
+            return result;
+        }
+        for (RuleStatistics statistics : ruleStatistics) {
+            if (statistics.getEvaluations() > 0) {
+                result.add(statistics);
+            }
+        }
+        Collections.sort(result, new Comparator<RuleStatistics>() {
+            public int compare(final RuleStatistics a, final RuleStatistics b) {
+                return a.nanos < b.nanos ? 1 : (a.nanos == b.nanos ? 0 : -1);
+            }
+        });
+        return result.subList(0, Math.min(result.size(), LogParserConsts.PROFILED_RULES_SHOWN));
+    }
+
+    public long getRuleLoadingNanos() {
+        return ruleLoadingNanos;
+    }
+
+    public long getRuleCompilationNanos() {
+        return ruleCompilationNanos;
+    }
+
+    public void setRuleLoadingNanos(final long ruleLoadingNanos) {
+        this.ruleLoadingNanos = ruleLoadingNanos;
+    }
+
+    public void setRuleCompilationNanos(final long ruleCompilationNanos) {
+        this.ruleCompilationNanos = ruleCompilationNanos;
+    }
+
+    public void setRuleCacheHit(final boolean ruleCacheHit) {
+        this.ruleCacheHit = ruleCacheHit;
+    }
+
+    public void addLogReadingNanos(final long nanos) {
+        this.logReadingNanos += nanos;
+    }
+
+    /**
+     * Counts a part of the log and the time taken to classify its lines
+     */
+    public void addPartClassificationNanos(final long nanos) {
+        this.classificationNanos += nanos;
+        this.maxPartClassificationNanos = Math.max(maxPartClassificationNanos, nanos);
+        this.parts++;
+    }
+
+    public void addHtmlWritingNanos(final long nanos) {
+        this.htmlWritingNanos += nanos;
+    }
+
+    public void addCheckpointNanos(final long nanos) {
+        this.checkpointNanos += nanos;
+    }
+
+    public void setLinkFileMergeNanos(final long linkFileMergeNanos) {
+        this.linkFileMergeNanos = linkFileMergeNanos;
+    }
+
+    public void setTotalNanos(final long totalNanos) {
+        this.totalNanos = totalNanos;
+    }
+
+    public void addLines(final long lines) {
+        this.lines += lines;
+    }
+
+    public void setBytes(final long bytes) {
+        this.bytes = bytes;
+    }
+
+    public void setResumedAtLine(final long resumedAtLine) {
+        this.resumedAtLine = resumedAtLine;
+    }
+
+    /**
+     * Keeps the number of log parts held in memory if it is the largest yet
+     */
+    public void recordPartsInFlight(final int partsInFlight) {
+        this.peakPartsInFlight = Math.max(this.peakPartsInFlight, partsInFlight);
+    }
+
+    public void setRuleStatistics(final List<RuleStatistics> ruleStatistics) {
+        this.ruleStatistics = ruleStatistics;
+    }
+
+    public void setRuleProfiling(final boolean ruleProfiling) {
+        this.ruleProfiling = ruleProfiling;
+    }
+
+    /**
+     * Writes the metrics to a LogParserCheckpoint
+     */
+    void write(final DataOutputStream out) throws IOException {
+        out.writeLong(ruleLoadingNanos);
+        out.writeLong(ruleCompilationNanos);
+        out.writeBoolean(ruleCacheHit);
+        out.writeLong(logReadingNanos);
+        out.writeLong(classificationNanos);
+        out.writeLong(maxPartClassificationNanos);
+        out.writeInt(parts);
+        out.writeLong(htmlWritingNanos);
+        out.writeLong(checkpointNanos);
+        out.writeLong(linkFileMergeNanos);
+        out.writeLong(totalNanos);
+        out.writeLong(lines);
+        out.writeLong(bytes);
+        out.writeLong(resumedAtLine);
+        out.writeInt(peakPartsInFlight);
+        out.writeBoolean(ruleProfiling);
+        out.writeInt(ruleStatistics.size());
+        for (RuleStatistics statistics : ruleStatistics) {
+            // A rule may be longer than what writeUTF takes
+            final byte[] rule = statistics.rule.getBytes(UTF_8);
+            out.writeInt(rule.length);
+            out.write(rule);
+            out.writeUTF(statistics.status);
+            out.writeInt(statistics.hits);
+            out.writeLong(statistics.nanos);
+            out.writeLong(statistics.evaluations);
+            out.writeBoolean(statistics.nestedQuantifier);
+        }
+    }
+
+    /**
+     * @return the metrics written by write
+     */
+    static LogParserMetrics read(final DataInputStream in) throws IOException {
+        final LogParserMetrics metrics = new LogParserMetrics();
+        metrics.ruleLoadingNanos = in.readLong();
+        metrics.ruleCompilationNanos = in.readLong();
+        metrics.ruleCacheHit = in.readBoolean();
+        metrics.logReadingNanos = in.readLong();
+        metrics.classificationNanos = in.readLong();
+        metrics.maxPartClassificationNanos = in.readLong();
+        metrics.parts = in.readInt();
+        metrics.htmlWritingNanos = in.readLong();
+        metrics.checkpointNanos = in.readLong();
+        metrics.linkFileMergeNanos = in.readLong();
+        metrics.totalNanos = in.readLong();
+        metrics.lines = in.readLong();
+        metrics.bytes = in.readLong();
+        metrics.resumedAtLine = in.readLong();
+        metrics.peakPartsInFlight = in.readInt();
+        metrics.ruleProfiling = in.readBoolean();
+        final int size = LogParserCheckpoint.readSize(in);
+        for (int i = 0; i < size; i++) {
+            final byte[] rule = new byte[LogParserCheckpoint.readSize(in)];
+            in.readFully(rule);
+            final RuleStatistics statistics = new RuleStatistics(new String(rule, UTF_8),
+                    in.readUTF(), in.readInt());
+            statistics.setProfile(in.readLong(), in.readLong(), in.readBoolean());
+            metrics.ruleStatistics.add(statistics);
+        }
+        return metrics;
+    }
+
+    private long perSecond(final long count) {
+        if (totalNanos <= 0) {
+            return 0;
+        }
+        return (long) (count * (double) TimeUnit.SECONDS.toNanos(1) / totalNanos);
+    }
+
+    private static long toMillis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * How much a parsing rule was used
+     */
+    @ExportedBean(defaultVisibility = 3)
+    public static class RuleStatistics {
+
+        private final String rule;
+        private final String status;
+        private final int hits;
+        // Only set when the rules were profiled
+        private long nanos;
+        private long evaluations;
+        private boolean nestedQuantifier;
+
+        public RuleStatistics(final String rule, final String status, final int hits) {
+            this.rule = rule;
+            this.status = status;
+            this.hits = hits;
+        }
+
+        /**
+         * @param nanos
+         *            the time spent running the pattern of the rule
+         * @param evaluations
+         *            how many times the pattern was run
+         * @param nestedQuantifier
+         *            whether the pattern has nested unbounded quantifiers
+         */
+        public void setProfile(final long nanos, final long evaluations,
+                final boolean nestedQuantifier) {
+            this.nanos = nanos;
+            this.evaluations = evaluations;
+            this.nestedQuantifier = nestedQuantifier;
+        }
+
+        /**
+         * @return the rule, as found in the rules file
+         */
+        @Exported
+        public String getRule() {
+            return rule;
+        }
+
+        @Exported
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the number of lines the rule was the first to match
+         */
+        @Exported
+        public int getHits() {
+            return hits;
+        }
+
+        /**
+         * @return the time spent running the pattern of the rule, when the
+         *         rules were profiled
+         */
+        @Exported
+        public long getTimeMillis() {
+            return toMillis(nanos);
+        }
+
+        /**
+         * @return the time spent running the pattern, in microseconds, for
+         *         rules too fast to show in milliseconds
+         */
+        public long getTimeMicros() {
+            return TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+
+        /**
+         * @return how many lines the pattern of the rule was run on, when the
+         *         rules were profiled
+         */
+        @Exported
+        public long getEvaluations() {
+            return evaluations;
+        }
+
+        /**
+         * @return whether the pattern of the rule has nested unbounded
+         *         quantifiers, see LogParserRuleMatcher.hasNestedQuantifier
+         */
+        @Exported
+        public boolean isNestedQuantifier() {
+            return nestedQuantifier;
+        }
+    }
+
+}
@@ -0,0 +1,306 @@
+package hudson.plugins.logparser;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The parse index of a build, written by LogParserParseIndexWriter: one entry
+ * for each line of the log that a parsing rule gave a status, and the section
+ * table, from which the reference page and the lists of links of each status
+ * are generated.
+ * <p>
+ * The file, log_parse.idx.gz, is compressed like the parsed log (see
+ * LogParserBlockGzipOutputStream). It starts with a header (magic number,
+ * version and the statuses the entries refer to by index), followed by the
+ * entries in the order of the lines of the log: a flags byte (whether the line
+ * starts a new section), the status, the line number from 0, the byte offset
+ * of the line in the log (-1 when not known), the section the line is in and
+ * the line, without its console notes, as UTF-8 preceded by its length.
+ * <p>
+ * The section table is built when the index is read: section 0 starts at the
+ * beginning of the log, and each line of a START rule starts the next one.
+ */
+public class LogParserParseIndex {
+
+    public static final String FILE_NAME = "log_parse.idx.gz";
+
+    static final int MAGIC = 0x4c505049;
+    static final int VERSION = 1;
+    static final int STARTS_SECTION = 1;
+    static final Charset TEXT_CHARSET = Charset.forName("UTF-8");
+
+    private final File file;
+    private final List<String> statuses;
+    private final List<Section> sections = new ArrayList<Section>();
+    private final int[] counts;
+
+    private LogParserParseIndex(final File file, final List<String> statuses) {
+        this.file = file;
+        this.statuses = Collections.unmodifiableList(statuses);
+        this.counts = new int[statuses.size()];
+        sections.add(new Section(0, null, statuses.size()));
+    }
+
+    /**
+     * Reads the entries once, to build the section table and count the lines
+     * of each status
+     *
+     * @return the index, or null if there is none
+     */
+    public static LogParserParseIndex read(final File file) throws IOException {
+        if (!file.isFile() || file.length() == 0) {
+            return null;
+        }
+        final DataInputStream in = open(file);
+        try {
+            final List<String> statuses = readHeader(in);
+            if (statuses == null) {
+                return null;
+            }
+            final LogParserParseIndex index = new LogParserParseIndex(file, statuses);
+            final Entries entries = index.new Entries(in);
+            Entry entry;
+            while ((entry = entries.next()) != null) {
+                index.add(entry);
+            }
+            return index;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the statuses in the header, or null if the file is not a parse
+     *         index of this version
+     */
+    static List<String> readHeader(final DataInputStream in) throws IOException {
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            final int size = in.readInt();
+            final List<String> statuses = new ArrayList<String>(size);
+            for (int i = 0; i < size; i++) {
+                statuses.add(in.readUTF());
+            }
+            return statuses;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static DataInputStream open(final File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(LogParserUtils.openHtmlFile(file)));
+    }
+
+    private void add(final Entry entry) {
+        counts[entry.statusIndex]++;
+        sections.get(entry.section).counts[entry.statusIndex]++;
+        if (entry.startsSection) {
+            sections.add(new Section(entry.section + 1, entry, statuses.size()));
+        }
+    }
+
+    /**
+     * @return the statuses the lines can have: those with their own list of
+     *         links, then the extra tags of the rules
+     */
+    public List<String> getStatuses() {
+        return statuses;
+    }
+
+    /**
+     * @return the number of lines of the status
+     */
+    public int getCount(final String status) {
+        final int statusIndex = statuses.indexOf(status);
+        return statusIndex < 0 ? 0 : counts[statusIndex];
+    }
+
+    /**
+     * @return the sections of the log, in order, the first one starting at
+     *         the beginning of the log
+     */
+    public List<Section> getSections() {
+        return Collections.unmodifiableList(sections);
+    }
+
+    /**
+     * @return the entries, read again from the file. Must be closed.
+     */
+    public Entries openEntries() throws IOException {
+        final DataInputStream in = open(file);
+        if (readHeader(in) == null) {
+            in.close();
+            throw new IOException(file + " is not a parse index");
+        }
+        return new Entries(in);
+    }
+
+    /**
+     * The entries of the index, read one at a time
+     */
+    public final class Entries implements Closeable {
+
+        private final DataInputStream in;
+        // The number of lines of each status read so far
+        private final int[] ordinals = new int[statuses.size()];
+
+        private Entries(final DataInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * @return the next entry, or null after the last one
+         */
+        public Entry next() throws IOException {
+            final int flags = in.read();
+            if (flags < 0) {
+                return null;
+            }
+            final int statusIndex = in.readUnsignedByte();
+            final int lineNumber = in.readInt();
+            final long byteOffset = in.readLong();
+            final int section = in.readInt();
+            final byte[] text = new byte[in.readInt()];
+            in.readFully(text);
+            if (statusIndex >= statuses.size()) {
+                throw new IOException("Unknown status " + statusIndex + " in " + file);
+            }
+            ordinals[statusIndex]++;
+            return new Entry(statusIndex, statuses.get(statusIndex), ordinals[statusIndex],
+                    lineNumber, byteOffset, section, (flags & STARTS_SECTION) != 0,
+                    new String(text, TEXT_CHARSET));
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * A line of the log that a parsing rule gave a status
+     */
+    public static final class Entry {
+
+        private final int statusIndex;
+        private final String status;
+        private final int ordinal;
+        private final int lineNumber;
+        private final long byteOffset;
+        private final int section;
+        private final boolean startsSection;
+        private final String text;
+
+        Entry(final int statusIndex, final String status, final int ordinal,
+                final int lineNumber, final long byteOffset, final int section,
+                final boolean startsSection, final String text) {
+            this.statusIndex = statusIndex;
+            this.status = status;
+            this.ordinal = ordinal;
+            this.lineNumber = lineNumber;
+            this.byteOffset = byteOffset;
+            this.section = section;
+            this.startsSection = startsSection;
+            this.text = text;
+        }
+
+        /**
+         * @return the status of the line, INFO for the lines starting a
+         *         section
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the number of lines of the status up to this one, from 1:
+         *         the line is marked with the status followed by it
+         */
+        public int getOrdinal() {
+            return ordinal;
+        }
+
+        /**
+         * @return the line number in the log, from 0
+         */
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        /**
+         * @return where the line starts in the log, or -1 if it is not known
+         *         (when the log was parsed while being written, or read as
+         *         text)
+         */
+        public long getByteOffset() {
+            return byteOffset;
+        }
+
+        /**
+         * @return the section the line is in
+         */
+        public int getSection() {
+            return section;
+        }
+
+        /**
+         * @return whether the line starts the section after its own
+         */
+        public boolean isStartsSection() {
+            return startsSection;
+        }
+
+        /**
+         * @return the line, without its console notes
+         */
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * A section of the log, with the number of lines of each status in it
+     */
+    public final class Section {
+
+        private final int number;
+        private final Entry header;
+        private final int[] counts;
+
+        private Section(final int number, final Entry header, final int numStatuses) {
+            this.number = number;
+            this.header = header;
+            this.counts = new int[numStatuses];
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * @return the line starting the section, or null for the section at
+         *         the beginning of the log
+         */
+        public Entry getHeader() {
+            return header;
+        }
+
+        /**
+         * @return the number of lines of the status in the section
+         */
+        public int getCount(final String status) {
+            final int statusIndex = statuses.indexOf(status);
+            return statusIndex < 0 ? 0 : counts[statusIndex];
+        }
+    }
+
+}
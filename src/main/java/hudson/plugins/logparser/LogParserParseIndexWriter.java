@@ -0,0 +1,129 @@
+package hudson.plugins.logparser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the parse index of a build, as described in LogParserParseIndex, an
+ * entry at a time as the lines of the log are parsed.
+ */
+public class LogParserParseIndexWriter {
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> statusIndexes = new HashMap<String, Integer>();
+
+    private LogParserParseIndexWriter(final File file, final boolean append,
+            final List<String> statuses) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new LogParserBlockGzipOutputStream(new FileOutputStream(file, append)),
+                64 * 1024));
+        for (int i = 0; i < statuses.size(); i++) {
+            statusIndexes.put(statuses.get(i), i);
+        }
+    }
+
+    /**
+     * Creates the parse index, replacing that of an earlier parsing
+     *
+     * @param statuses
+     *            the statuses the lines can have
+     */
+    public static LogParserParseIndexWriter create(final File file, final List<String> statuses)
+            throws IOException {
+        if (statuses.size() > 255) {
+            throw new IOException("Too many statuses for a parse index: " + statuses.size());
+        }
+        final LogParserParseIndexWriter writer = new LogParserParseIndexWriter(file, false,
+                statuses);
+        writer.out.writeInt(LogParserParseIndex.MAGIC);
+        writer.out.writeInt(LogParserParseIndex.VERSION);
+        writer.out.writeInt(statuses.size());
+        for (String status : statuses) {
+            writer.out.writeUTF(status);
+        }
+        return writer;
+    }
+
+    /**
+     * Opens the parse index to carry on writing it
+     *
+     * @param length
+     *            the length the index is cut back to, which must be the end
+     *            of a gzip member, as it is after a flush
+     * @return the writer, or null if the index does not have these statuses
+     */
+    public static LogParserParseIndexWriter reopen(final File file, final long length,
+            final List<String> statuses) throws IOException {
+        if (file.length() < length) {
+            return null;
+        }
+        final DataInputStream in = new DataInputStream(LogParserUtils.openHtmlFile(file));
+        try {
+            if (!statuses.equals(LogParserParseIndex.readHeader(in))) {
+                return null;
+            }
+        } finally {
+            in.close();
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+        return new LogParserParseIndexWriter(file, true, statuses);
+    }
+
+    /**
+     * Adds the entry of a line
+     *
+     * @param status
+     *            the status of the line, INFO for a line starting a section
+     * @param lineNumber
+     *            the line number in the log, from 0
+     * @param byteOffset
+     *            where the line starts in the log, -1 if it is not known
+     * @param section
+     *            the section the line is in
+     * @param startsSection
+     *            whether the line starts the next section
+     * @param text
+     *            the line, without its console notes
+     */
+    public void writeEntry(final String status, final int lineNumber, final long byteOffset,
+            final int section, final boolean startsSection, final String text)
+            throws IOException {
+        final Integer statusIndex = statusIndexes.get(status);
+        if (statusIndex == null) {
+            throw new IOException("Unknown status " + status);
+        }
+        final byte[] bytes = text.getBytes(LogParserParseIndex.TEXT_CHARSET);
+        out.writeByte(startsSection ? LogParserParseIndex.STARTS_SECTION : 0);
+        out.writeByte(statusIndex);
+        out.writeInt(lineNumber);
+        out.writeLong(byteOffset);
+        out.writeInt(section);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Writes out the entries buffered, ending the current gzip member
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
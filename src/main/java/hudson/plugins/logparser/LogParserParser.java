@@ -1,22 +1,30 @@
 package hudson.plugins.logparser;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import hudson.FilePath;
-import hudson.console.ConsoleNote;
 import hudson.model.AbstractBuild;
 import hudson.model.Run;
 import hudson.remoting.VirtualChannel;
@@ -24,41 +32,73 @@ import hudson.remoting.VirtualChannel;
 public class LogParserParser {
 
     final private HashMap<String, Integer> statusCount = new HashMap<String, Integer>();
-    final private HashMap<String, BufferedWriter> writers = new HashMap<String, BufferedWriter>();
-    final private HashMap<String, String> linkFiles = new HashMap<String, String>();
-
-    final private String[] parsingRulesArray;
-    final private Pattern[] compiledPatterns;
+    // The statuses of the parse index, those with links then the extra tags
+    final private List<String> indexStatuses = new ArrayList<String>(
+            LogParserConsts.STATUSES_WITH_LINK_FILES);
+    // The index of each of these statuses, in the counts of a rendered chunk
+    final private Map<String, Integer> statusIndexes = new HashMap<String, Integer>();
+
+    final private String[] ruleStatuses;
+    final private LogParserRuleMatcher ruleMatcher;
     final private CompiledPatterns compiledPatternsPlusError;
     final private List<String> extraTags;
+    // Tells whether a checkpoint was saved by a parser with the same rules
+    final private String rulesDigest;
+    // How many lines each rule of the rule table matched
+    final private int[] ruleHits;
+    // Those of the parsing that did it, when the log was already parsed
+    private LogParserMetrics metrics = new LogParserMetrics();
+    // The time taken by each rule, null unless rule profiling is on
+    final private LogParserRuleProfile ruleProfile;
+    // The time the rules may take, null if it is not limited
+    private LogParserMatchBudget matchBudget;
+    // The lines given to parseLogLine share the budget of a log part, a part
+    // being LogParserUtils.getLinesPerThread() lines as in parseLogBody
+    private int livePartLines = 0;
+    private long livePartNanos = 0;
+    private int liveSkippedLines = 0;
 
-    // if key is 3-ERROR it shows how many errors are in section 3
-    final private HashMap<String, Integer> statusCountPerSection = new HashMap<String, Integer>();
-    final private ArrayList<String> headerForSection = new ArrayList<String>();
     private int sectionCounter = 0;
 
+    // Set by startLog
+    private String logDirectory;
+    private LogParserContentWriter contentWriter;
+    private LogParserParseIndexWriter parseIndexWriter;
+
     final private LogParserDisplayConsts displayConstants = new LogParserDisplayConsts();
 
-    final private VirtualChannel channel;
     final private boolean preformattedHtml;
 
+    /**
+     * @deprecated the log is parsed where the build's log is, the channel is
+     *             not used; use LogParserParser(FilePath, boolean)
+     */
+    @Deprecated
     public LogParserParser(final FilePath parsingRulesFile, final boolean preformattedHtml,
                            final VirtualChannel channel) throws IOException {
+        this(parsingRulesFile, preformattedHtml);
+    }
 
-        // init logger
-        final Logger logger = Logger.getLogger(getClass().getName());
-
-        this.parsingRulesArray = LogParserUtils.readParsingRules(parsingRulesFile);
+    public LogParserParser(final FilePath parsingRulesFile, final boolean preformattedHtml)
+            throws IOException {
 
         // This causes each regular expression to be compiled once for better
-        // performance
-        this.compiledPatternsPlusError = LogParserUtils.compilePatterns(this.parsingRulesArray,
-                logger);
-        this.compiledPatterns = this.compiledPatternsPlusError.getCompiledPatterns();
+        // performance, and only once for all the builds parsed with the same
+        // rules
+        final LogParserRuleCache.CompiledRules compiledRules = LogParserRuleCache
+                .get(parsingRulesFile, metrics);
+        this.compiledPatternsPlusError = compiledRules.getCompiledPatterns();
+        this.ruleStatuses = this.compiledPatternsPlusError.getStatuses();
+        this.ruleMatcher = compiledRules.getRuleMatcher();
         this.extraTags = this.compiledPatternsPlusError.getExtraTags();
+        this.rulesDigest = compiledRules.getDigest();
+        this.ruleHits = new int[this.compiledPatternsPlusError.size()];
+        this.ruleProfile = LogParserUtils.isRuleProfiling() ? new LogParserRuleProfile(
+                this.ruleHits.length) : null;
+        this.matchBudget = LogParserMatchBudget.create(this.compiledPatternsPlusError
+                .getParsingRules());
 
         this.preformattedHtml = preformattedHtml;
-        this.channel = channel;
 
         // Count of lines in this status
         statusCount.put(LogParserConsts.ERROR, 0);
@@ -68,6 +108,10 @@ public class LogParserParser {
         for (String extraTag : this.extraTags) {
             statusCount.put(extraTag, 0);
         }
+        indexStatuses.addAll(this.extraTags);
+        for (int i = 0; i < indexStatuses.size(); i++) {
+            statusIndexes.put(indexStatuses.get(i), i);
+        }
     }
 
     /*
@@ -86,109 +130,261 @@ public class LogParserParser {
 
         // init logger
         final Logger logger = Logger.getLogger(getClass().getName());
+        final long startTime = System.nanoTime();
 
         // Get console log file
         final File logFile = build.getLogFile();
-        final String logDirectory = logFile.getParent();
         final String logFileLocation = logFile.getAbsolutePath();
-        final FilePath filePath = new FilePath(new File(logFileLocation));
 
-        // Determine parsed log files
-        final String parsedFilePath = logDirectory + "/log_content.html";
-        final String errorLinksFilePath = logDirectory + "/logerrorLinks.html";
-        final String warningLinksFilePath = logDirectory + "/logwarningLinks.html";
-        final String infoLinksFilePath = logDirectory + "/loginfoLinks.html";
-        final String debugLinksFilePath = logDirectory + "/logdebugLinks.html";
-        final Map<String, String> linksFilePathByExtraTags = new HashMap<String, String>();
-        for (String extraTag : this.extraTags) {
-            linksFilePathByExtraTags.put(extraTag, logDirectory + "/log" + extraTag + "Links.html");
+        // Carry on from where the last parsing of this log stopped, if it had
+        // the same rules. The checkpoints need the end of lines to be single
+        // bytes, to find the lines from the bytes of the log. The log is read
+        // in the encoding of the build, as when it is parsed while it runs.
+        File checkpointFile = null;
+        LogParserCheckpoint checkpoint = null;
+        if (LogParserReader.isSupported(build.getCharset())) {
+            checkpointFile = new File(logFile.getParent(), LogParserCheckpoint.FILE_NAME);
+            checkpoint = LogParserCheckpoint.load(checkpointFile);
+            if (checkpoint != null
+                    && !checkpoint.matches(rulesDigest, preformattedHtml, logFile.length())) {
+                checkpoint = null;
+            }
         }
-        final String buildRefPath = logDirectory + "/log_ref.html";
-        final String buildWrapperPath = logDirectory + "/log.html";
 
-        // Record file paths in hash
-        linkFiles.put(LogParserConsts.ERROR, errorLinksFilePath);
-        linkFiles.put(LogParserConsts.WARNING, warningLinksFilePath);
-        linkFiles.put(LogParserConsts.INFO, infoLinksFilePath);
-        linkFiles.put(LogParserConsts.DEBUG, debugLinksFilePath);
-        for (String extraTag : this.extraTags) {
-            linkFiles.put(extraTag, linksFilePathByExtraTags.get(extraTag));
+        // Already parsed up to the end of the log
+        if (checkpoint != null && checkpoint.isComplete()
+                && checkpoint.getByteOffset() == logFile.length()
+                && restoreLog(build, checkpoint, false)) {
+            logger.log(Level.INFO, "LogParserParser: " + logFileLocation + " is already parsed");
+            if (checkpoint.getMetrics() != null) {
+                metrics = checkpoint.getMetrics();
+            } else {
+                metrics.setResumedAtLine(checkpoint.getLineNumber());
+                recordRuleStatistics();
+                recordTotalTime(startTime);
+            }
+            return createResult(build);
         }
 
+        if (checkpoint == null || !checkpoint.isResumable()
+                || !restoreLog(build, checkpoint, true)) {
+            checkpoint = null;
+            startLog(build);
+        }
+        // Read bulks of lines, parse
+        checkpoint = parseLogBody(build, contentWriter, logFileLocation, checkpoint,
+                checkpointFile, logger);
+        final LogParserResult result = finishLog(build);
+        recordTotalTime(startTime);
+        if (checkpoint != null) {
+            checkpoint.setComplete(true);
+            checkpoint.setMetrics(metrics);
+            checkpoint.save(checkpointFile);
+        }
+        return result;
+    }
+
+    /**
+     * Creates the parsed log files of the build and writes their beginning.
+     * The lines of the log are then given one at a time to parseLogLine, and
+     * finishLog completes the files. This is what parseLog does with the
+     * whole log; it also lets a log be parsed while it is being written.
+     */
+    public void startLog(final Run<?, ?> build) throws IOException {
+        this.logDirectory = build.getLogFile().getParent();
+        // The files are started again: the checkpoint of an earlier parsing
+        // no longer goes with them
+        new File(logDirectory, LogParserCheckpoint.FILE_NAME).delete();
+
+        // Determine parsed log files
+        final String parsedFilePath = logDirectory + "/" + LogParserContentIndex.CONTENT_FILE_NAME;
+
         // Open console log for reading and all other files for writing
-        final BufferedWriter writer = new BufferedWriter(new FileWriter(parsedFilePath));
+        this.contentWriter = LogParserContentWriter.create(new File(parsedFilePath),
+                preformattedHtml);
+        // The lines given a status, from which the reference page is written
+        // once the whole log is parsed
+        this.parseIndexWriter = LogParserParseIndexWriter.create(new File(logDirectory,
+                LogParserParseIndex.FILE_NAME), indexStatuses);
+
+        contentWriter.write(LogParserConsts.getHtmlOpeningTags());
+        if (this.preformattedHtml)
+            contentWriter.write("<pre>");
+    }
 
-        // Record writers to links files in hash
-        writers.put(LogParserConsts.ERROR, new BufferedWriter(new FileWriter(errorLinksFilePath)));
-        writers.put(LogParserConsts.WARNING, new BufferedWriter(new FileWriter(warningLinksFilePath)));
-        writers.put(LogParserConsts.INFO, new BufferedWriter(new FileWriter(infoLinksFilePath)));
-        writers.put(LogParserConsts.DEBUG, new BufferedWriter(new FileWriter(debugLinksFilePath)));
-        for (String extraTag : this.extraTags) {
-            writers.put(extraTag, new BufferedWriter(new FileWriter(
-                    linksFilePathByExtraTags.get(extraTag))));
+    /**
+     * Sets the parser back to the state saved in a checkpoint. The parsed log
+     * files must still have what was written to them up to the checkpoint.
+     *
+     * @param reopen
+     *            whether to cut the parsed log files back to the checkpoint,
+     *            and open them to carry on writing
+     * @return false if the parsed log files do not match the checkpoint
+     */
+    private boolean restoreLog(final Run<?, ?> build, final LogParserCheckpoint checkpoint,
+            final boolean reopen) throws IOException {
+        this.logDirectory = build.getLogFile().getParent();
+        final String parsedFilePath = logDirectory + "/" + LogParserContentIndex.CONTENT_FILE_NAME;
+        final File parseIndexFile = new File(logDirectory, LogParserParseIndex.FILE_NAME);
+
+        if (new File(parsedFilePath).length() < checkpoint.getContentLength()
+                || parseIndexFile.length() < checkpoint.getParseIndexLength()) {
+            return false;
         }
 
-        // Loop on the console log as long as there are input lines and parse
-        // line by line
-        // At the end of this loop, we will have:
-        // - a parsed log with colored lines
-        // - 3 links files which will be consolidated into one referencing html
-        // file.
-
-        // Create dummy header and section for beginning of log
-        final String shortLink = " <a target=\"content\" href=\"log_content.html\">Beginning of log</a>";
-        LogParserWriter.writeHeaderTemplateToAllLinkFiles(writers, sectionCounter); // This
-        // enters
-        // a
-        // line
-        // which
-        // will
-        // later
-        // be
-        // replaced
-        // by
-        // the
-        // actual
-        // header
-        // and
-        // count
-        // for
-        // this
-        // header
-        headerForSection.add(shortLink);
-        writer.write(LogParserConsts.getHtmlOpeningTags());
-        if (this.preformattedHtml)
-            writer.write("<pre>");
-        // Read bulks of lines, parse
-        final int linesInLog = LogParserUtils.countLines(logFileLocation);
-        parseLogBody(build, writer, filePath, logFileLocation, linesInLog, logger);
+        if (reopen) {
+            this.contentWriter = LogParserContentWriter.reopen(new File(parsedFilePath),
+                    checkpoint.getContentLength(), checkpoint.getLineNumber(), preformattedHtml);
+            if (contentWriter == null) {
+                return false;
+            }
+            this.parseIndexWriter = LogParserParseIndexWriter.reopen(parseIndexFile,
+                    checkpoint.getParseIndexLength(), indexStatuses);
+            if (parseIndexWriter == null) {
+                contentWriter.close();
+                return false;
+            }
+        } else if (!new File(logDirectory + "/" + LogParserConsts.REF_FILE_NAME).isFile()) {
+            return false;
+        }
+
+        statusCount.putAll(checkpoint.getStatusCount());
+        sectionCounter = checkpoint.getSectionCounter();
+        // The same rules, as the checkpoint matched their digest
+        System.arraycopy(checkpoint.getRuleHits(), 0, ruleHits, 0, ruleHits.length);
+        return true;
+    }
+
+    /**
+     * Classifies a line of the log and appends it to the parsed log files
+     *
+     * @param line
+     *            the line, without its end of line
+     */
+    public void parseLogLine(final String line) throws IOException {
+        final String strippedLine = ConsoleNoteUtils.removeNotes(line);
+        final int ruleIndex = matchBudget == null ? ruleMatcher.getMatchingRule(strippedLine,
+                ruleProfile) : getLiveMatchingRule(strippedLine);
+        String status = null;
+        if (ruleIndex >= 0) {
+            status = ruleStatuses[ruleIndex];
+            ruleHits[ruleIndex]++;
+        }
+        metrics.addLines(1);
+        contentWriter.startLine();
+        writeParsedLine(contentWriter, strippedLine, status, -1);
+        contentWriter.endLine();
+    }
+
+    /**
+     * Classifies a line given to parseLogLine within the budget of its log
+     * part. Only the time taken by the lines of the part counts against it,
+     * not the time waited for them while the build runs.
+     */
+    private int getLiveMatchingRule(final String line) {
+        final long start = System.nanoTime();
+        // As if the lines of the part before it had just been classified
+        final long partDeadline = matchBudget.getPartDeadline() - livePartNanos;
+        final int ruleIndex;
+        if (liveSkippedLines > 0 || LogParserMatchBudget.isPast(partDeadline)) {
+            // The part used up its budget: the lines left are not classified
+            liveSkippedLines++;
+            ruleIndex = LogParserLineStatuses.TIMED_OUT;
+        } else {
+            ruleIndex = ruleMatcher.getMatchingRule(line, ruleProfile, matchBudget,
+                    matchBudget.getLineDeadline(partDeadline));
+        }
+        livePartNanos += System.nanoTime() - start;
+        if (++livePartLines == LogParserUtils.getLinesPerThread()) {
+            endLivePart();
+        }
+        return ruleIndex;
+    }
+
+    /**
+     * Starts the budget of the next log part of the lines given to
+     * parseLogLine
+     */
+    private void endLivePart() {
+        if (liveSkippedLines > 0) {
+            matchBudget.recordSkippedLines(liveSkippedLines);
+        }
+        livePartLines = 0;
+        livePartNanos = 0;
+        liveSkippedLines = 0;
+    }
+
+    /**
+     * @param matchBudget
+     *            the time the rules may take on each line and on each log
+     *            part, or null not to limit it. By default it is the one
+     *            set with LogParserUtils.
+     */
+    public void setMatchBudget(final LogParserMatchBudget matchBudget) {
+        this.matchBudget = matchBudget;
+    }
+
+    /**
+     * Writes out what is buffered of the parsed log files, ending their
+     * current gzip member
+     */
+    public void flush() throws IOException {
+        contentWriter.flush();
+        parseIndexWriter.flush();
+    }
+
+    /**
+     * Completes the parsed log files once all the lines were parsed, and
+     * writes the reference page
+     *
+     * @return the result of parsing the log
+     */
+    public LogParserResult finishLog(final Run<?, ?> build) throws IOException {
+        final String buildRefPath = logDirectory + "/" + LogParserConsts.REF_FILE_NAME;
+        final String buildWrapperPath = logDirectory + "/log.html";
 
         // Write parsed output, links, etc.
         // writeLogBody();
+        if (matchBudget != null && livePartLines > 0) {
+            endLivePart();
+        }
 
         // Close html footer
+        contentWriter.finishLines();
         if (this.preformattedHtml)
-            writer.write("</pre>");
-        writer.write(LogParserConsts.getHtmlClosingTags());
-        writer.close(); // Close to unlock and flush to disk.
-
-        ((BufferedWriter) writers.get(LogParserConsts.ERROR)).close();
-        ((BufferedWriter) writers.get(LogParserConsts.WARNING)).close();
-        ((BufferedWriter) writers.get(LogParserConsts.INFO)).close();
-        ((BufferedWriter) writers.get(LogParserConsts.DEBUG)).close();
-        for (String extraTag : this.extraTags) {
-            ((BufferedWriter) writers.get(extraTag)).close();
-        }
-
-        // Build the reference html from the warnings/errors/info html files
-        // created in the loop above
-        LogParserWriter.writeReferenceHtml(buildRefPath, headerForSection, statusCountPerSection,
-                displayConstants.getIconTable(), displayConstants.getLinkListDisplay(),
-                displayConstants.getLinkListDisplayPlural(), statusCount, linkFiles, extraTags);
+            contentWriter.write("</pre>");
+        contentWriter.write(LogParserConsts.getHtmlClosingTags());
+        contentWriter.close(); // Close to unlock and flush to disk.
+        parseIndexWriter.close();
+
+        // Build the reference html from the lines of the parse index
+        final long mergeStart = System.nanoTime();
+        LogParserWriter.writeReferenceHtml(buildRefPath, LogParserParseIndex.read(new File(
+                logDirectory, LogParserParseIndex.FILE_NAME)), displayConstants);
         // Write the wrapping html for the reference page and the parsed log
         // page
         LogParserWriter.writeWrapperHtml(buildWrapperPath);
+        metrics.setLinkFileMergeNanos(System.nanoTime() - mergeStart);
+
+        recordRuleStatistics();
+        return createResult(build);
+    }
 
+    /**
+     * @return the rules that could not be compiled and those that took too
+     *         long on some lines, or null if there are none
+     */
+    private String getBadParsingRulesError() {
+        final String compileError = this.compiledPatternsPlusError.getError();
+        final String timeoutReport = matchBudget == null ? null : matchBudget.getReport();
+        if (timeoutReport == null) {
+            return compileError;
+        }
+        return compileError == null ? timeoutReport : compileError + '\n' + timeoutReport;
+    }
+
+    private LogParserResult createResult(final Run<?, ?> build) {
+        final String parsedFilePath = logDirectory + "/" + LogParserContentIndex.CONTENT_FILE_NAME;
         final String buildUrlPath = build.getUrl(); // job/cat_log/58
         final String buildActionPath = LogParserAction.getUrlNameStat(); // "parsed_console";
         final String parsedLogURL = buildUrlPath + buildActionPath + "/log.html";
@@ -203,58 +399,97 @@ public class LogParserParser {
         for (String extraTag : this.extraTags) {
             result.putTotalCountsByExtraTag(extraTag, (Integer) statusCount.get(extraTag));
         }
-        result.setErrorLinksFile(errorLinksFilePath);
-        result.setWarningLinksFile(warningLinksFilePath);
-        result.setInfoLinksFile(infoLinksFilePath);
-        result.setDebugLinksFile(debugLinksFilePath);
-        for (String extraTag : this.extraTags) {
-            result.putLinksFileByExtraTag(extraTag, linksFilePathByExtraTags.get(extraTag));
-        }
+        result.setParseIndexFile(logDirectory + "/" + LogParserParseIndex.FILE_NAME);
         result.setParsedLogURL(parsedLogURL);
         result.setHtmlLogPath(logDirectory);
-        result.setBadParsingRulesError(this.compiledPatternsPlusError.getError());
-        result.setExtraTags(this.extraTags);
+        result.setBadParsingRulesError(getBadParsingRulesError());
+        // a copy of its own: the tags of the cached rules are shared
+        result.setExtraTags(new ArrayList<String>(this.extraTags));
+        result.setMetrics(metrics);
 
         return result;
 
     }
 
+    /**
+     * Keeps in the metrics how many lines each rule matched, and the time it
+     * took if the rules were profiled. The rules that matched nothing and
+     * took no noticeable time are left out, as the metrics are saved with
+     * the build.
+     */
+    private void recordRuleStatistics() {
+        final String[] parsingRules = this.compiledPatternsPlusError.getParsingRules();
+        final List<LogParserMetrics.RuleStatistics> ruleStatistics =
+                new ArrayList<LogParserMetrics.RuleStatistics>(parsingRules.length);
+        final Pattern[] patterns = this.compiledPatternsPlusError.getCompiledPatterns();
+        for (int i = 0; i < parsingRules.length; i++) {
+            final boolean slow = ruleProfile != null && TimeUnit.NANOSECONDS.toMillis(
+                    ruleProfile.getNanos(i)) >= LogParserConsts.MIN_RULE_STATISTICS_MILLIS;
+            if (ruleHits[i] == 0 && !slow) {
+                continue;
+            }
+            final LogParserMetrics.RuleStatistics statistics = new LogParserMetrics.RuleStatistics(
+                    parsingRules[i], ruleStatuses[i], ruleHits[i]);
+            if (ruleProfile != null) {
+                statistics.setProfile(ruleProfile.getNanos(i), ruleProfile.getEvaluations(i),
+                        LogParserRuleMatcher.hasNestedQuantifier(patterns[i].pattern()));
+            }
+            ruleStatistics.add(statistics);
+        }
+        metrics.setRuleStatistics(ruleStatistics);
+        metrics.setRuleProfiling(ruleProfile != null);
+    }
+
     public String parseLine(final String line) throws IOException {
         return parseLine(line, null);
     }
 
     public String parseLine(final String line, final String status) throws IOException {
-        String parsedLine = line;
-        String effectiveStatus = status;
-        if (status == null) {
-            effectiveStatus = LogParserConsts.NONE;
-        } else if (status.equals(LogParserConsts.START)) {
-            effectiveStatus = LogParserConsts.INFO;
-        }
+        return parseLine(line, status, -1);
+    }
 
-        // need to strip out for display also (in addition to parsing).
-        parsedLine = ConsoleNote.removeNotes(parsedLine);
-        // Allows < to be seen in log which is html
-        parsedLine = parsedLine.replaceAll("<", "&lt;");
-        // Allows > to be seen in log which is html
-        parsedLine = parsedLine.replaceAll(">", "&gt;");
+    /**
+     * @param byteOffset
+     *            where the line starts in the log, for the parse index, -1
+     *            if it is not known
+     * @return the line as written to the parsed log
+     */
+    public String parseLine(final String line, final String status, final long byteOffset)
+            throws IOException {
+        final StringWriter parsedLine = new StringWriter(line.length() + 64);
+        writeParsedLine(parsedLine, line, status, byteOffset);
+        return parsedLine.toString();
+    }
+
+    /**
+     * Writes the line as written to the parsed log, without its end of line
+     *
+     * @param byteOffset
+     *            where the line starts in the log, for the parse index, -1
+     *            if it is not known
+     */
+    private void writeParsedLine(final Writer out, final String line, final String status,
+            final long byteOffset) throws IOException {
+        final String effectiveStatus = LogParserRenderedChunk.getEffectiveStatus(status);
 
-        if (effectiveStatus != null && !effectiveStatus.equals(LogParserConsts.NONE)) {
+        // need to strip out for display also (in addition to parsing).
+        final String text = ConsoleNoteUtils.removeNotes(line);
+        if (!effectiveStatus.equals(LogParserConsts.NONE)) {
             // Increment count of the status
             incrementCounter(effectiveStatus);
-            incrementCounterPerSection(effectiveStatus, sectionCounter);
-            // Color line according to the status
-            final String parsedLineColored = colorLine(parsedLine, effectiveStatus);
-
-            // Mark line and add to left side links of highlighted lines
-            final String parsedLineColoredAndMarked = addMarkerAndLink(parsedLineColored,
-                    effectiveStatus, status);
-            parsedLine = parsedLineColoredAndMarked;
+            // Mark line and add it to the parse index, for the left side
+            // links of highlighted lines
+            final boolean startsSection = status.equals(LogParserConsts.START);
+            addMarkerAndLink(out, effectiveStatus, statusCount.get(effectiveStatus),
+                    sectionCounter, startsSection, text, byteOffset);
+            // Handle case where we are entering a new section
+            if (startsSection) {
+                sectionCounter++;
+            }
         }
-        final StringBuffer result = new StringBuffer(parsedLine);
-        if (!preformattedHtml)
-            result.append("<br/>\n");
-        return result.toString();
+        // Color line according to the status
+        LogParserUtils.writeHtmlLine(out, text, LogParserRenderedChunk.getColor(
+                displayConstants.getColorTable(), effectiveStatus), preformattedHtml);
     }
 
     public void incrementCounter(final String status) {
@@ -262,111 +497,301 @@ public class LogParserParser {
         statusCount.put(status, currentVal + 1);
     }
 
-    public void incrementCounterPerSection(final String status, final int sectionNumber) {
-        final String key = LogParserUtils.getSectionCountKey(status, sectionNumber);
-        Integer currentValInteger = (Integer) statusCountPerSection.get(key);
-        // No value - entered yet - initialize with 0
-        if (currentValInteger == null) {
-            currentValInteger = new Integer(0);
-        }
-        final int newVal = currentValInteger + 1;
-        statusCountPerSection.put(key, newVal);
-    }
+    /**
+     * Adds the line to the parse index and writes its marker, which comes
+     * before the line
+     *
+     * @param ordinal
+     *            the number of lines of the status up to this one in the log
+     * @param section
+     *            the section the line is in
+     */
+    private void addMarkerAndLink(final Writer out, final String effectiveStatus,
+                                  final int ordinal, final int section,
+                                  final boolean startsSection, final String text,
+                                  final long byteOffset) throws IOException {
+        // Add the line to the parse index, where its link is written from
+        parseIndexWriter.writeEntry(effectiveStatus, contentWriter.getLineCount(), byteOffset,
+                section, startsSection, text);
 
-    private String colorLine(final String line, final String status) {
-        String color = (String) displayConstants.getColorTable().get(status);
-        if (color == null) {
-            color = LogParserDisplayConsts.DEFAULT_COLOR;
-        }
-        final StringBuffer result = new StringBuffer("<span style=\"color:");
-        result.append(color);
-        result.append("\">");
-        result.append(line);
-        result.append("</span>");
-        return result.toString();
+        // Mark the line
+        out.write("<a name=\"");
+        out.write(effectiveStatus);
+        out.write(Integer.toString(ordinal));
+        out.write("\"></a>");
     }
 
-    private String addMarkerAndLink(final String line, final String effectiveStatus,
-                                    final String status) throws IOException {
-        // Add marker
-        final String statusCountStr = ((Integer) statusCount.get(effectiveStatus)).toString();
-        final String marker = effectiveStatus + statusCountStr;
-
-        // Add link
-        final StringBuffer shortLink = new StringBuffer(
-                " <a target=\"content\" href=\"log_content.html#");
-        shortLink.append(marker);
-        shortLink.append("\">");
-        shortLink.append(line);
-        shortLink.append("</a>");
-
-        final StringBuffer link = new StringBuffer("<li>");
-        link.append(statusCountStr);
-        link.append(shortLink);
-        link.append("</li><br/>");
-
-        final BufferedWriter linkWriter = (BufferedWriter) writers.get(effectiveStatus);
-        linkWriter.write(link.toString());
-        linkWriter.newLine(); // Write system dependent end of line.
+    /**
+     * Renders the lines of a log part on the workers, a chunk of lines each,
+     * and writes the chunks out in order as they are done. The markers and
+     * the sections of the parse index are completed as they are written, from
+     * the totals of the chunks before.
+     *
+     * @param renderers
+     *            the workers, or null to render the part in this thread
+     * @param logPart
+     *            the part, whose lines ruled out by the reader are decoded
+     *            as they are rendered
+     * @param statuses
+     *            the status of each line of the part, null for none
+     * @param count
+     *            the number of lines of the part
+     */
+    private void writeLogPart(final ThreadPoolExecutor renderers,
+            final LogParserLogPart logPart, final String[] statuses, final int count)
+            throws IOException, InterruptedException {
+        final long[] lineOffsets = logPart.getLineOffsets();
+        final int numChunks = renderers == null ? 1 : Math.max(1, Math.min(
+                renderers.getMaximumPoolSize() * LogParserConsts.RENDER_CHUNKS_PER_THREAD,
+                count / LogParserConsts.MIN_LINES_PER_RENDER_CHUNK));
+        final List<Future<LogParserRenderedChunk>> chunks =
+                new ArrayList<Future<LogParserRenderedChunk>>(numChunks);
+        LogParserRenderedChunk inline = null;
+        for (int i = 0; i < numChunks; i++) {
+            final LogParserRenderedChunk chunk = new LogParserRenderedChunk(logPart, statuses,
+                    (int) ((long) count * i / numChunks),
+                    (int) ((long) count * (i + 1) / numChunks), statusIndexes,
+                    displayConstants.getColorTable(), preformattedHtml);
+            if (numChunks == 1) {
+                inline = chunk.call();
+            } else {
+                chunks.add(renderers.submit(chunk));
+            }
+        }
 
-        // Mark the line
-        final StringBuffer markedLine = new StringBuffer("<a name=\"");
-        markedLine.append(marker);
-        markedLine.append("\"></a>");
-        markedLine.append(line);
-
-        // Handle case where we are entering a new section
-        if (status.equals(LogParserConsts.START)) {
-            sectionCounter++;
-            // This enters a line which will later be replaced by the actual
-            // header and count for this header
-            LogParserWriter.writeHeaderTemplateToAllLinkFiles(writers, sectionCounter);
-
-            final StringBuffer brShortLink = new StringBuffer("<br/>");
-            brShortLink.append(shortLink);
-            headerForSection.add(brShortLink.toString());
+        final int[] base = new int[indexStatuses.size()];
+        int lineOfPart = 0;
+        try {
+            for (int i = 0; i < numChunks; i++) {
+                final LogParserRenderedChunk chunk = inline != null ? inline
+                        : chunks.get(i).get();
+                // The counts up to the chunk, from the totals of the chunks
+                // before it
+                for (int s = 0; s < base.length; s++) {
+                    base[s] = statusCount.get(indexStatuses.get(s));
+                }
+                for (int j = 0; j < chunk.size(); j++, lineOfPart++) {
+                    final String status = statuses[lineOfPart];
+                    final String effectiveStatus = LogParserRenderedChunk
+                            .getEffectiveStatus(status);
+                    contentWriter.startLine();
+                    if (!effectiveStatus.equals(LogParserConsts.NONE)) {
+                        addMarkerAndLink(contentWriter, effectiveStatus,
+                                base[statusIndexes.get(effectiveStatus)] + chunk.getOrdinal(j),
+                                sectionCounter + chunk.getSection(j),
+                                status.equals(LogParserConsts.START), chunk.getText(j),
+                                lineOffsets == null ? -1 : lineOffsets[lineOfPart]);
+                    }
+                    chunk.writeHtml(j, contentWriter);
+                    contentWriter.endLine();
+                }
+                for (int s = 0; s < base.length; s++) {
+                    statusCount.put(indexStatuses.get(s), base[s] + chunk.getCount(s));
+                }
+                sectionCounter += chunk.getSectionCount();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            for (Future<LogParserRenderedChunk> chunk : chunks) {
+                chunk.cancel(true);
+            }
         }
+    }
 
-        return markedLine.toString();
+    /**
+     * @return a fixed pool of LogParserUtils.getNumThreads() workers to
+     *         classify the log parts and render their chunks, or null if there
+     *         is only one thread. A worker never waits for another task, so
+     *         they can share the pool.
+     */
+    private static ThreadPoolExecutor newWorkerPool() {
+        final int numThreads = LogParserUtils.getNumThreads();
+        if (numThreads <= 1) {
+            return null;
+        }
+        return new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(numThreads
+                        * LogParserConsts.RENDER_CHUNKS_PER_THREAD),
+                new ThreadPoolExecutor.CallerRunsPolicy());
     }
 
-    private void parseLogBody(final Run<?, ?> build, final BufferedWriter writer,
-                              final FilePath filePath, final String logFileLocation, final int linesInLog,
-                              final Logger logger) throws IOException, InterruptedException {
+    /**
+     * @param checkpoint
+     *            where to start in the log, or null to start at its beginning
+     * @param checkpointFile
+     *            where to save a checkpoint between two parts of the log,
+     *            every LogParserConsts.CHECKPOINT_INTERVAL and at its end, or
+     *            null to save none
+     * @return the last checkpoint saved, or null if none was
+     */
+    private LogParserCheckpoint parseLogBody(final Run<?, ?> build,
+                              final LogParserContentWriter writer,
+                              final String logFileLocation, final LogParserCheckpoint checkpoint,
+                              final File checkpointFile, final Logger logger)
+            throws IOException, InterruptedException {
 
         // Logging information - start
         final String signature = build.getParent().getName() + "_build_" + build.getNumber();
         logger.log(Level.INFO, "LogParserParser: Start parsing : " + signature);
-        final Calendar calendarStart = Calendar.getInstance();
-
-        final LogParserStatusComputer computer = new LogParserStatusComputer(channel, filePath,
-                parsingRulesArray, compiledPatterns, linesInLog, signature);
-        final HashMap<String, String> lineStatusMatches = computer.getComputedStatusMatches();
-
-        // Read log file from start - line by line and apply the statuses as
-        // found by the threads.
-        final BufferedReader reader = new BufferedReader(new FileReader(logFileLocation));
-        String line;
-        String status;
-        int line_num = 0;
-        while ((line = reader.readLine()) != null) {
-            status = (String) lineStatusMatches.get(String.valueOf(line_num));
-            final String parsedLine = parseLine(line, status);
-            // This is for displaying sections in the links part
-            writer.write(parsedLine);
-            writer.newLine(); // Write system dependent end of line.
-            line_num++;
+        final long startTime = System.nanoTime();
+
+        // Read the log once, a part at a time: the parts read are classified
+        // by a fixed pool of workers while this thread writes out the ones
+        // done, in order. At most one part more than there are workers is
+        // read ahead of the one written out, so memory is bounded regardless
+        // of the size of the log. The lines of a part are then turned into
+        // html by the same workers (see writeLogPart).
+        final Closeable input;
+        final LogParserReader logParserReader;
+        int lineNumber = 0;
+        long startOffset = 0;
+        if (checkpointFile == null) {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(logFileLocation), build.getCharset()));
+            input = reader;
+            logParserReader = new LogParserReader(reader);
+        } else {
+            final FileInputStream in = new FileInputStream(logFileLocation);
+            input = in;
+            long byteOffset = 0;
+            boolean afterCarriageReturn = false;
+            if (checkpoint != null) {
+                byteOffset = checkpoint.getByteOffset();
+                afterCarriageReturn = checkpoint.isAfterCarriageReturn();
+                lineNumber = checkpoint.getLineNumber();
+                startOffset = byteOffset;
+                metrics.setResumedAtLine(lineNumber);
+                logger.log(Level.INFO, "LogParserParser: Resuming " + signature + " at line "
+                        + lineNumber);
+            }
+            logParserReader = new LogParserReader(in.getChannel(), build.getCharset(),
+                    byteOffset, afterCarriageReturn);
+            // Only the lines in which the reader found a literal of the
+            // rules are decoded and run through them; the others are decoded
+            // from the mapping of the log as they are written out
+            logParserReader.setPrefilter(ruleMatcher);
         }
-        reader.close();
+        LogParserCheckpoint lastCheckpoint = null;
+        long lastCheckpointTime = System.nanoTime();
+        int logPartNum = 0;
+        final ThreadPoolExecutor workers = newWorkerPool();
+        final int maxPartsInFlight = LogParserUtils.getNumThreads() + 1;
+        final Deque<Future<LogParserThread>> partsInFlight =
+                new ArrayDeque<Future<LogParserThread>>(maxPartsInFlight);
+        try {
+            while (!logParserReader.isEndOfFile() || !partsInFlight.isEmpty()) {
+                long time = System.nanoTime();
+                if (!logParserReader.isEndOfFile() && partsInFlight.size() < maxPartsInFlight) {
+                    // The last part read is empty, and is still written out
+                    // for the checkpoint at the end of the log
+                    final LogParserLogPart logPart = logParserReader.readLogPart(logPartNum);
+                    metrics.addLogReadingNanos(System.nanoTime() - time);
+                    final LogParserThread logParserThread = new LogParserThread(ruleMatcher,
+                            logPart);
+                    // Each part is profiled on its own, as the workers would
+                    // share the profile otherwise
+                    logParserThread.setRuleProfile(ruleProfile == null ? null
+                            : new LogParserRuleProfile(ruleHits.length));
+                    logParserThread.setMatchBudget(matchBudget);
+                    if (workers == null) {
+                        final FutureTask<LogParserThread> task = new FutureTask<LogParserThread>(
+                                logParserThread);
+                        task.run();
+                        partsInFlight.addLast(task);
+                    } else {
+                        partsInFlight.addLast(workers.submit(logParserThread));
+                    }
+                    metrics.recordPartsInFlight(partsInFlight.size());
+                    logPartNum++;
+                    continue;
+                }
+
+                // Write out the oldest part once it is classified
+                final LogParserThread logParserThread;
+                try {
+                    logParserThread = partsInFlight.removeFirst().get();
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                }
+                final LogParserLogPart logPart = logParserThread.getLogPart();
+                final String[] lines = logPart.getLines();
+                final LogParserLineStatuses statuses = logParserThread.getLineStatuses();
+                metrics.addPartClassificationNanos(logParserThread.getParseNanos());
+                if (ruleProfile != null) {
+                    ruleProfile.add(logParserThread.getRuleProfile());
+                }
+
+                time = System.nanoTime();
+                int i = 0;
+                while (i < lines.length && lines[i] != null) {
+                    i++;
+                }
+                final String[] lineStatuses = new String[i];
+                for (int match = 0; match < statuses.size(); match++) {
+                    final int ruleIndex = statuses.getRuleIndex(match);
+                    // Lines that timed out are written unclassified
+                    if (ruleIndex >= 0 && statuses.getLineNumber(match) < i) {
+                        lineStatuses[statuses.getLineNumber(match)] = ruleStatuses[ruleIndex];
+                        ruleHits[ruleIndex]++;
+                    }
+                }
+                writeLogPart(workers, logPart, lineStatuses, i);
+                lineNumber += i;
+                metrics.addLines(i);
+                metrics.addHtmlWritingNanos(System.nanoTime() - time);
+                // Saved every so often, and at the end of the log
+                time = System.nanoTime();
+                if (checkpointFile != null && (logPart.isEmpty()
+                        || TimeUnit.NANOSECONDS.toMillis(time - lastCheckpointTime)
+                        >= LogParserConsts.CHECKPOINT_INTERVAL)) {
+                    lastCheckpoint = saveCheckpoint(logPart, lineNumber, checkpointFile);
+                    lastCheckpointTime = System.nanoTime();
+                    metrics.addCheckpointNanos(lastCheckpointTime - time);
+                }
+            }
+        } finally {
+            for (Future<LogParserThread> part : partsInFlight) {
+                part.cancel(true);
+            }
+            if (workers != null) {
+                workers.shutdownNow();
+            }
+            input.close();
+        }
+        metrics.setBytes(checkpointFile == null ? new File(logFileLocation).length()
+                : logParserReader.getByteOffset() - startOffset);
 
         // Logging information - end
-        final Calendar calendarEnd = Calendar.getInstance();
-        final long diffSeconds = (calendarEnd.getTimeInMillis() - calendarStart.getTimeInMillis())
-                / 1000;
-        final long diffMinutes = diffSeconds / 60;
-        logger.log(Level.INFO, "LogParserParser: Parsing took " + diffMinutes + " minutes ("
-                + diffSeconds + ") seconds.");
+        final long diffMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        logger.log(Level.INFO, "LogParserParser: Parsing took " + diffMillis + " ms ("
+                + metrics.getLines() + " lines, reading " + metrics.getLogReadingMillis()
+                + " ms, classifying " + metrics.getClassificationMillis() + " ms, writing "
+                + metrics.getHtmlWritingMillis() + " ms)");
+
+        return lastCheckpoint;
+    }
 
+    private void recordTotalTime(final long startTime) {
+        // The rules were loaded before the parsing started
+        metrics.setTotalNanos(System.nanoTime() - startTime + metrics.getRuleLoadingNanos()
+                + metrics.getRuleCompilationNanos());
+    }
+
+    /**
+     * @param lastPart
+     *            the last log part written out, which the reader may be past
+     */
+    private LogParserCheckpoint saveCheckpoint(final LogParserLogPart lastPart,
+            final int lineNumber, final File checkpointFile) throws IOException {
+        flush();
+        final LogParserCheckpoint checkpoint = new LogParserCheckpoint(rulesDigest,
+                preformattedHtml, lastPart, lineNumber,
+                new File(logDirectory + "/" + LogParserContentIndex.CONTENT_FILE_NAME).length(),
+                new File(logDirectory, LogParserParseIndex.FILE_NAME).length(), statusCount,
+                sectionCounter, ruleHits);
+        checkpoint.save(checkpointFile);
+        return checkpoint;
     }
 
 }
\ No newline at end of file
@@ -37,6 +37,7 @@ public class LogParserPublisher extends Recorder implements SimpleBuildStep, Ser
     public String parsingRulesPath = null;
     public boolean useProjectRule;
     public String projectRulePath = null;
+    public boolean liveParsing;
 
     /**
      * Create new LogParserPublisher.
@@ -102,6 +103,16 @@ public class LogParserPublisher extends Recorder implements SimpleBuildStep, Ser
         this.enableDiffBuild = enableDiffBuild;
     }
 
+    /**
+     * @param liveParsing
+     *            parse the log while the build runs, with the global rule.
+     *            See LogParserConsoleLogFilter.
+     */
+    @DataBoundSetter
+    public void setLiveParsing(boolean liveParsing) {
+        this.liveParsing = liveParsing;
+    }
+
     @Override
     public boolean prebuild(final AbstractBuild<?, ?> build, final BuildListener listener) {
         return true;
@@ -125,17 +136,29 @@ public class LogParserPublisher extends Recorder implements SimpleBuildStep, Ser
             // Create a parser with the parsing rules as configured : colors,
             // regular expressions, etc.
             boolean preformattedHtml = !((DescriptorImpl) getDescriptor()).getLegacyFormatting();
-            final FilePath parsingRulesFile;
-            if (useProjectRule) {
-                parsingRulesFile = new FilePath(workspace, projectRulePath);
+
+            // If the log was parsed while the build ran, only complete it
+            LogParserResult liveResult = null;
+            if (!useProjectRule) {
+                liveResult = LogParserConsoleLogFilter.finishLiveParsing(build, parsingRulesPath,
+                        preformattedHtml);
+            }
+            if (liveResult != null) {
+                result = liveResult;
             } else {
-                parsingRulesFile = new FilePath(new File(parsingRulesPath));
+                final FilePath parsingRulesFile;
+                if (useProjectRule) {
+                    parsingRulesFile = new FilePath(workspace, projectRulePath);
+                } else {
+                    parsingRulesFile = new FilePath(new File(parsingRulesPath));
+                }
+                final LogParserParser parser = new LogParserParser(parsingRulesFile,
+                        preformattedHtml);
+
+                // Parse the build's log according to these rules and get the
+                // result
+                result = parser.parseLog(build);
             }
-            final LogParserParser parser = new LogParserParser(parsingRulesFile, preformattedHtml,
-                    launcher.getChannel());
-
-            // Parse the build's log according to these rules and get the result
-            result = parser.parseLog(build);
 
             // Mark build as failed/unstable if necessary
             if (this.failBuildOnError && result.getTotalErrors() > 0) {
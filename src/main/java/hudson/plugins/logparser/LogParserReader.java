@@ -2,17 +2,89 @@ package hudson.plugins.logparser;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class LogParserReader {
 
+    // How much of the log is mapped at once, unless a line is longer
+    private static final int WINDOW_SIZE = 8 * 1024 * 1024;
+
+    // First byte of a console note
+    private static final byte ESCAPE = 0x1B;
+
     final private BufferedReader reader;
     int logPartNum = 0;
     boolean endOfFile = false;
 
+    // Set when the lines are read from the bytes of the log, keeping track of
+    // how far in the log they are
+    final private FileChannel channel;
+    final private Charset charset;
+    private byte[] lineBytes;
+    private long byteOffset;
+    private boolean afterCarriageReturn;
+    private boolean atLineStart = true;
+    // Rules out the lines no rule can match, on their bytes
+    private LogParserRuleMatcher prefilter;
+
     public LogParserReader(final BufferedReader reader) {
         this.reader = reader;
+        this.channel = null;
+        this.charset = null;
+    }
+
+    /**
+     * Reads the lines of a log from its bytes, mapped a part at a time, the
+     * way BufferedReader.readLine would read them once decoded, so that the
+     * offset of the next line in the log is known between two parts.
+     *
+     * @param channel
+     *            the log
+     * @param charset
+     *            the encoding of the log, for which isSupported
+     * @param byteOffset
+     *            the offset in the log of the first line to read
+     * @param afterCarriageReturn
+     *            whether the byte before byteOffset was a carriage return, in
+     *            which case a line feed at byteOffset ends no line
+     */
+    public LogParserReader(final FileChannel channel, final Charset charset,
+            final long byteOffset, final boolean afterCarriageReturn) {
+        this.reader = null;
+        this.channel = channel;
+        this.charset = charset;
+        this.byteOffset = byteOffset;
+        this.afterCarriageReturn = afterCarriageReturn;
+        this.lineBytes = new byte[256];
+    }
+
+    /**
+     * @return whether lines and rule literals can be found on the bytes of a
+     *         log in this encoding: ASCII compatible encodings where no byte
+     *         of a multi-byte character is below 128
+     */
+    public static boolean isSupported(final Charset charset) {
+        final String name = charset.name();
+        return name.equals("UTF-8") || name.equals("US-ASCII") || name.startsWith("ISO-8859-")
+                || name.startsWith("windows-125");
+    }
+
+    /**
+     * Looks for the literals of the rules in the bytes of each line read. The
+     * lines in which none is found, and which hold no console note, are not
+     * decoded: they are left as bytes in the log part, see
+     * LogParserLogPart.getMayMatch(). Only for a log read from its bytes.
+     *
+     * @param ruleMatcher
+     *            the rules the lines are classified with
+     */
+    public void setPrefilter(final LogParserRuleMatcher ruleMatcher) {
+        this.prefilter = ruleMatcher;
     }
 
     public synchronized LogParserLogPart readLogPart(final int threadNum) throws IOException {
@@ -21,15 +93,20 @@ public class LogParserReader {
         final int numLines = LogParserUtils.getLinesPerThread();
         String[] lines = new String[numLines];
         final LogParserLogPart result = new LogParserLogPart();
+        result.setLines(lines);
+        result.setLogPartNum(logPartNum);
 
-        int counter = 0;
-        String line;
-        while (counter < numLines && ((line = reader.readLine()) != null)) {
-            lines[counter++] = line;
+        if (channel == null) {
+            int counter = 0;
+            String line;
+            while (counter < numLines && ((line = reader.readLine()) != null)) {
+                lines[counter++] = line;
+            }
+        } else {
+            readMappedLines(result);
+            result.setEnd(byteOffset, afterCarriageReturn, atLineStart);
         }
         logger.log(Level.INFO, "Done reading log part " + logPartNum);
-        result.setLines(lines);
-        result.setLogPartNum(logPartNum);
 
         if (result.isEmpty()) {
             this.endOfFile = true;
@@ -48,4 +125,133 @@ public class LogParserReader {
         this.endOfFile = endOfFile;
     }
 
-}
\ No newline at end of file
+    /**
+     * @return the offset in the log of the byte after the last line read, when
+     *         reading from the bytes of the log
+     */
+    public synchronized long getByteOffset() {
+        return byteOffset;
+    }
+
+    /**
+     * @return whether the last line read ended with a carriage return, so that
+     *         a line feed right after it is part of its end of line
+     */
+    public synchronized boolean isAfterCarriageReturn() {
+        return afterCarriageReturn;
+    }
+
+    /**
+     * @return false if the last line read had no end of line, in which case
+     *         the log may still be adding to it
+     */
+    public synchronized boolean isAtLineStart() {
+        return atLineStart;
+    }
+
+    /**
+     * Finds the lines of the part in the mapping of the log from byteOffset.
+     * The part ends early at the end of the mapping, the next part mapping
+     * the log from there; a line longer than the mapping gets a larger one.
+     */
+    private void readMappedLines(final LogParserLogPart part) throws IOException {
+        final String[] lines = part.getLines();
+        final long[] lineOffsets = new long[lines.length];
+        final boolean[] mayMatch = prefilter == null ? null : new boolean[lines.length];
+        final int[] rawStarts = prefilter == null ? null : new int[lines.length];
+        final int[] rawEnds = prefilter == null ? null : new int[lines.length];
+        part.setLineOffsets(lineOffsets);
+        part.setMayMatch(mayMatch);
+
+        final boolean startAfterCarriageReturn = afterCarriageReturn;
+        long windowSize = WINDOW_SIZE;
+        while (true) {
+            final long fileSize = channel.size();
+            final long length = Math.min(windowSize, fileSize - byteOffset);
+            if (length <= 0) {
+                return;
+            }
+            final ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, byteOffset,
+                    length);
+            final boolean toEnd = byteOffset + length == fileSize;
+            final ByteBuffer view = window.duplicate();
+            final int limit = window.limit();
+            int pos = 0;
+            int counter = 0;
+            while (counter < lines.length) {
+                if (afterCarriageReturn && pos < limit) {
+                    afterCarriageReturn = false;
+                    if (window.get(pos) == '\n') {
+                        pos++;
+                    }
+                }
+                int end = pos;
+                byte b = 0;
+                boolean hasNote = false;
+                while (end < limit) {
+                    b = window.get(end);
+                    if (b == '\n' || b == '\r') {
+                        break;
+                    }
+                    if (b == ESCAPE) {
+                        hasNote = true;
+                    }
+                    end++;
+                }
+                if (end == limit && (!toEnd || end == pos)) {
+                    // The rest of the line is not mapped, or the log ends
+                    break;
+                }
+
+                lineOffsets[counter] = byteOffset + pos;
+                if (prefilter != null && !hasNote && !prefilter.mayMatch(window, pos, end)) {
+                    // No rule can match it: decoded only when it is written
+                    // out, straight from the mapping
+                    lines[counter] = "";
+                    rawStarts[counter] = pos;
+                    rawEnds[counter] = end;
+                } else {
+                    if (mayMatch != null) {
+                        mayMatch[counter] = true;
+                    }
+                    lines[counter] = decode(view, pos, end);
+                }
+                counter++;
+                if (end == limit) {
+                    // Last line, without an end of line
+                    atLineStart = false;
+                    pos = end;
+                    break;
+                }
+                afterCarriageReturn = (b == '\r');
+                pos = end + 1;
+            }
+
+            if (counter == 0 && !toEnd) {
+                // A line longer than the mapping
+                if (windowSize >= Integer.MAX_VALUE) {
+                    throw new IOException("Line too long at offset " + byteOffset);
+                }
+                windowSize = Math.min(windowSize * 2, Integer.MAX_VALUE);
+                afterCarriageReturn = startAfterCarriageReturn;
+                continue;
+            }
+            if (prefilter != null) {
+                part.setRawLines(window, rawStarts, rawEnds, charset);
+            }
+            byteOffset += pos;
+            return;
+        }
+    }
+
+    private String decode(final ByteBuffer view, final int start, final int end) {
+        final int length = end - start;
+        if (length > lineBytes.length) {
+            lineBytes = Arrays.copyOf(lineBytes, Math.max(length, lineBytes.length * 2));
+        }
+        view.position(start);
+        view.get(lineBytes, 0, length);
+        return new String(lineBytes, 0, length, charset);
+    }
+
+}
@@ -0,0 +1,290 @@
+package hudson.plugins.logparser;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * A run of lines of a log part turned into html, so that the chunks of a part
+ * can be rendered by several threads at once.
+ * <p>
+ * The marker of a line is its status followed by the number of lines of that
+ * status up to it in the whole log, and its entry in the parse index has the
+ * section it is in: both depend on all the lines before it. A chunk only
+ * counts them from its own first line, and the lines are rendered without
+ * their marker. LogParserParser writes the chunks out in order, adding to
+ * these counts the totals of all the chunks before (a prefix sum) to mark the
+ * lines and write their index entries.
+ * <p>
+ * The lines are rendered one after the other into a single buffer, from which
+ * they are written out as they are. The lines the reader left as bytes, as
+ * no rule can match them, are decoded straight into it.
+ */
+class LogParserRenderedChunk implements Callable<LogParserRenderedChunk> {
+
+    private final LogParserLogPart logPart;
+    private final String[] statuses;
+    private final int start;
+    private final int end;
+    private final Map<String, Integer> statusIndexes;
+    private final Map<String, String> colorTable;
+    private final boolean preformattedHtml;
+
+    // Set by call, for each line of the chunk
+    private HtmlBuffer html;
+    private int[] lineEnds;
+    private String[] texts;
+    private int[] ordinals;
+    private int[] sections;
+    // Set by call, for the whole chunk
+    private int[] counts;
+    private int sectionCount;
+
+    /**
+     * @param logPart
+     *            the log part
+     * @param statuses
+     *            the status given by the rules to each line of the part, null
+     *            for none
+     * @param start
+     *            the first line of the chunk in the part
+     * @param end
+     *            the line after the last one of the chunk
+     * @param statusIndexes
+     *            the index of each status the lines can have once START is
+     *            shown as INFO, in the counts of the chunk
+     */
+    LogParserRenderedChunk(final LogParserLogPart logPart, final String[] statuses,
+            final int start, final int end, final Map<String, Integer> statusIndexes,
+            final Map<String, String> colorTable, final boolean preformattedHtml) {
+        this.logPart = logPart;
+        this.statuses = statuses;
+        this.start = start;
+        this.end = end;
+        this.statusIndexes = statusIndexes;
+        this.colorTable = colorTable;
+        this.preformattedHtml = preformattedHtml;
+    }
+
+    /**
+     * Renders the lines of the chunk, counting the lines of each status and
+     * the sections started from the first line of the chunk
+     */
+    public LogParserRenderedChunk call() throws IOException {
+        final int size = end - start;
+        final String[] lines = logPart.getLines();
+        final boolean[] mayMatch = logPart.getMayMatch();
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            length += (isRaw(mayMatch, i) ? logPart.getRawEnd(i) - logPart.getRawStart(i)
+                    : lines[i].length()) + 8;
+        }
+        html = new HtmlBuffer(length);
+        lineEnds = new int[size];
+        texts = new String[size];
+        ordinals = new int[size];
+        sections = new int[size];
+        counts = new int[statusIndexes.size()];
+        sectionCount = 0;
+        // Set on the first line left as bytes
+        ByteBuffer rawBytes = null;
+        CharsetDecoder decoder = null;
+        CharBuffer chars = null;
+        for (int i = 0; i < size; i++) {
+            if (isRaw(mayMatch, start + i)) {
+                // No status, nor console note
+                if (decoder == null) {
+                    rawBytes = logPart.getRawBytes().duplicate();
+                    decoder = logPart.getCharset().newDecoder()
+                            .onMalformedInput(CodingErrorAction.REPLACE)
+                            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                }
+                chars = decode(rawBytes, logPart.getRawStart(start + i),
+                        logPart.getRawEnd(start + i), decoder, chars);
+                LogParserUtils.writeHtmlLine(html, chars.array(), 0, chars.limit(),
+                        preformattedHtml);
+                lineEnds[i] = html.size();
+                continue;
+            }
+            final String status = statuses[start + i];
+            final String effectiveStatus = getEffectiveStatus(status);
+            final String text = ConsoleNoteUtils.removeNotes(lines[start + i]);
+            LogParserUtils.writeHtmlLine(html, text, getColor(colorTable, effectiveStatus),
+                    preformattedHtml);
+            lineEnds[i] = html.size();
+            if (!effectiveStatus.equals(LogParserConsts.NONE)) {
+                final int statusIndex = statusIndexes.get(effectiveStatus);
+                texts[i] = text;
+                ordinals[i] = ++counts[statusIndex];
+                sections[i] = sectionCount;
+                if (status.equals(LogParserConsts.START)) {
+                    sectionCount++;
+                }
+            }
+        }
+        return this;
+    }
+
+    private static boolean isRaw(final boolean[] mayMatch, final int line) {
+        return mayMatch != null && !mayMatch[line];
+    }
+
+    /**
+     * Decodes a line as new String(bytes, charset) would, into chars, or
+     * into a larger buffer if it does not fit
+     *
+     * @return the buffer holding the line, ready to be read
+     */
+    private static CharBuffer decode(final ByteBuffer bytes, final int start, final int end,
+            final CharsetDecoder decoder, final CharBuffer chars) {
+        final int capacity = (int) ((end - start) * (double) decoder.maxCharsPerByte()) + 1;
+        CharBuffer result = chars;
+        if (result == null || result.capacity() < capacity) {
+            result = CharBuffer.allocate(Math.max(capacity, result == null ? 256
+                    : result.capacity() * 2));
+        }
+        bytes.limit(end);
+        bytes.position(start);
+        result.clear();
+        decoder.reset();
+        decoder.decode(bytes, result, true);
+        decoder.flush(result);
+        result.flip();
+        return result;
+    }
+
+    /**
+     * @return the status a line is shown with: INFO for a line starting a
+     *         section, NONE for a line without a status
+     */
+    static String getEffectiveStatus(final String status) {
+        if (status == null) {
+            return LogParserConsts.NONE;
+        } else if (status.equals(LogParserConsts.START)) {
+            return LogParserConsts.INFO;
+        }
+        return status;
+    }
+
+    /**
+     * @return the color a line of the status is shown in, or null for NONE
+     */
+    static String getColor(final Map<String, String> colorTable, final String effectiveStatus) {
+        if (effectiveStatus.equals(LogParserConsts.NONE)) {
+            return null;
+        }
+        final String color = colorTable.get(effectiveStatus);
+        return color == null ? LogParserDisplayConsts.DEFAULT_COLOR : color;
+    }
+
+    /**
+     * @return the number of lines of the chunk
+     */
+    int size() {
+        return end - start;
+    }
+
+    /**
+     * Writes the line rendered, without its marker
+     */
+    void writeHtml(final int line, final Writer out) throws IOException {
+        final int lineStart = line == 0 ? 0 : lineEnds[line - 1];
+        out.write(html.chars, lineStart, lineEnds[line] - lineStart);
+    }
+
+    /**
+     * @return the line without its console notes if it has a status, else
+     *         null
+     */
+    String getText(final int line) {
+        return texts[line];
+    }
+
+    /**
+     * @return the number of lines of the status of the line in the chunk up
+     *         to this one, from 1
+     */
+    int getOrdinal(final int line) {
+        return ordinals[line];
+    }
+
+    /**
+     * @return the number of sections started in the chunk before the line
+     */
+    int getSection(final int line) {
+        return sections[line];
+    }
+
+    /**
+     * @return the number of lines of the status in the chunk
+     */
+    int getCount(final int statusIndex) {
+        return counts[statusIndex];
+    }
+
+    /**
+     * @return the number of sections started in the chunk
+     */
+    int getSectionCount() {
+        return sectionCount;
+    }
+
+    /**
+     * The characters written to it, unlike a CharArrayWriter not synchronized
+     * and read in place
+     */
+    private static final class HtmlBuffer extends Writer {
+
+        private char[] chars;
+        private int size;
+
+        HtmlBuffer(final int capacity) {
+            this.chars = new char[Math.max(16, capacity)];
+        }
+
+        private void ensureCapacity(final int capacity) {
+            if (capacity > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+            }
+        }
+
+        @Override
+        public void write(final int c) {
+            ensureCapacity(size + 1);
+            chars[size++] = (char) c;
+        }
+
+        @Override
+        public void write(final char[] cbuf, final int off, final int len) {
+            ensureCapacity(size + len);
+            System.arraycopy(cbuf, off, chars, size, len);
+            size += len;
+        }
+
+        @Override
+        public void write(final String str, final int off, final int len) {
+            ensureCapacity(size + len);
+            str.getChars(off, off + len, chars, size);
+            size += len;
+        }
+
+        int size() {
+            return size;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
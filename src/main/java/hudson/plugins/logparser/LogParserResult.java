@@ -1,16 +1,22 @@
 package hudson.plugins.logparser;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+@ExportedBean
 public class LogParserResult {
 
     private int totalErrors = 0;
@@ -29,10 +35,15 @@ public class LogParserResult {
 
     private String parsedLogURL;
     private String htmlLogPath;
+    // The link files above are only set for builds parsed before there was
+    // a parse index
+    private String parseIndexFile;
 
     private String failedToParseError;
     private String badParsingRulesError;
 
+    private LogParserMetrics metrics;
+
     public String getBadParsingRulesError() {
         return badParsingRulesError;
     }
@@ -53,18 +64,35 @@ public class LogParserResult {
         this.failedToParseError = failedToParseError;
     }
 
+    /**
+     * @return what the parsing cost, or null for builds parsed before it was
+     *         recorded
+     */
+    @Exported(inline = true)
+    public LogParserMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(final LogParserMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Exported
     public int getTotalErrors() {
         return totalErrors;
     }
 
+    @Exported
     public int getTotalWarnings() {
         return totalWarnings;
     }
 
+    @Exported
     public int getTotalInfos() {
         return totalInfos;
     }
 
+    @Exported
     public int getTotalDebugs() {
         return totalDebugs;
     }
@@ -101,14 +129,33 @@ public class LogParserResult {
         return linkedFilesByExtraTag.get(tag);
     }
 
+    public String getParseIndexFile() {
+        return parseIndexFile;
+    }
+
+    /**
+     * @return the parse index of the build, or null if it was parsed before
+     *         there was one
+     */
+    public LogParserParseIndex getParseIndex() throws IOException {
+        if (parseIndexFile == null) {
+            return null;
+        }
+        return LogParserParseIndex.read(new File(parseIndexFile));
+    }
+
     public String getParsedLogURL() {
         return parsedLogURL;
     }
 
+    /**
+     * @return a reader of the parsed html file, decompressed if it is a .gz
+     *         file, or null if there is no such file
+     */
     public Reader getReader(final String filePath) throws IOException {
         final File logFile = new File(filePath);
         if (logFile.exists()) {
-            return new FileReader(logFile);
+            return LogParserUtils.openHtmlReader(logFile);
         }
         return null;
     }
@@ -118,23 +165,44 @@ public class LogParserResult {
     }
 
     public Reader getErrorLinksReader() throws IOException {
-        return getReader(getErrorLinksFile());
+        return getLinksReader(getErrorLinksFile(), LogParserConsts.ERROR);
     }
 
     public Reader getWarningLinksReader() throws IOException {
-        return getReader(getWarningLinksFile());
+        return getLinksReader(getWarningLinksFile(), LogParserConsts.WARNING);
     }
 
     public Reader getInfoLinksReader() throws IOException {
-        return getReader(getInfoLinksFile());
+        return getLinksReader(getInfoLinksFile(), LogParserConsts.INFO);
     }
 
     public Reader getDebugLinkedReader() throws IOException {
-        return getReader(getDebugLinksFile());
+        return getLinksReader(getDebugLinksFile(), LogParserConsts.DEBUG);
     }
 
     public Reader getLinkedReaderByExtraTag(String tag) throws IOException {
-        return getReader(getLinksFileByExtraTag(tag));
+        return getLinksReader(getLinksFileByExtraTag(tag), tag);
+    }
+
+    /**
+     * @return the links to the lines of the status, written from the parse
+     *         index, or read from the link file of a build parsed before
+     *         there was one
+     */
+    private Reader getLinksReader(final String linksFile, final String status)
+            throws IOException {
+        if (linksFile != null) {
+            return getReader(linksFile);
+        }
+        final LogParserParseIndex parseIndex = getParseIndex();
+        if (parseIndex == null) {
+            return null;
+        }
+        final StringWriter links = new StringWriter();
+        final BufferedWriter writer = new BufferedWriter(links);
+        LogParserWriter.writeLinkList(writer, status, parseIndex, new LogParserDisplayConsts());
+        writer.close();
+        return new StringReader(links.toString());
     }
 
     public void setHtmlLogFile(final String file) {
@@ -165,6 +233,10 @@ public class LogParserResult {
         this.linkedFilesByExtraTag.put(tag, file);
     }
 
+    public void setParseIndexFile(final String file) {
+        this.parseIndexFile = file;
+    }
+
     public void setTotalErrors(final int totalErrors) {
         this.totalErrors = totalErrors;
     }
@@ -205,11 +277,9 @@ public class LogParserResult {
         final StringBuffer result = new StringBuffer("");
         String line = "";
         try {
-            File file = null;
-            RandomAccessFile f = null;
+            BufferedReader f = null;
             try {
-                file = this.getHtmlLogFileToRead();
-                f = new RandomAccessFile(file, "r");
+                f = LogParserUtils.openHtmlReader(this.getHtmlLogFileToRead());
 
                 while ((line = f.readLine()) != null) {
                     result.append(line);
@@ -0,0 +1,180 @@
+package hudson.plugins.logparser;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import hudson.FilePath;
+import hudson.Util;
+
+/**
+ * The compiled parsing rules of the last rules files used, shared by all the
+ * builds and jobs parsed with them. A rules file is still read for each
+ * parsing, as it may have changed or be in another workspace, but its rules
+ * are only compiled when that path has not been seen with that content.
+ * <p>
+ * The least recently used rule sets are dropped once there are more than
+ * LogParserUtils.getRuleCacheSize().
+ */
+public final class LogParserRuleCache {
+
+    private static final Logger LOGGER = Logger.getLogger(LogParserRuleCache.class.getName());
+
+    // Keyed by rules file path and content digest, in access order
+    private static final Map<String, CompiledRules> CACHE = new LinkedHashMap<String, CompiledRules>(
+            16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CompiledRules> eldest) {
+            if (size() > LogParserUtils.getRuleCacheSize()) {
+                evictionCount++;
+                return true;
+            }
+            return false;
+        }
+    };
+
+    private static long hitCount = 0;
+    private static long missCount = 0;
+    private static long evictionCount = 0;
+
+    private LogParserRuleCache() {
+        // Utility class
+    }
+
+    /**
+     * @param parsingRulesFile
+     *            a rules file, global or in a workspace
+     * @return its rules, compiled
+     */
+    public static CompiledRules get(final FilePath parsingRulesFile) throws IOException {
+        return get(parsingRulesFile, new LogParserMetrics());
+    }
+
+    /**
+     * @param parsingRulesFile
+     *            a rules file, global or in a workspace
+     * @param metrics
+     *            where to record the time taken to read and compile the rules
+     * @return its rules, compiled
+     */
+    public static CompiledRules get(final FilePath parsingRulesFile,
+            final LogParserMetrics metrics) throws IOException {
+        final long startTime = System.nanoTime();
+        final String content;
+        try {
+            content = parsingRulesFile.readToString();
+        } catch (InterruptedException ie) {
+            throw new IOException(ie);
+        }
+        final String digest = Util.getDigestOf(content);
+        final String key = parsingRulesFile.getRemote() + '#' + digest;
+        final long compilationStart = System.nanoTime();
+        metrics.setRuleLoadingNanos(compilationStart - startTime);
+
+        synchronized (LogParserRuleCache.class) {
+            final CompiledRules cached = CACHE.get(key);
+            if (cached != null) {
+                hitCount++;
+                metrics.setRuleCacheHit(true);
+                return cached;
+            }
+            missCount++;
+        }
+
+        // Compiled outside of the lock: builds using other rules do not wait
+        // for it. Two builds missing the same rules at once both compile
+        // them, and the last one is kept.
+        final CompiledPatterns compiledPatterns = LogParserUtils.compilePatterns(
+                content.split("\n"), LOGGER);
+        // Shared by the parsers and their results from now on
+        compiledPatterns.setExtraTags(Collections.unmodifiableList(compiledPatterns
+                .getExtraTags()));
+        final CompiledRules compiled = new CompiledRules(compiledPatterns,
+                new LogParserRuleMatcher(compiledPatterns), digest);
+        metrics.setRuleCompilationNanos(System.nanoTime() - compilationStart);
+        synchronized (LogParserRuleCache.class) {
+            CACHE.put(key, compiled);
+            LOGGER.log(Level.FINE, "Compiled the parsing rules of " + parsingRulesFile
+                    + " - hits: " + hitCount + ", misses: " + missCount + ", evictions: "
+                    + evictionCount);
+        }
+        return compiled;
+    }
+
+    /**
+     * @return how many times compiled rules were found in the cache
+     */
+    public static synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return how many times rules had to be compiled
+     */
+    public static synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return how many compiled rule sets were dropped to make room for others
+     */
+    public static synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return how many compiled rule sets are kept
+     */
+    public static synchronized int size() {
+        return CACHE.size();
+    }
+
+    /**
+     * Drops all the compiled rules and resets the counts
+     */
+    public static synchronized void clear() {
+        CACHE.clear();
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+    }
+
+    /**
+     * Parsing rules compiled once. They are shared by the parsers running at
+     * the same time and must not be modified.
+     */
+    public static final class CompiledRules {
+
+        private final CompiledPatterns compiledPatterns;
+        private final LogParserRuleMatcher ruleMatcher;
+        private final String digest;
+
+        CompiledRules(final CompiledPatterns compiledPatterns,
+                final LogParserRuleMatcher ruleMatcher, final String digest) {
+            this.compiledPatterns = compiledPatterns;
+            this.ruleMatcher = ruleMatcher;
+            this.digest = digest;
+        }
+
+        public CompiledPatterns getCompiledPatterns() {
+            return compiledPatterns;
+        }
+
+        public LogParserRuleMatcher getRuleMatcher() {
+            return ruleMatcher;
+        }
+
+        /**
+         * @return the digest of the rules file the rules were compiled from
+         */
+        public String getDigest() {
+            return digest;
+        }
+    }
+
+}
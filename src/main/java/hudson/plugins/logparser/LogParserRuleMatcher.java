@@ -0,0 +1,638 @@
+package hudson.plugins.logparser;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the first parsing rule matching a line, without running every rule's
+ * regular expression on every line.
+ * <p>
+ * For each rule a literal that any match must contain is extracted from its
+ * regular expression (e.g. "[ERROR]" for /^\[ERROR\] /). All the literals are
+ * searched at once with an Aho-Corasick automaton, which scans the line a
+ * single time, and only the rules whose literal was found - plus the rules
+ * for which no literal could be extracted - have their pattern run. Candidates
+ * are tried in rule order, so the first matching rule still wins.
+ * <p>
+ * Rules are designated by their position in the compiled rule table.
+ */
+public class LogParserRuleMatcher implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Shorter literals are found in too many lines to be worth it
+     */
+    private static final int MIN_LITERAL_LENGTH = 3;
+
+    private final Pattern[] patterns;
+
+    // Rules without a literal are candidates for every line
+    private final long[] alwaysCandidates;
+    // The candidates of the line classified, one set per thread classifying
+    private transient ThreadLocal<long[]> candidateSets;
+
+    // Aho-Corasick automaton, as a complete transition table over the
+    // characters found in the literals (class 0 is any other character)
+    private final int[] asciiClasses;
+    private final char[] otherChars;
+    private final int firstOtherClass;
+    private final int numClasses;
+    private final int[] transitions;
+    // The rules whose literal ends in each state
+    private final int[][] outputs;
+
+    public LogParserRuleMatcher(final CompiledPatterns compiledPatterns) {
+        final int numRules = compiledPatterns.size();
+        this.patterns = compiledPatterns.getCompiledPatterns().clone();
+        this.alwaysCandidates = new long[(numRules + 63) / 64];
+        final String[] literals = new String[numRules];
+        final TreeSet<Character> literalChars = new TreeSet<Character>();
+        for (int i = 0; i < numRules; i++) {
+            literals[i] = getRequiredLiteral(patterns[i]);
+            if (literals[i] == null) {
+                alwaysCandidates[i >> 6] |= 1L << i;
+            } else {
+                for (int j = 0; j < literals[i].length(); j++) {
+                    literalChars.add(literals[i].charAt(j));
+                }
+            }
+        }
+
+        // Number the characters used by the literals
+        this.asciiClasses = new int[128];
+        final StringBuilder others = new StringBuilder();
+        int classes = 1;
+        for (Character c : literalChars) {
+            if (c < 128) {
+                asciiClasses[c] = classes;
+            } else {
+                others.append(c.charValue());
+            }
+            classes++;
+        }
+        this.otherChars = others.toString().toCharArray();
+        this.firstOtherClass = classes - otherChars.length;
+        this.numClasses = classes;
+
+        // Build the trie of the literals
+        final List<int[]> gotoTable = new ArrayList<int[]>();
+        final List<List<Integer>> stateOutputs = new ArrayList<List<Integer>>();
+        gotoTable.add(newStateRow());
+        stateOutputs.add(new ArrayList<Integer>());
+        for (int i = 0; i < numRules; i++) {
+            if (literals[i] == null) {
+                continue;
+            }
+            int state = 0;
+            for (int j = 0; j < literals[i].length(); j++) {
+                final int c = getCharClass(literals[i].charAt(j));
+                if (gotoTable.get(state)[c] < 0) {
+                    gotoTable.get(state)[c] = gotoTable.size();
+                    gotoTable.add(newStateRow());
+                    stateOutputs.add(new ArrayList<Integer>());
+                }
+                state = gotoTable.get(state)[c];
+            }
+            stateOutputs.get(state).add(i);
+        }
+
+        // Breadth first, turn the trie into a complete automaton: missing
+        // transitions follow the failure link of the state, and each state
+        // also reports the literals of its failure state.
+        final int numStates = gotoTable.size();
+        this.transitions = new int[numStates * numClasses];
+        this.outputs = new int[numStates][];
+        final int[] failure = new int[numStates];
+        final int[] queue = new int[numStates];
+        int head = 0;
+        int tail = 0;
+        for (int c = 0; c < numClasses; c++) {
+            final int next = gotoTable.get(0)[c];
+            if (next > 0) {
+                failure[next] = 0;
+                queue[tail++] = next;
+                transitions[c] = next;
+            } else {
+                transitions[c] = 0;
+            }
+        }
+        outputs[0] = null;
+        while (head < tail) {
+            final int state = queue[head++];
+            final List<Integer> out = stateOutputs.get(state);
+            for (int rule : getOutputs(failure[state])) {
+                if (!out.contains(rule)) {
+                    out.add(rule);
+                }
+            }
+            outputs[state] = toArray(out);
+            for (int c = 0; c < numClasses; c++) {
+                final int next = gotoTable.get(state)[c];
+                if (next > 0) {
+                    failure[next] = transitions[failure[state] * numClasses + c];
+                    queue[tail++] = next;
+                    transitions[state * numClasses + c] = next;
+                } else {
+                    transitions[state * numClasses + c] = transitions[failure[state] * numClasses + c];
+                }
+            }
+        }
+    }
+
+    /**
+     * @param line
+     *            the line to classify, with console notes already removed
+     * @return the index in the rule table of the first rule matching the
+     *         line, or LogParserLineStatuses.NO_MATCH
+     */
+    public int getMatchingRule(final CharSequence line) {
+        return getMatchingRule(line, null);
+    }
+
+    /**
+     * @param line
+     *            the line to classify, with console notes already removed
+     * @param profile
+     *            where to record the time taken by each pattern run, or null
+     * @return the index in the rule table of the first rule matching the
+     *         line, or LogParserLineStatuses.NO_MATCH
+     */
+    public int getMatchingRule(final CharSequence line, final LogParserRuleProfile profile) {
+        return getMatchingRule(line, profile, null, 0);
+    }
+
+    /**
+     * @param line
+     *            the line to classify, with console notes already removed
+     * @param profile
+     *            where to record the time taken by each pattern run, or null
+     * @param budget
+     *            the budget of the parsing, to skip the rules it disabled and
+     *            to blame a rule for running out of time, or null not to
+     *            limit the time the patterns take
+     * @param deadline
+     *            when the patterns must stop running on the line, see
+     *            LogParserMatchBudget.getLineDeadline(long)
+     * @return the index in the rule table of the first rule matching the
+     *         line, LogParserLineStatuses.NO_MATCH, or
+     *         LogParserLineStatuses.TIMED_OUT if a pattern was still running
+     *         at the deadline
+     */
+    public int getMatchingRule(final CharSequence line, final LogParserRuleProfile profile,
+            final LogParserMatchBudget budget, final long deadline) {
+        final long[] candidates = getCandidateSet();
+        System.arraycopy(alwaysCandidates, 0, candidates, 0, candidates.length);
+        if (transitions.length > numClasses) {
+            int state = 0;
+            final int length = line.length();
+            for (int i = 0; i < length; i++) {
+                state = transitions[state * numClasses + getCharClass(line.charAt(i))];
+                final int[] found = outputs[state];
+                if (found != null) {
+                    for (int rule : found) {
+                        candidates[rule >> 6] |= 1L << rule;
+                    }
+                }
+            }
+        }
+
+        final long[] disabled = budget == null ? null : budget.getDisabledRules();
+        CharSequence text = line;
+        for (int word = 0; word < candidates.length; word++) {
+            long bits = candidates[word];
+            if (disabled != null) {
+                bits &= ~disabled[word];
+            }
+            while (bits != 0) {
+                final int rule = (word << 6) + Long.numberOfTrailingZeros(bits);
+                if (budget != null && text == line) {
+                    text = new LogParserMatchBudget.DeadlineCharSequence(line, deadline);
+                }
+                final long start = profile == null ? 0 : System.nanoTime();
+                final boolean found;
+                try {
+                    found = patterns[rule].matcher(text).find();
+                } catch (LogParserMatchBudget.MatchTimeoutException e) {
+                    if (profile != null) {
+                        profile.record(rule, System.nanoTime() - start);
+                    }
+                    budget.recordTimeout(rule);
+                    return LogParserLineStatuses.TIMED_OUT;
+                }
+                if (profile != null) {
+                    profile.record(rule, System.nanoTime() - start);
+                }
+                if (found) {
+                    return rule;
+                }
+                bits &= bits - 1;
+            }
+        }
+        return LogParserLineStatuses.NO_MATCH;
+    }
+
+    /**
+     * @return the candidate set of this thread, reused from line to line
+     */
+    private long[] getCandidateSet() {
+        ThreadLocal<long[]> sets = candidateSets;
+        if (sets == null) {
+            // Racing threads may each create one: they only lose their set
+            sets = new ThreadLocal<long[]>() {
+                @Override
+                protected long[] initialValue() {
+                    return new long[alwaysCandidates.length];
+                }
+            };
+            candidateSets = sets;
+        }
+        return sets.get();
+    }
+
+    /**
+     * Cheap check on the raw bytes of a line, before decoding it, for an
+     * ASCII compatible encoding in which a byte below 128 is always the
+     * character of that code. Bytes of multi-byte characters never look like
+     * an ASCII character in such an encoding, so when all literals are ASCII
+     * the automaton can be run on the bytes directly.
+     *
+     * @param bytes
+     *            a buffer holding the line
+     * @param start
+     *            the position of the first byte of the line
+     * @param end
+     *            the position after the last byte of the line
+     * @return false if no rule can match the line, true if some may
+     */
+    public boolean mayMatch(final ByteBuffer bytes, final int start, final int end) {
+        if (otherChars.length > 0) {
+            return true;
+        }
+        for (long word : alwaysCandidates) {
+            if (word != 0) {
+                return true;
+            }
+        }
+        int state = 0;
+        for (int i = start; i < end; i++) {
+            final byte b = bytes.get(i);
+            state = transitions[state * numClasses + (b < 0 ? 0 : asciiClasses[b])];
+            if (outputs[state] != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Extract from a regular expression a literal that every match contains.
+     * Only the top level sequence of the expression is looked at: groups,
+     * character classes and escapes such as \d end the current literal, and a
+     * quantifier removes the character it applies to. Expressions using
+     * alternation, flags or quoting get no literal.
+     *
+     * @param pattern
+     *            the compiled rule
+     * @return the longest literal found, or null if none is long enough
+     */
+    public static String getRequiredLiteral(final Pattern pattern) {
+        if (pattern.flags() != 0) {
+            return null;
+        }
+        final String regex = pattern.pattern();
+        final int length = regex.length();
+        String best = "";
+        final StringBuilder run = new StringBuilder();
+        // Whether the last atom read is the last character of run
+        boolean lastIsRunChar = false;
+        int i = 0;
+        while (i < length) {
+            final char c = regex.charAt(i);
+            switch (c) {
+                case '\\':
+                    if (i + 1 >= length) {
+                        return null;
+                    }
+                    final char escaped = regex.charAt(i + 1);
+                    if (Character.isLetterOrDigit(escaped)) {
+                        if (escaped == 'Q') {
+                            return null;
+                        }
+                        best = longest(best, run);
+                        lastIsRunChar = false;
+                        i = skipEscape(regex, i);
+                    } else {
+                        run.append(escaped);
+                        lastIsRunChar = true;
+                        i += 2;
+                    }
+                    break;
+                case '[':
+                    best = longest(best, run);
+                    lastIsRunChar = false;
+                    i = skipCharClass(regex, i);
+                    break;
+                case '(':
+                    if (i + 2 < length && regex.charAt(i + 1) == '?'
+                            && ":=!<>".indexOf(regex.charAt(i + 2)) < 0) {
+                        // (?i) and the like change how the rest is matched
+                        return null;
+                    }
+                    best = longest(best, run);
+                    lastIsRunChar = false;
+                    i = skipGroup(regex, i);
+                    break;
+                case '*':
+                case '?':
+                case '{':
+                    if (lastIsRunChar) {
+                        run.setLength(run.length() - 1);
+                    }
+                    best = longest(best, run);
+                    lastIsRunChar = false;
+                    if (c == '{') {
+                        i = regex.indexOf('}', i);
+                        if (i < 0) {
+                            return null;
+                        }
+                    }
+                    i = skipQuantifierSuffix(regex, i + 1);
+                    break;
+                case '+':
+                    best = longest(best, run);
+                    lastIsRunChar = false;
+                    i = skipQuantifierSuffix(regex, i + 1);
+                    break;
+                case '|':
+                case ')':
+                    return null;
+                case '.':
+                case '^':
+                case '$':
+                    best = longest(best, run);
+                    lastIsRunChar = false;
+                    i++;
+                    break;
+                default:
+                    run.append(c);
+                    lastIsRunChar = true;
+                    i++;
+                    break;
+            }
+            if (i < 0) {
+                return null;
+            }
+        }
+        best = longest(best, run);
+        return best.length() >= MIN_LITERAL_LENGTH ? best : null;
+    }
+
+    /**
+     * Tells whether a regular expression repeats without bound a group that
+     * itself holds an unbounded quantifier, as in (a+)+ or (.*,)*. When such
+     * a pattern fails to match, the ways of splitting the line between the
+     * two quantifiers are all tried, which can take exponential time on a long
+     * line. Possessive quantifiers and atomic groups do not backtrack and are
+     * not reported.
+     *
+     * @param regex
+     *            the regular expression of a rule
+     * @return true if the expression has nested unbounded quantifiers
+     */
+    public static boolean hasNestedQuantifier(final String regex) {
+        final int length = regex.length();
+        // For each open group: whether it holds an unbounded quantifier, and
+        // whether it is atomic
+        final boolean[] unbounded = new boolean[length + 1];
+        final boolean[] atomic = new boolean[length + 1];
+        int depth = 0;
+        // Whether the last atom read is a group holding an unbounded
+        // quantifier
+        boolean lastIsRiskyGroup = false;
+        int i = 0;
+        while (i < length) {
+            final char c = regex.charAt(i);
+            boolean riskyGroup = false;
+            switch (c) {
+                case '\\':
+                    if (i + 1 < length && regex.charAt(i + 1) == 'Q') {
+                        final int end = regex.indexOf("\\E", i + 2);
+                        i = end < 0 ? length : end + 2;
+                    } else if (i + 1 < length && Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                        i = skipEscape(regex, i);
+                    } else {
+                        i += 2;
+                    }
+                    break;
+                case '[':
+                    i = skipCharClass(regex, i);
+                    break;
+                case '(':
+                    depth++;
+                    unbounded[depth] = false;
+                    atomic[depth] = regex.startsWith("(?>", i);
+                    i++;
+                    break;
+                case ')':
+                    if (depth > 0) {
+                        riskyGroup = unbounded[depth] && !atomic[depth];
+                        depth--;
+                        unbounded[depth] |= riskyGroup;
+                    }
+                    i++;
+                    break;
+                case '*':
+                case '+':
+                case '{':
+                case '?':
+                    int end = i + 1;
+                    boolean isUnbounded = c != '?';
+                    if (c == '{') {
+                        end = regex.indexOf('}', i);
+                        if (end < 0) {
+                            return false;
+                        }
+                        isUnbounded = regex.charAt(end - 1) == ',';
+                        end++;
+                    }
+                    final boolean possessive = end < length && regex.charAt(end) == '+';
+                    if (isUnbounded && !possessive) {
+                        if (lastIsRiskyGroup) {
+                            return true;
+                        }
+                        unbounded[depth] = true;
+                    }
+                    i = skipQuantifierSuffix(regex, end);
+                    break;
+                default:
+                    i++;
+                    break;
+            }
+            if (i < 0) {
+                return false;
+            }
+            lastIsRiskyGroup = riskyGroup;
+        }
+        return false;
+    }
+
+    /**
+     * @return the longest of best and run; run is emptied
+     */
+    private static String longest(final String best, final StringBuilder run) {
+        String result = best;
+        if (run.length() > best.length()) {
+            result = run.toString();
+        }
+        run.setLength(0);
+        return result;
+    }
+
+    /**
+     * @return the position after the escape sequence starting at i, which is
+     *         a backslash followed by a letter or a digit
+     */
+    private static int skipEscape(final String regex, final int i) {
+        final int length = regex.length();
+        final char escaped = regex.charAt(i + 1);
+        int end = i + 2;
+        if ("pPxNk".indexOf(escaped) >= 0 && end < length
+                && (regex.charAt(end) == '{' || regex.charAt(end) == '<')) {
+            final int close = regex.indexOf(regex.charAt(end) == '{' ? '}' : '>', end);
+            return close < 0 ? -1 : close + 1;
+        }
+        if (escaped == 'p' || escaped == 'P' || escaped == 'c') {
+            end++;
+        } else if (escaped == 'x') {
+            end += 2;
+        } else if (escaped == 'u') {
+            end += 4;
+        } else if (Character.isDigit(escaped)) {
+            while (end < length && Character.isDigit(regex.charAt(end))) {
+                end++;
+            }
+        }
+        return Math.min(end, length);
+    }
+
+    /**
+     * @return the position after the character class starting at i
+     */
+    private static int skipCharClass(final String regex, final int i) {
+        final int length = regex.length();
+        int depth = 0;
+        int j = i;
+        while (j < length) {
+            final char c = regex.charAt(j);
+            if (c == '\\') {
+                j += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                j++;
+                // A ] right after the opening bracket is a literal
+                if (j < length && regex.charAt(j) == '^') {
+                    j++;
+                }
+                if (j < length && regex.charAt(j) == ']') {
+                    j++;
+                }
+                continue;
+            }
+            if (c == ']') {
+                depth--;
+                if (depth == 0) {
+                    return j + 1;
+                }
+            }
+            j++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position after the group starting at i
+     */
+    private static int skipGroup(final String regex, final int i) {
+        final int length = regex.length();
+        int depth = 0;
+        int j = i;
+        while (j < length) {
+            final char c = regex.charAt(j);
+            if (c == '\\') {
+                j += 2;
+                continue;
+            }
+            if (c == '[') {
+                j = skipCharClass(regex, j);
+                if (j < 0) {
+                    return -1;
+                }
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return j + 1;
+                }
+            }
+            j++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position after the lazy or possessive mark of a quantifier
+     */
+    private static int skipQuantifierSuffix(final String regex, final int i) {
+        if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+            return i + 1;
+        }
+        return i;
+    }
+
+    private int getCharClass(final char c) {
+        if (c < 128) {
+            return asciiClasses[c];
+        }
+        final int i = Arrays.binarySearch(otherChars, c);
+        return i >= 0 ? firstOtherClass + i : 0;
+    }
+
+    private int[] newStateRow() {
+        final int[] row = new int[numClasses];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private List<Integer> getOutputs(final int state) {
+        final List<Integer> result = new ArrayList<Integer>();
+        if (outputs[state] != null) {
+            for (int rule : outputs[state]) {
+                result.add(rule);
+            }
+        }
+        return result;
+    }
+
+    private static int[] toArray(final List<Integer> list) {
+        if (list.isEmpty()) {
+            return null;
+        }
+        final int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = list.get(i);
+        }
+        return result;
+    }
+
+}
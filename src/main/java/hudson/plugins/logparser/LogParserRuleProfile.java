@@ -0,0 +1,64 @@
+package hudson.plugins.logparser;
+
+/**
+ * The time spent running the pattern of each parsing rule, and how many times
+ * it was run, for the rules of one parsing. Only kept when rule profiling is
+ * on (see LogParserUtils.isRuleProfiling()), as timing each pattern costs more
+ * than most patterns take to run.
+ * <p>
+ * A rule's pattern is only run on the lines LogParserRuleMatcher could not
+ * rule out, so a rule can be run far fewer times than there are lines.
+ */
+public class LogParserRuleProfile {
+
+    private final long[] nanos;
+    private final long[] evaluations;
+
+    /**
+     * @param numRules
+     *            the number of rules in the rule table
+     */
+    public LogParserRuleProfile(final int numRules) {
+        this.nanos = new long[numRules];
+        this.evaluations = new long[numRules];
+    }
+
+    /**
+     * Counts a run of the pattern of a rule
+     *
+     * @param rule
+     *            the index of the rule in the rule table
+     * @param elapsedNanos
+     *            the time the run took
+     */
+    public void record(final int rule, final long elapsedNanos) {
+        nanos[rule] += elapsedNanos;
+        evaluations[rule]++;
+    }
+
+    /**
+     * Adds the runs counted by another profile of the same rules, such as the
+     * one of a log part classified by another thread
+     */
+    public void add(final LogParserRuleProfile other) {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] += other.nanos[i];
+            evaluations[i] += other.evaluations[i];
+        }
+    }
+
+    /**
+     * @return the time spent running the pattern of the rule
+     */
+    public long getNanos(final int rule) {
+        return nanos[rule];
+    }
+
+    /**
+     * @return how many times the pattern of the rule was run
+     */
+    public long getEvaluations(final int rule) {
+        return evaluations[rule];
+    }
+
+}
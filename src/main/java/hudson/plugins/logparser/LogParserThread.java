@@ -1,55 +1,43 @@
 package hudson.plugins.logparser;
 
-import java.io.IOException;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
-import hudson.console.ConsoleNote;
+/**
+ * Classifies the lines of a log part read by the caller, when run by a worker
+ * of a pool, and returns itself to give the statuses of the lines.
+ */
+class LogParserThread implements Callable<LogParserThread> {
 
-class LogParserThread extends Thread {
-
-    private LogParserLogPart logPart;
-    private final String[] parsingRulesArray;
-    private final Pattern[] compiledPatterns;
+    private final LogParserLogPart logPart;
+    private final LogParserRuleMatcher ruleMatcher;
     private final int threadNum;
-    private String[] logPartStatuses;
+    private LogParserLineStatuses logPartStatuses;
     private int numOfLines;
-    private final LogParserReader logParserReader;
-
-    public LogParserThread(final LogParserReader logParserReader, final String[] parsingRulesArray,
-            final Pattern[] compiledPatterns, final int threadNum) {
-        this.parsingRulesArray = parsingRulesArray;
-        this.compiledPatterns = compiledPatterns;
-        this.threadNum = threadNum;
-        this.logParserReader = logParserReader;
+    private LogParserRuleProfile ruleProfile;
+    private LogParserMatchBudget matchBudget;
+    private long parseNanos;
+
+    public LogParserThread(final LogParserRuleMatcher ruleMatcher,
+            final LogParserLogPart logPart) {
+        this.ruleMatcher = ruleMatcher;
+        this.threadNum = logPart.getLogPartNum();
+        this.logPart = logPart;
     }
 
+    /**
+     * Computes the status of each line of the log part.
+     */
     @Override
-    public void run() {
-        try {
-            // Synchronized method so as not to read from the same file from
-            // several threads.
-            logPart = logParserReader.readLogPart(this.threadNum);
-        } catch (IOException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
+    public LogParserThread call() {
+        final long start = System.nanoTime();
         logPartStatuses = getLineStatuses(logPart.getLines());
-
-        /*
-         * try { logPartStatuses = channel .call(new Callable<String[],
-         * RuntimeException>() { public String[] call() { return
-         * getLineStatuses(logPart.getLines()); } }); } catch (IOException e) {
-         * // TODO Auto-generated catch block e.printStackTrace(); } catch
-         * (RuntimeException e) { // TODO Auto-generated catch block
-         * e.printStackTrace(); } catch (InterruptedException e) { // TODO
-         * Auto-generated catch block e.printStackTrace(); }
-         */
-
+        parseNanos = System.nanoTime() - start;
+        return this;
     }
 
-    public String[] getLineStatuses() {
+    public LogParserLineStatuses getLineStatuses() {
         return this.logPartStatuses;
     }
 
@@ -61,22 +49,59 @@ class LogParserThread extends Thread {
         return this.numOfLines;
     }
 
-    private String[] getLineStatuses(final String[] logPart) {
+    /**
+     * @return the time the log part took to be classified
+     */
+    public long getParseNanos() {
+        return this.parseNanos;
+    }
+
+    private LogParserLineStatuses getLineStatuses(final String[] logPart) {
 
         final Logger logger = Logger.getLogger(this.getClass().getName());
         logger.log(Level.INFO,
                 "LogParserThread: Start parsing log part " + this.logPart.getLogPartNum());
 
         numOfLines = 0;
-        String[] result = new String[logPart.length];
+        final LogParserLineStatuses result = new LogParserLineStatuses();
+        final long partDeadline = matchBudget == null ? 0 : matchBudget.getPartDeadline();
+        int skippedLines = 0;
+        final boolean[] mayMatch = this.logPart.getMayMatch();
         for (int i = 0; i < logPart.length; i++) {
-            final String line = logPart[i];
-            if (line == null) {
+            if (logPart[i] == null) {
+                continue;
+            }
+            if (mayMatch != null && !mayMatch[i]) {
+                // Ruled out by the reader, and it has no note to strip
+                numOfLines++;
                 continue;
             }
+            // For now, strip out ConsoleNote(s) before parsing.
+            // Notes are injected into log lines, and can break start-of-line
+            // patterns, and include html. Will likely need alternative way to
+            // handle in the future.
+            // The stripped line is kept in the log part, so that it is not
+            // stripped again when written out.
+            final String line = ConsoleNoteUtils.removeNotes(logPart[i]);
+            logPart[i] = line;
             numOfLines++;
-            final String status = getLineStatus(line);
-            result[i] = status;
+            if (matchBudget != null && (skippedLines > 0
+                    || LogParserMatchBudget.isPast(partDeadline))) {
+                // The part used up its budget: the lines left are not
+                // classified
+                skippedLines++;
+                result.add(i, LogParserLineStatuses.TIMED_OUT);
+                continue;
+            }
+            final int ruleIndex = getLineStatus(line, partDeadline);
+            if (ruleIndex != LogParserLineStatuses.NO_MATCH) {
+                result.add(i, ruleIndex);
+            }
+        }
+        if (skippedLines > 0) {
+            matchBudget.recordSkippedLines(skippedLines);
+            logger.log(Level.WARNING, "LogParserThread: Log part " + this.logPart.getLogPartNum()
+                    + " took too long to parse, " + skippedLines + " lines were not parsed");
         }
 
         logger.log(Level.INFO,
@@ -85,22 +110,39 @@ class LogParserThread extends Thread {
         return result;
     }
 
-    private String getLineStatus(String line) {
-        // For now, strip out ConsoleNote(s) before parsing.
-        // Notes are injected into log lines, and can break start-of-line
-        // patterns, and include html. Will likely need alternative way to
-        // handle in the future.
-        line = ConsoleNote.removeNotes(line);
-        for (int i = 0; i < this.parsingRulesArray.length; i++) {
-            final String parsingRule = this.parsingRulesArray[i];
-            if (!LogParserUtils.skipParsingRule(parsingRule) && this.compiledPatterns[i] != null
-                    && this.compiledPatterns[i].matcher(line).find()) {
-                final String status = parsingRule.split("\\s")[0];
-                return LogParserUtils.standardizeStatus(status);
-            }
+    /**
+     * @return the index of the first rule matching the line, NO_MATCH or
+     *         TIMED_OUT. The status of the rule is resolved by the consumer,
+     *         only for the lines that matched.
+     */
+    private int getLineStatus(final String line, final long partDeadline) {
+        if (matchBudget == null) {
+            return ruleMatcher.getMatchingRule(line, ruleProfile);
         }
+        return ruleMatcher.getMatchingRule(line, ruleProfile, matchBudget,
+                matchBudget.getLineDeadline(partDeadline));
+    }
+
+    /**
+     * @param ruleProfile
+     *            where to record the time taken by the pattern of each rule,
+     *            or null not to time them
+     */
+    public void setRuleProfile(final LogParserRuleProfile ruleProfile) {
+        this.ruleProfile = ruleProfile;
+    }
+
+    public LogParserRuleProfile getRuleProfile() {
+        return ruleProfile;
+    }
 
-        return LogParserConsts.NONE;
+    /**
+     * @param matchBudget
+     *            the time the rules may take on each line and on the log
+     *            part, or null not to limit it
+     */
+    public void setMatchBudget(final LogParserMatchBudget matchBudget) {
+        this.matchBudget = matchBudget;
     }
 
     public int getThreadNum() {
@@ -1,8 +1,15 @@
 package hudson.plugins.logparser;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -10,6 +17,7 @@ import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import hudson.FilePath;
 
@@ -60,13 +68,14 @@ public final class LogParserUtils {
     public static CompiledPatterns compilePatterns(final String[] parsingRulesArray,
                                                    final Logger logger) {
 
-        Pattern[] result = new Pattern[parsingRulesArray.length];
+        final List<String> rules = new ArrayList<String>();
+        final List<Pattern> patterns = new ArrayList<Pattern>();
+        final List<String> statuses = new ArrayList<String>();
         final StringBuffer badParsingRules = new StringBuffer();
         List<String> extraTags = new ArrayList<String>();
 
         for (int i = 0; i < parsingRulesArray.length; i++) {
             final String parsingRule = parsingRulesArray[i];
-            result[i] = null;
             if (!skipParsingRule(parsingRule)) {
                 try {
                     final String ruleParts[] = parsingRule.split("\\s");
@@ -83,8 +92,16 @@ public final class LogParserUtils {
                     if (firstDash != -1 && lastDash != -1) {
                         regexp = parsingRule.substring(firstDash + 1, lastDash);
                         final Pattern p = Pattern.compile(regexp);
-                        result[i] = p;
-
+                        if (LogParserRuleMatcher.hasNestedQuantifier(regexp)) {
+                            logger.log(Level.WARNING, "Parsing rule " + parsingRule
+                                    + " has nested quantifiers: it may take very long"
+                                    + " on the lines it does not match");
+                        }
+                        rules.add(parsingRule);
+                        patterns.add(p);
+                        // Interned so that the same status is a single string
+                        // whatever the rule that matched
+                        statuses.add(standardizeStatus(tag).intern());
                     }
                 } catch (Exception e) {
                     // Could not use rule for some reason - ignore rule and log
@@ -99,12 +116,114 @@ public final class LogParserUtils {
         }
 
         final CompiledPatterns fullResult = new CompiledPatterns();
-        fullResult.setCompiledPatters(result);
+        fullResult.setRules(rules.toArray(new String[rules.size()]),
+                patterns.toArray(new Pattern[patterns.size()]),
+                statuses.toArray(new String[statuses.size()]));
         fullResult.setError(badParsingRules.toString());
         fullResult.setExtraTags(extraTags);
         return fullResult;
     }
 
+    /**
+     * @return the line with its &lt; and &gt; escaped, so that it shows as it
+     *         is in the html pages
+     */
+    public static String escapeHtml(final String line) {
+        // Most lines have nothing to escape
+        if (line.indexOf('<') < 0 && line.indexOf('>') < 0) {
+            return line;
+        }
+        final StringBuilder escaped = new StringBuilder(line.length() + 16);
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == '<') {
+                escaped.append("&lt;");
+            } else if (c == '>') {
+                escaped.append("&gt;");
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Writes the line with its &lt; and &gt; escaped, as escapeHtml, without
+     * making a copy of it: the runs of characters between those escaped are
+     * written from the line itself
+     */
+    public static void writeEscapedHtml(final Writer out, final String line)
+            throws IOException {
+        final int length = line.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = line.charAt(i);
+            if (c == '<' || c == '>') {
+                out.write(line, start, i - start);
+                out.write(c == '<' ? "&lt;" : "&gt;");
+                start = i + 1;
+            }
+        }
+        out.write(line, start, length - start);
+    }
+
+    /**
+     * Same as writeEscapedHtml(Writer, String), for a line held in an array
+     * of characters, such as one decoded from the bytes of the log
+     */
+    public static void writeEscapedHtml(final Writer out, final char[] line, final int offset,
+            final int length) throws IOException {
+        final int end = offset + length;
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            final char c = line[i];
+            if (c == '<' || c == '>') {
+                out.write(line, start, i - start);
+                out.write(c == '<' ? "&lt;" : "&gt;");
+                start = i + 1;
+            }
+        }
+        out.write(line, start, end - start);
+    }
+
+    /**
+     * Writes a line of the log as it is shown in the parsed log: escaped, in
+     * the color of its status, and followed by a line break unless the html
+     * is preformatted
+     *
+     * @param text
+     *            the line, without its console notes
+     * @param color
+     *            the color of the status of the line, or null if it has none
+     */
+    public static void writeHtmlLine(final Writer out, final String text, final String color,
+            final boolean preformattedHtml) throws IOException {
+        if (color != null) {
+            out.write("<span style=\"color:");
+            out.write(color);
+            out.write("\">");
+        }
+        writeEscapedHtml(out, text);
+        if (color != null) {
+            out.write("</span>");
+        }
+        if (!preformattedHtml) {
+            out.write("<br/>\n");
+        }
+    }
+
+    /**
+     * Writes a line of the log without a status as it is shown in the parsed
+     * log, see writeHtmlLine(Writer, String, String, boolean)
+     */
+    public static void writeHtmlLine(final Writer out, final char[] text, final int offset,
+            final int length, final boolean preformattedHtml) throws IOException {
+        writeEscapedHtml(out, text, offset, length);
+        if (!preformattedHtml) {
+            out.write("<br/>\n");
+        }
+    }
+
     public static String getSectionCountKey(final String status, final int sectionNumber) {
         return Integer.toString(sectionNumber) + "-" + status;
     }
@@ -139,6 +258,135 @@ public final class LogParserUtils {
         return result;
     }
 
+    /**
+     * @return how many megabytes of diff results DiffResultCache keeps in
+     *         memory. Set HUDSON_LOG_PARSER_DIFF_CACHE_MEMORY_SIZE to 0 to
+     *         read them from disk for each visit.
+     */
+    public static int getDiffCacheMemorySize() {
+        int result = LogParserConsts.DIFF_CACHE_MEMORY_SIZE;
+        final String sizeByEnvStr = System.getenv("HUDSON_LOG_PARSER_DIFF_CACHE_MEMORY_SIZE");
+        if (sizeByEnvStr != null) {
+            try {
+                result = (Integer.valueOf(sizeByEnvStr)).intValue();
+            } catch (Exception e) {
+                // Do nothing - use the default;
+                Logger.getLogger("getDiffCacheMemorySize").log(Level.FINEST,
+                        "HUDSON_LOG_PARSER_DIFF_CACHE_MEMORY_SIZE" + LogParserConsts.NOT_INT);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return how many megabytes of diff results DiffResultCache keeps on
+     *         disk. Set HUDSON_LOG_PARSER_DIFF_CACHE_DISK_SIZE to 0 to keep
+     *         them only in memory.
+     */
+    public static int getDiffCacheDiskSize() {
+        int result = LogParserConsts.DIFF_CACHE_DISK_SIZE;
+        final String sizeByEnvStr = System.getenv("HUDSON_LOG_PARSER_DIFF_CACHE_DISK_SIZE");
+        if (sizeByEnvStr != null) {
+            try {
+                result = (Integer.valueOf(sizeByEnvStr)).intValue();
+            } catch (Exception e) {
+                // Do nothing - use the default;
+                Logger.getLogger("getDiffCacheDiskSize").log(Level.FINEST,
+                        "HUDSON_LOG_PARSER_DIFF_CACHE_DISK_SIZE" + LogParserConsts.NOT_INT);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return how many compiled rule sets LogParserRuleCache keeps. Set
+     *         HUDSON_LOG_PARSER_RULE_CACHE_SIZE to 0 to compile the rules for
+     *         each parsing.
+     */
+    public static int getRuleCacheSize() {
+        int result = LogParserConsts.RULE_CACHE_SIZE;
+        final String sizeByEnvStr = System.getenv("HUDSON_LOG_PARSER_RULE_CACHE_SIZE");
+        if (sizeByEnvStr != null) {
+            try {
+                result = (Integer.valueOf(sizeByEnvStr)).intValue();
+            } catch (Exception e) {
+                // Do nothing - use the default;
+                Logger.getLogger("getRuleCacheSize").log(Level.FINEST,
+                        "HUDSON_LOG_PARSER_RULE_CACHE_SIZE" + LogParserConsts.NOT_INT);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return how long, in milliseconds, the parsing rules may take to
+     *         classify a line, see LogParserMatchBudget. Set
+     *         HUDSON_LOG_PARSER_LINE_TIME_BUDGET to 0 for no limit.
+     */
+    public static long getLineTimeBudget() {
+        return getMillis("HUDSON_LOG_PARSER_LINE_TIME_BUDGET", LogParserConsts.LINE_TIME_BUDGET);
+    }
+
+    /**
+     * @return how long, in milliseconds, the parsing rules may take to
+     *         classify a log part of getLinesPerThread() lines. Set
+     *         HUDSON_LOG_PARSER_PART_TIME_BUDGET to 0 for no limit.
+     */
+    public static long getPartTimeBudget() {
+        return getMillis("HUDSON_LOG_PARSER_PART_TIME_BUDGET", LogParserConsts.PART_TIME_BUDGET);
+    }
+
+    private static long getMillis(final String variable, final long defaultMillis) {
+        long result = defaultMillis;
+        final String millisByEnvStr = System.getenv(variable);
+        if (millisByEnvStr != null) {
+            try {
+                result = (Long.valueOf(millisByEnvStr)).longValue();
+            } catch (Exception e) {
+                // Do nothing - use the default;
+                Logger.getLogger("getMillis").log(Level.FINEST,
+                        variable + LogParserConsts.NOT_INT);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return whether the time taken by the pattern of each parsing rule is
+     *         recorded, to find the rules that slow the parsing down. Set
+     *         HUDSON_LOG_PARSER_PROFILE_RULES to true to profile the rules.
+     */
+    public static boolean isRuleProfiling() {
+        return Boolean.parseBoolean(System.getenv("HUDSON_LOG_PARSER_PROFILE_RULES"));
+    }
+
+    /**
+     * Opens a parsed html file for reading, decompressing it if its name ends
+     * with .gz
+     */
+    public static InputStream openHtmlFile(final File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        // A compressed file nothing was written to is empty, not a gzip file
+        if (!file.getName().endsWith(".gz") || file.length() == 0) {
+            return in;
+        }
+        try {
+            return new GZIPInputStream(in, 64 * 1024);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a parsed html file for reading lines, decompressing it if its name
+     * ends with .gz
+     */
+    public static BufferedReader openHtmlReader(final File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(openHtmlFile(file),
+                Charset.defaultCharset()));
+    }
+
     public static int countLines(final String filename) throws IOException {
         final LineNumberReader reader = new LineNumberReader(new FileReader(filename));
         int count = 0;
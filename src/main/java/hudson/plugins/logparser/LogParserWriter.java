@@ -1,38 +1,23 @@
 package hudson.plugins.logparser;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import hudson.Functions;
 import jenkins.model.Jenkins;
 
 public final class LogParserWriter {
 
-    public static void writeHeaderTemplateToAllLinkFiles(
-            final HashMap<String, BufferedWriter> writers, final int sectionCounter)
-            throws IOException {
-        final List<String> statuses = LogParserConsts.STATUSES_WITH_SECTIONS_IN_LINK_FILES;
-        final int statusesSize = statuses.size();
-        for (int i = 0; i < statusesSize; i++) {
-            final String currentStatus = (String) statuses.get(i);
-            final BufferedWriter linkWriter = (BufferedWriter) writers.get(currentStatus);
-            String str = "HEADER HERE: #NUMBER";
-            str = str.replaceFirst("NUMBER", ((Integer) sectionCounter).toString());
-            linkWriter.write(str + "\n");
-        }
-
-    }
-
     public static void writeWrapperHtml(final String buildWrapperPath) throws IOException {
         final String wrapperHtml = "<frameset cols=\"270,*\">\n"
                 + "<frame src=\"log_ref.html\" scrolling=auto name=\"sidebar\">\n"
-                + "<frame src=\"log_content.html\" scrolling=auto name=\"content\">\n"
+                + "<frame src=\"page\" scrolling=auto name=\"content\">\n"
                 + "<noframes>\n"
                 + "<p>Viewing the build report requires a Frames-enabled browser</p>\n"
                 + "<a href='build.log'>build log</a>\n" + "</noframes>\n" + "</frameset>\n";
@@ -42,13 +27,13 @@ public final class LogParserWriter {
         writer.close();
     }
 
+    /**
+     * Writes the reference page, shown beside the parsed log: the links to the
+     * lines of each status, from the parse index
+     */
     public static void writeReferenceHtml(final String buildRefPath,
-                                          final ArrayList<String> headerForSection,
-                                          final HashMap<String, Integer> statusCountPerSection,
-                                          final HashMap<String, String> iconTable, final HashMap<String, String> linkListDisplay,
-                                          final HashMap<String, String> linkListDisplayPlural,
-                                          final HashMap<String, Integer> statusCount, final HashMap<String, String> linkFiles,
-                                          final List<String> extraTags)
+                                          final LogParserParseIndex parseIndex,
+                                          final LogParserDisplayConsts displayConstants)
             throws IOException {
 
         final String refStart = "<script type=\"text/javascript\">\n"
@@ -57,28 +42,16 @@ public final class LogParserWriter {
                 + "\t\telement.display == 'none' ? element.display='block' : element.display='none';\n"
                 + "\t}\n" + "</script>\n";
 
-        final BufferedWriter writer = new BufferedWriter(new FileWriter(buildRefPath));
+        // A single gzip member, which browsers can be sent as it is
+        final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(buildRefPath)),
+                Charset.defaultCharset()));
         // Hudson stylesheets
         writer.write(LogParserConsts.getHtmlOpeningTags());
         writer.write(refStart); // toggle links javascript
-        // Write Errors
-        writeLinks(writer, LogParserConsts.ERROR, headerForSection, statusCountPerSection,
-                iconTable, linkListDisplay, linkListDisplayPlural, statusCount, linkFiles);
-        // Write Warnings
-        writeLinks(writer, LogParserConsts.WARNING, headerForSection, statusCountPerSection,
-                iconTable, linkListDisplay, linkListDisplayPlural, statusCount, linkFiles);
-        // Write Info
-        writeLinks(writer, LogParserConsts.INFO, headerForSection, statusCountPerSection, iconTable,
-                linkListDisplay, linkListDisplayPlural, statusCount, linkFiles);
-        // Write Debugs
-        writeLinks(writer, LogParserConsts.DEBUG, headerForSection,
-                statusCountPerSection, iconTable, linkListDisplay,
-                linkListDisplayPlural, statusCount, linkFiles);
-        // Write extra tags
-        for (String extraTag : extraTags) {
-            writeLinks(writer, extraTag, headerForSection,
-                    statusCountPerSection, iconTable, linkListDisplay,
-                    linkListDisplayPlural, statusCount, linkFiles);
+        // Write Errors, Warnings, Info, Debugs and the extra tags
+        for (String status : parseIndex.getStatuses()) {
+            writeLinks(writer, status, parseIndex, displayConstants);
         }
         writer.write(LogParserConsts.getHtmlClosingTags());
         writer.close(); // Close to unlock and flush to disk.
@@ -86,26 +59,15 @@ public final class LogParserWriter {
     }
 
     private static void writeLinks(final BufferedWriter writer, final String status,
-                                   final ArrayList<String> headerForSection,
-                                   final HashMap<String, Integer> statusCountPerSection,
-                                   final HashMap<String, String> iconTable, final HashMap<String, String> linkListDisplay,
-                                   final HashMap<String, String> linkListDisplayPlural,
-                                   final HashMap<String, Integer> statusCount, final HashMap<String, String> linkFiles)
+                                   final LogParserParseIndex parseIndex,
+                                   final LogParserDisplayConsts displayConstants)
             throws IOException {
-        String statusIcon = (String) iconTable.get(status);
+        String statusIcon = (String) displayConstants.getIconTable().get(status);
         if (statusIcon == null) {
             statusIcon = LogParserDisplayConsts.DEFAULT_ICON;
         }
-        String linkListDisplayStr = (String) linkListDisplay.get(status);
-        if (linkListDisplayStr == null) {
-            linkListDisplayStr = LogParserDisplayConsts.getDefaultLinkListDisplay(status);
-        }
-        String linkListDisplayStrPlural = (String) linkListDisplayPlural
-                .get(status);
-        if (linkListDisplayStrPlural == null) {
-            linkListDisplayStrPlural = LogParserDisplayConsts.getDefaultLinkListDisplayPlural(status);
-        }
-        final String linkListCount = ((Integer) statusCount.get(status)).toString();
+        final String linkListDisplayStr = getLinkListDisplay(status, displayConstants, false);
+        final String linkListCount = Integer.toString(parseIndex.getCount(status));
 
         final String hudsonRoot = Jenkins.getInstance().getRootUrl();
         final String iconLocation = String.format("%s/images/16x16/", Functions.getResourcePath());
@@ -117,54 +79,96 @@ public final class LogParserWriter {
                 + "\" style=\"display:none; margin-left:0; padding-left:3em\">\n";
 
         writer.write(linksStart);
+        writeLinkList(writer, status, parseIndex, displayConstants);
+        final String linksEnd = "</ul>\n";
+        writer.write(linksEnd);
 
-        // Read the links file and insert here
-        final BufferedReader reader = new BufferedReader(
-                new FileReader((String) linkFiles.get(status)));
-        String line = null;
-        final String summaryLine = "<br/>(SUMMARY_INT_HERE LINK_LIST_DISPLAY_STR in this section)<br/>";
+    }
 
-        final String headerTemplateRegexp = "HEADER HERE:";
-        final String headerTemplateSplitBy = "#";
-
-        // If it's a header line - put the header of the section
-        while ((line = reader.readLine()) != null) {
-            String curSummaryLine = null;
-            if (line.startsWith(headerTemplateRegexp)) {
-                final String headerNum = line.split(headerTemplateSplitBy)[1];
-                line = (String) headerForSection.get(Integer.parseInt(headerNum));
-                final String key = LogParserUtils.getSectionCountKey(status,
-                        Integer.valueOf(headerNum));
-                final Integer summaryInt = (Integer) statusCountPerSection.get(key);
-                if (summaryInt == null || summaryInt == 0) {
-                    // Don't write the header if there are no relevant lines for
-                    // this section
-                    line = null;
-                } else {
-                    String linkListDisplayStrWithPlural = linkListDisplayStr;
-                    if (summaryInt > 1) {
-                        linkListDisplayStrWithPlural = linkListDisplayStrPlural;
+    /**
+     * Writes the links to the lines of a status, one per line, under the
+     * header of their section for the statuses listed by section
+     */
+    public static void writeLinkList(final BufferedWriter writer, final String status,
+                                     final LogParserParseIndex parseIndex,
+                                     final LogParserDisplayConsts displayConstants)
+            throws IOException {
+        final boolean bySection = LogParserConsts.STATUSES_WITH_SECTIONS_IN_LINK_FILES
+                .contains(status);
+        final List<LogParserParseIndex.Section> sections = parseIndex.getSections();
+        final String summaryLine = "<br/>(SUMMARY_INT_HERE LINK_LIST_DISPLAY_STR in this section)<br/>";
+        int section = -1;
+
+        final LogParserParseIndex.Entries entries = parseIndex.openEntries();
+        try {
+            LogParserParseIndex.Entry entry;
+            while ((entry = entries.next()) != null) {
+                if (!entry.getStatus().equals(status)) {
+                    continue;
+                }
+                // The header of the section before its first line of the
+                // status: sections without any are left out
+                if (bySection && entry.getSection() != section) {
+                    section = entry.getSection();
+                    final LogParserParseIndex.Entry header = sections.get(section).getHeader();
+                    if (header == null) {
+                        writer.write(" <a target=\"content\" href=\"page\">Beginning of log</a>");
+                    } else {
+                        writer.write("<br/>");
+                        writer.write(getShortLink(header, displayConstants));
                     }
-                    curSummaryLine = summaryLine.replace("SUMMARY_INT_HERE", summaryInt.toString())
-                            .replace("LINK_LIST_DISPLAY_STR", linkListDisplayStrWithPlural);
+                    writer.newLine(); // Write system dependent end of line.
+                    final int summaryInt = sections.get(section).getCount(status);
+                    writer.write(summaryLine.replace("SUMMARY_INT_HERE",
+                            Integer.toString(summaryInt)).replace("LINK_LIST_DISPLAY_STR",
+                            getLinkListDisplay(status, displayConstants, summaryInt > 1)));
+                    writer.newLine(); // Write system dependent end of line.
                 }
-
-            }
-
-            if (line != null) {
-                writer.write(line);
-                writer.newLine(); // Write system dependent end of line.
-            }
-            if (curSummaryLine != null) {
-                writer.write(curSummaryLine);
+                writer.write("<li>");
+                writer.write(Integer.toString(entry.getOrdinal()));
+                writer.write(getShortLink(entry, displayConstants));
+                writer.write("</li><br/>");
                 writer.newLine(); // Write system dependent end of line.
             }
+        } finally {
+            entries.close();
         }
-        reader.close(); // Close to unlock.
+    }
 
-        final String linksEnd = "</ul>\n";
-        writer.write(linksEnd);
+    /**
+     * @return the link to a line in the parsed log, see
+     *         LogParserAction.doPage, showing the line in the color of its
+     *         status
+     */
+    private static String getShortLink(final LogParserParseIndex.Entry entry,
+                                       final LogParserDisplayConsts displayConstants) {
+        String color = (String) displayConstants.getColorTable().get(entry.getStatus());
+        if (color == null) {
+            color = LogParserDisplayConsts.DEFAULT_COLOR;
+        }
+        final StringBuilder shortLink = new StringBuilder(
+                " <a target=\"content\" href=\"page?line=");
+        shortLink.append(entry.getLineNumber() + 1);
+        shortLink.append('#');
+        shortLink.append(entry.getStatus()).append(entry.getOrdinal());
+        shortLink.append("\"><span style=\"color:");
+        shortLink.append(color);
+        shortLink.append("\">");
+        shortLink.append(LogParserUtils.escapeHtml(entry.getText()));
+        shortLink.append("</span></a>");
+        return shortLink.toString();
+    }
 
+    private static String getLinkListDisplay(final String status,
+                                             final LogParserDisplayConsts displayConstants,
+                                             final boolean plural) {
+        final String display = (String) (plural ? displayConstants.getLinkListDisplayPlural()
+                : displayConstants.getLinkListDisplay()).get(status);
+        if (display != null) {
+            return display;
+        }
+        return plural ? LogParserDisplayConsts.getDefaultLinkListDisplayPlural(status)
+                : LogParserDisplayConsts.getDefaultLinkListDisplay(status);
     }
 
     private LogParserWriter() {
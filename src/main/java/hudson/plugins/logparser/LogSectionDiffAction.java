@@ -14,19 +14,35 @@ public class LogSectionDiffAction implements Action {
     final private Run<?, ?> thisBuild;
     private String thatBuild;
     public String html;
+    private DiffJob<String> job;
     private String fileName;
 
     public LogSectionDiffAction(Run<?, ?> build) {
         this.thisBuild = build;
         this.thatBuild = Stapler.getCurrentRequest().getParameter("prevBuild");
         Run<?, ?> that = thisBuild.getParent().getBuildByNumber(Integer.parseInt(this.thatBuild));
-        LogSectionDiffWorker lsdw = new LogSectionDiffWorker(thisBuild, that);
-        try {
-            this.html = lsdw.writeSectionDiffToHTMLs();
-        } catch (IOException e) {
-            e.printStackTrace();
+        final DiffResultCache.Key key = DiffResultCache.Key.of(that, thisBuild, getUrlName(), "");
+        this.html = DiffResultCache.getInstance().getHtml(key);
+        if (this.html == null) {
+            this.html = DiffJob.takeResult(Stapler.getCurrentRequest().getParameter("job"),
+                    that, thisBuild, getUrlName());
+        }
+        if (this.html == null) {
+            // computed in the background, the page showing its progress
+            // until it is done
+            final LogSectionDiffWorker lsdw = new LogSectionDiffWorker(thisBuild, that);
+            this.job = DiffJob.submit(new DiffJob<String>(that, thisBuild, getUrlName()) {
+                @Override
+                protected String compute() throws IOException {
+                    String res = lsdw.writeSectionDiffToHTMLs(this);
+                    DiffResultCache.getInstance().putHtml(key, res);
+                    return res;
+                }
+            });
+        }
+        if (this.html != null) {
+            this.html += "<br><br>";
         }
-        this.html += "<br><br>";
         
         fileName = "build_" + thatBuild + "_" + thisBuild.getNumber() + "_console_section_diff.html";
     }
@@ -38,6 +54,24 @@ public class LogSectionDiffAction implements Action {
     public String getPrevBuild() {
         return this.thatBuild;
     }
+
+    /**
+     * returns whether the diff is computed, to be shown
+     * 
+     * @return whether the diff is computed
+     */
+    public boolean isReady() {
+        return this.html != null;
+    }
+
+    /**
+     * returns the job computing the diff
+     * 
+     * @return the job, or null if the diff was kept
+     */
+    public DiffJob<String> getJob() {
+        return this.job;
+    }
     
     /**
      * returns html content
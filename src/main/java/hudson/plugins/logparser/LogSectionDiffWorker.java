@@ -9,7 +9,6 @@ import java.util.List;
 import java.util.Map;
 
 import hudson.Functions;
-import hudson.console.ConsoleNote;
 import hudson.model.Run;
 import jenkins.model.Jenkins;
 
@@ -39,7 +38,7 @@ public class LogSectionDiffWorker {
         try (BufferedReader reader = new BufferedReader(new FileReader(build.getLogFile()))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                buildLog.add(ConsoleNote.removeNotes(line));
+                buildLog.add(ConsoleNoteUtils.removeNotes(line));
             }
         }
         return buildLog;
@@ -66,16 +65,38 @@ public class LogSectionDiffWorker {
     }
 
     public String writeSectionDiffToHTMLs() throws IOException {
+        return writeSectionDiffToHTMLs(null);
+    }
+
+    /**
+     * Diff the sections of the logs of the two builds, and write the result
+     * to HTML.
+     * 
+     * @param job
+     *            the job computing the diff, told of its phases, or null
+     * @return the HTML of the diff
+     * @throws IOException
+     */
+    public String writeSectionDiffToHTMLs(DiffJob<?> job) throws IOException {
         int num1 = build1.getNumber();
         int num2 = build2.getNumber();
 
+        if (job != null) {
+            job.setPhase(DiffJob.Phase.READING_LOGS);
+        }
         List<String> build1Log = LogSectionDiffWorker.getBuildLog(build1);
         List<String> build2Log = LogSectionDiffWorker.getBuildLog(build2);
 
+        if (job != null) {
+            job.setPhase(DiffJob.Phase.DIFFING);
+        }
         LogSection section1 = new LogSection(num1, build1Log);
         LogSection section2 = new LogSection(num2, build2Log);
         LogSectionDiff sectionDiff = new LogSectionDiff(section1, section2);
 
+        if (job != null) {
+            job.setPhase(DiffJob.Phase.RENDERING);
+        }
         Map<String, String> sectionHTMLs = LogSectionDiffWorker.sectionDiffToHTML(sectionDiff);
 
         StringBuilder sb = new StringBuilder();
@@ -34,13 +34,23 @@ public class SourceCodeDiffAction implements Action {
             FilePath workspace) throws Exception {
         this.owner = job.getBuildByNumber(build1);
 
-        Map<String, List<String>> content1 = SCMUtils.getFilesFromBuild("*.java",
-                (AbstractProject<?, ?>) job, build1, launcher, workspace);
-        Map<String, List<String>> content2 = SCMUtils.getFilesFromBuild("*.java",
-                (AbstractProject<?, ?>) job, build2, launcher, workspace);
+        // the checkouts are only done if the diff is not kept already
+        DiffResultCache cache = DiffResultCache.getInstance();
+        DiffResultCache.Key key = DiffResultCache.Key.of(owner, job.getBuildByNumber(build2),
+                getUrlName(), "*.java");
+        String cached = cache.getHtml(key);
+        if (cached != null) {
+            this.html = cached;
+        } else {
+            Map<String, List<String>> content1 = SCMUtils.getFilesFromBuild("*.java",
+                    (AbstractProject<?, ?>) job, build1, launcher, workspace);
+            Map<String, List<String>> content2 = SCMUtils.getFilesFromBuild("*.java",
+                    (AbstractProject<?, ?>) job, build2, launcher, workspace);
 
-        this.html = DiffToHtmlUtils.generateDiffHTML(build1, build2, "Source Code", content1,
-                content2, null);
+            this.html = DiffToHtmlUtils.generateDiffHTML(build1, build2, "Source Code", content1,
+                    content2, null);
+            cache.putHtml(key, this.html);
+        }
         fileName = "build_" + build1 + "_" + build2 + "_source_code_diff.html";
     }
 
@@ -0,0 +1,52 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import hudson.console.ConsoleNote;
+import hudson.plugins.logparser.ConsoleNoteUtils;
+
+public class ConsoleNoteUtilsTest {
+
+    private static final String NOTE = ConsoleNote.PREAMBLE_STR + "AAAAdB+LCAAAAAAAAP9b"
+            + ConsoleNote.POSTAMBLE_STR;
+
+    @Test
+    public void testLineWithoutNoteIsReturnedAsIs() {
+        final String line = "[INFO] Building plugin 1.0";
+        assertSame(line, ConsoleNoteUtils.removeNotes(line));
+        final StringBuilder chars = new StringBuilder(line);
+        assertSame(chars, ConsoleNoteUtils.removeNotes((CharSequence) chars));
+        final String escape = "\u001B[31mred\u001B[0m";
+        assertSame(escape, ConsoleNoteUtils.removeNotes(escape));
+    }
+
+    @Test
+    public void testNotesAreRemoved() {
+        assertEquals("[ERROR] failed", ConsoleNoteUtils.removeNotes(NOTE + "[ERROR] failed"));
+        assertEquals("a b c", ConsoleNoteUtils.removeNotes("a" + NOTE + " b " + NOTE + "c"));
+        final CharSequence split = "[ERR" + NOTE + "OR]";
+        assertEquals("[ERROR]", ConsoleNoteUtils.removeNotes(split).toString());
+    }
+
+    @Test
+    public void testSameAsConsoleNote() {
+        final String[] fragments = { NOTE, ConsoleNote.PREAMBLE_STR, ConsoleNote.POSTAMBLE_STR,
+            "\u001B", "[8m", "ha:", "text", " ", "<b>" };
+        final Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            final StringBuilder line = new StringBuilder();
+            final int count = random.nextInt(6);
+            for (int j = 0; j < count; j++) {
+                line.append(fragments[random.nextInt(fragments.length)]);
+            }
+            final String expected = ConsoleNote.removeNotes(line.toString());
+            assertEquals(expected, ConsoleNoteUtils.removeNotes(line.toString()));
+            assertEquals(expected, ConsoleNoteUtils.removeNotes((CharSequence) line).toString());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import hudson.plugins.logparser.DiffJob;
+import hudson.plugins.logparser.DiffResultCache;
+
+public class DiffJobTest {
+
+    @Test
+    public void testSameDiffAttachesToTheJobRunning() throws Exception {
+        final DiffResultCache.Key key = new DiffResultCache.Key("job", 1, 2,
+                "logSectionDiffAction", "");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final DiffJob<String> job = DiffJob.submit(new DiffJob<String>(key) {
+            @Override
+            protected String compute() throws InterruptedException {
+                setPhase(Phase.DIFFING);
+                started.countDown();
+                release.await();
+                return "diff";
+            }
+        });
+        started.await();
+        assertEquals(DiffJob.Phase.DIFFING, job.getPhase());
+        assertNull(job.await(10));
+
+        final DiffJob<String> again = DiffJob.submit(new DiffJob<String>(key) {
+            @Override
+            protected String compute() {
+                return "computed again";
+            }
+        });
+        assertSame(job, again);
+        assertSame(job, DiffJob.get(job.getId()));
+
+        release.countDown();
+        assertEquals("diff", again.await(10000));
+        assertTrue(job.isDone());
+        assertEquals(DiffJob.Phase.DONE, job.getPhase());
+        // kept for the page polling it, but no longer attached to: its result
+        // is in DiffResultCache
+        assertSame(job, DiffJob.get(job.getId()));
+        assertEquals("diff", job.getResult());
+        final DiffJob<String> after = DiffJob.submit(new DiffJob<String>(key) {
+            @Override
+            protected String compute() {
+                return "computed again";
+            }
+        });
+        assertNotSame(job, after);
+        assertEquals("computed again", after.await(10000));
+    }
+
+    @Test
+    public void testFailedDiffIsComputedAgain() throws Exception {
+        final DiffResultCache.Key key = new DiffResultCache.Key("job", 2, 3,
+                "logSectionDiffAction", "");
+        final DiffJob<String> job = DiffJob.submit(new DiffJob<String>(key) {
+            @Override
+            protected String compute() throws IOException {
+                throw new IOException("no log");
+            }
+        });
+        assertNull(job.await(10000));
+        assertEquals(DiffJob.Phase.FAILED, job.getPhase());
+        assertTrue(job.getError().contains("no log"));
+        assertSame(job, DiffJob.get(job.getId()));
+
+        final DiffJob<String> again = DiffJob.submit(new DiffJob<String>(key) {
+            @Override
+            protected String compute() {
+                return "diff";
+            }
+        });
+        assertNotSame(job, again);
+        assertEquals("diff", again.await(10000));
+        assertFalse(DiffJob.get(again.getId()).getPhase() == DiffJob.Phase.FAILED);
+    }
+}
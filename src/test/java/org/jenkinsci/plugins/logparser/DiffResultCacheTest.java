@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.plugins.logparser.DiffResultCache;
+import hudson.plugins.logparser.LineDiff;
+
+public class DiffResultCacheTest {
+
+    private static final long SIZE = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testKeptOnDisk() throws Exception {
+        final File dir = folder.getRoot();
+        final DiffResultCache.Key htmlKey = new DiffResultCache.Key("job", 1, 2,
+                "logSectionDiffAction", "");
+        final DiffResultCache.Key editsKey = new DiffResultCache.Key("job", 1, 2,
+                "consoleLineDiffDisplay", "");
+        DiffResultCache cache = new DiffResultCache(dir, SIZE, SIZE);
+        assertNull(cache.getHtml(htmlKey));
+        cache.putHtml(htmlKey, "<p>diff \u00e9</p>");
+        cache.putEdits(editsKey, LineDiff.diff(Arrays.asList("a", "b", "c"),
+                Arrays.asList("a", "c", "d")));
+        assertEquals("<p>diff \u00e9</p>", cache.getHtml(htmlKey));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // as after a restart
+        cache = new DiffResultCache(dir, SIZE, SIZE);
+        assertEquals("<p>diff \u00e9</p>", cache.getHtml(htmlKey));
+        final List<LineDiff.Edit> edits = cache.getEdits(editsKey);
+        assertEquals(2, edits.size());
+        assertEquals(1, edits.get(0).getPrevStart());
+        assertEquals(2, edits.get(0).getPrevEnd());
+        assertEquals(2, edits.get(1).getCurrStart());
+        assertNull(cache.getHtml(new DiffResultCache.Key("job", 1, 2, "logSectionDiffAction",
+                "other")));
+        assertNull(cache.get(null));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedDropped() throws Exception {
+        final File dir = folder.getRoot();
+        final byte[][] results = new byte[3][];
+        final Random random = new Random(3);
+        for (int i = 0; i < results.length; i++) {
+            // not compressed on disk
+            results[i] = new byte[400 * 1024];
+            random.nextBytes(results[i]);
+        }
+        DiffResultCache cache = new DiffResultCache(dir, SIZE, SIZE);
+        cache.put(key(1), results[0]);
+        cache.put(key(2), results[1]);
+        assertNotNull(cache.get(key(1)));
+        cache.put(key(3), results[2]);
+        assertNull(cache.get(key(2)));
+        assertArrayEquals(results[0], cache.get(key(1)));
+        assertArrayEquals(results[2], cache.get(key(3)));
+
+        cache = new DiffResultCache(dir, 0, SIZE);
+        assertNull(cache.get(key(2)));
+        assertArrayEquals(results[0], cache.get(key(1)));
+    }
+
+    @Test
+    public void testRemoveBuild() throws Exception {
+        final File dir = folder.getRoot();
+        DiffResultCache cache = new DiffResultCache(dir, SIZE, SIZE);
+        cache.putHtml(key(1), "one");
+        cache.putHtml(key(2), "two");
+        cache.putHtml(key(3), "three");
+        cache.putHtml(new DiffResultCache.Key("other", 2, 3, "logSectionDiffAction", ""),
+                "other");
+        cache.remove("job", 3);
+        assertEquals("one", cache.getHtml(key(1)));
+        assertNull(cache.getHtml(key(2)));
+        assertNull(cache.getHtml(key(3)));
+
+        cache = new DiffResultCache(dir, SIZE, SIZE);
+        assertEquals("one", cache.getHtml(key(1)));
+        assertNull(cache.getHtml(key(2)));
+        assertEquals("other", cache.getHtml(new DiffResultCache.Key("other", 2, 3,
+                "logSectionDiffAction", "")));
+    }
+
+    @Test
+    public void testRemoveJob() throws Exception {
+        final File dir = folder.getRoot();
+        DiffResultCache cache = new DiffResultCache(dir, SIZE, SIZE);
+        cache.putHtml(key(1), "one");
+        cache.putHtml(key(2), "two");
+        cache.putHtml(new DiffResultCache.Key("other", 1, 2, "logSectionDiffAction", ""),
+                "other");
+        cache.remove("job");
+        assertNull(cache.getHtml(key(1)));
+        assertNull(cache.getHtml(key(2)));
+
+        // a job created again with the same name
+        cache = new DiffResultCache(dir, SIZE, SIZE);
+        assertNull(cache.getHtml(key(1)));
+        assertEquals("other", cache.getHtml(new DiffResultCache.Key("other", 1, 2,
+                "logSectionDiffAction", "")));
+    }
+
+    /**
+     * @return the diff of the build against the one before
+     */
+    private static DiffResultCache.Key key(final int build) {
+        return new DiffResultCache.Key("job", build, build + 1, "logSectionDiffAction", "");
+    }
+}
@@ -7,6 +7,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -90,6 +91,49 @@ public class DiffToHtmlGeneratorTest {
         assertEquals(3, d2h.getDeltas().size());
     }
 
+    @Test
+    public void testCollapsedContext() throws Exception {
+        List<String> original = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            original.add("line " + i);
+        }
+        List<String> revised = new ArrayList<String>(original);
+        revised.set(10, "changed line");
+
+        DiffToHtmlGenerator d2h = new DiffToHtmlGenerator(original, revised);
+        StringWriter out = new StringWriter();
+        d2h.writeHtml(out, true, 2);
+        String html = out.toString();
+        assertTrue(html.contains("data-prev='0' data-curr='0' data-count='8'"));
+        assertTrue(html.contains("data-prev='13' data-curr='13' data-count='7'"));
+        assertFalse(html.contains(">line 7<"));
+        assertTrue(html.contains(">line 8<"));
+        assertTrue(html.contains(">line 12<"));
+
+        String[] rows = d2h.generateUnchangedRows(0, 0, 8);
+        assertTrue(rows[0].contains(">line 7<"));
+        assertTrue(rows[1].contains(">line 7<"));
+        assertFalse(rows[1].contains("d2h-collapsed"));
+    }
+
+    @Test
+    public void testExpandLargeCollapsedBlock() throws Exception {
+        List<String> text = new ArrayList<String>();
+        for (int i = 0; i < 1200; i++) {
+            text.add("line " + i);
+        }
+
+        DiffToHtmlGenerator d2h = new DiffToHtmlGenerator(text, text);
+        StringWriter out = new StringWriter();
+        d2h.writeHtml(out, true, 3);
+        assertTrue(out.toString().contains("data-prev='0' data-curr='0' data-count='1200'"));
+
+        String[] rows = d2h.generateUnchangedRows(0, 0, 1200);
+        assertTrue(rows[0].contains(">line 499<"));
+        assertFalse(rows[0].contains(">line 500<"));
+        assertTrue(rows[0].contains("data-prev='500' data-curr='500' data-count='700'"));
+    }
+
     @Test
     public void testDifflineInsert() throws Exception {
 
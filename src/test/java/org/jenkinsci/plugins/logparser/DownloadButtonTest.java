@@ -1,5 +1,7 @@
 package org.jenkinsci.plugins.logparser;
 
+import static org.junit.Assert.assertEquals;
+
 import java.io.IOException;
 
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
@@ -12,6 +14,7 @@ import org.xml.sax.SAXException;
 
 import com.gargoylesoftware.htmlunit.Page;
 import com.gargoylesoftware.htmlunit.WebAssert;
+import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 
 import hudson.FilePath;
@@ -59,11 +62,11 @@ public class DownloadButtonTest {
         String url = "job/" + job.getName() + "/" + buildNumber + "/diffbuild/consoleLineDiffDisplay/?prevBuild="
                 + buildNumber;
         HtmlPage page = jenkinsRule.createWebClient().goTo(url);
-        String jscode = "jQuery(function ($){\n"
-                      + "$('#downloadHTML').click();\n"
-                      + "});\n";
-        Page newPage = page.executeJavaScript(jscode).getNewPage();
-        WebAssert.assertElementPresent((HtmlPage)newPage, "downloadlink");
+        HtmlAnchor link = page.getHtmlElementById("downloadHTML");
+        Page export = link.click();
+        assertEquals("attachment; filename=\"build_" + buildNumber + "_" + buildNumber
+                + "_console_line_diff.html\"",
+                export.getWebResponse().getResponseHeaderValue("Content-Disposition"));
     }
     
     @Test
@@ -0,0 +1,83 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import hudson.plugins.logparser.DiffToHtmlGenerator;
+import hudson.plugins.logparser.LineDiff;
+
+public class LineDiffTest {
+
+    @Test
+    public void testCommonPrefixAndSuffix() {
+        final List<String> prev = new ArrayList<String>();
+        for (int i = 0; i < 5000; i++) {
+            prev.add("line " + i);
+        }
+        final List<String> curr = new ArrayList<String>(prev);
+        curr.set(2500, "changed");
+        curr.add(4000, "inserted");
+
+        final List<LineDiff.Edit> edits = LineDiff.diff(prev, curr);
+        assertEquals(2, edits.size());
+        assertEquals(2500, edits.get(0).getPrevStart());
+        assertEquals(2501, edits.get(0).getPrevEnd());
+        assertTrue(edits.get(1).isInsert());
+        assertEquals(4000, edits.get(1).getCurrStart());
+    }
+
+    @Test
+    public void testEditsTurnPrevIntoCurr() {
+        final Random random = new Random(11);
+        for (int t = 0; t < 30; t++) {
+            final List<String> prev = new ArrayList<String>();
+            final int size = random.nextInt(t < 10 ? 50 : 20000);
+            for (int i = 0; i < size; i++) {
+                // Some texts have only a few different lines: no anchors
+                prev.add(t % 3 == 0 ? "line " + random.nextInt(4) : "line " + i);
+            }
+            final List<String> curr = new ArrayList<String>(prev);
+            for (int e = random.nextInt(50); e > 0; e--) {
+                final int pos = curr.isEmpty() ? 0 : random.nextInt(curr.size());
+                if (random.nextBoolean() || curr.isEmpty()) {
+                    curr.add(pos, "new " + random.nextInt(3));
+                } else {
+                    curr.remove(pos);
+                }
+            }
+            assertEquals(curr, apply(prev, curr, LineDiff.diff(prev, curr)));
+        }
+    }
+
+    @Test
+    public void testSameHashCodeIsShownChanged() {
+        // "Aa" and "BB" have the same hash code
+        final DiffToHtmlGenerator d2h = new DiffToHtmlGenerator(Arrays.asList("x", "Aa", "y"),
+                Arrays.asList("x", "BB", "y"));
+        assertEquals(0, d2h.getDeltas().size());
+        final String html = d2h.generateHtmlString(true);
+        assertTrue(html.contains("id = 'check-rev'><span class='d2h-code-line-ctn hljs'>Aa<"));
+        assertTrue(html.contains("id = 'check-rev'><span class='d2h-code-line-ctn hljs'>BB<"));
+    }
+
+    private static List<String> apply(final List<String> prev, final List<String> curr,
+            final List<LineDiff.Edit> edits) {
+        final List<String> result = new ArrayList<String>();
+        int pos = 0;
+        for (LineDiff.Edit edit : edits) {
+            assertTrue(edit.getPrevStart() >= pos);
+            result.addAll(prev.subList(pos, edit.getPrevStart()));
+            result.addAll(curr.subList(edit.getCurrStart(), edit.getCurrEnd()));
+            pos = edit.getPrevEnd();
+        }
+        result.addAll(prev.subList(pos, prev.size()));
+        return result;
+    }
+}
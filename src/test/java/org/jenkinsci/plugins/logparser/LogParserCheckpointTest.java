@@ -0,0 +1,93 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.plugins.logparser.LogParserCheckpoint;
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserLogPart;
+import hudson.plugins.logparser.LogParserMetrics;
+import hudson.plugins.logparser.LogParserReader;
+
+public class LogParserCheckpointTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSavedAndLoaded() throws Exception {
+        final File file = new File(folder.getRoot(), LogParserCheckpoint.FILE_NAME);
+        final File log = folder.newFile();
+        FileUtils.writeStringToFile(log, "line one\nline two\n", "UTF-8");
+        final FileInputStream in = new FileInputStream(log);
+        final LogParserLogPart part;
+        try {
+            part = new LogParserReader(in.getChannel(), UTF_8, 0, false).readLogPart(0);
+        } finally {
+            in.close();
+        }
+        final HashMap<String, Integer> statusCount = new HashMap<String, Integer>();
+        statusCount.put(LogParserConsts.ERROR, 2);
+        statusCount.put("CUSTOM", 1);
+        final LogParserCheckpoint checkpoint = new LogParserCheckpoint("digest", true, part,
+                2, 300, 40, statusCount, 1, new int[] { 2, 0, 1 });
+        checkpoint.save(file);
+
+        LogParserCheckpoint loaded = LogParserCheckpoint.load(file);
+        assertTrue(loaded.matches("digest", true, 18));
+        assertFalse(loaded.matches("digest", false, 18));
+        assertFalse(loaded.matches("digest", true, 10));
+        assertEquals(18, loaded.getByteOffset());
+        assertEquals(2, loaded.getLineNumber());
+        assertEquals(300, loaded.getContentLength());
+        assertEquals(statusCount, loaded.getStatusCount());
+        assertArrayEquals(new int[] { 2, 0, 1 }, loaded.getRuleHits());
+        assertFalse(loaded.isComplete());
+        assertNull(loaded.getMetrics());
+
+        // The metrics of the parsing are kept once it is complete
+        final LogParserMetrics metrics = new LogParserMetrics();
+        metrics.addLines(2);
+        metrics.setRuleStatistics(new ArrayList<LogParserMetrics.RuleStatistics>(Arrays.asList(
+                new LogParserMetrics.RuleStatistics("error /\u00e9/", LogParserConsts.ERROR, 2))));
+        checkpoint.setComplete(true);
+        checkpoint.setMetrics(metrics);
+        checkpoint.save(file);
+        loaded = LogParserCheckpoint.load(file);
+        assertTrue(loaded.isComplete());
+        assertEquals(2, loaded.getMetrics().getLines());
+        assertEquals("error /\u00e9/", loaded.getMetrics().getRuleStatistics().get(0).getRule());
+        assertEquals(2, loaded.getMetrics().getRuleStatistics().get(0).getHits());
+    }
+
+    @Test
+    public void testSerializedObjectIgnored() throws Exception {
+        final File file = new File(folder.getRoot(), LogParserCheckpoint.FILE_NAME);
+        final ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(file));
+        try {
+            out.writeObject(new HashMap<String, Integer>());
+        } finally {
+            out.close();
+        }
+        assertNull(LogParserCheckpoint.load(file));
+    }
+}
@@ -0,0 +1,188 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserContentIndex;
+import hudson.plugins.logparser.LogParserContentWriter;
+
+public class LogParserContentIndexTest {
+
+    private static final int LINES = LogParserConsts.CONTENT_INDEX_INTERVAL * 2 + 500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCopyLinesOfPreformattedLog() throws Exception {
+        final File content = writeContent(true);
+        final LogParserContentIndex index = LogParserContentIndex.read(
+                LogParserContentWriter.getIndexFile(content));
+        assertEquals(LINES, index.getLineCount());
+        assertEquals(lines(0, 3), copy(index, 0, 3));
+        assertEquals(lines(LogParserConsts.CONTENT_INDEX_INTERVAL - 1, 2),
+                copy(index, LogParserConsts.CONTENT_INDEX_INTERVAL - 1, 2));
+        assertEquals(lines(LINES - 2, 2), copy(index, LINES - 2, 10));
+        assertEquals("", copy(index, LINES, 10));
+    }
+
+    @Test
+    public void testCopyLinesOfLogWithBreaks() throws Exception {
+        final File content = writeContent(false);
+        final LogParserContentIndex index = LogParserContentIndex.read(
+                LogParserContentWriter.getIndexFile(content));
+        final String expected = "line 2002 \u00e9<br/>\n" + System.getProperty("line.separator");
+        assertEquals(encoded(expected), copy(index, 2002, 1));
+    }
+
+    @Test
+    public void testBlocksReadAsOneGzipFile() throws Exception {
+        final File content = writeContent(true);
+        assertEquals("<pre>" + lines(0, LINES) + "</pre>", decompress(content));
+    }
+
+    @Test
+    public void testCopyLinesOfUncompressedLog() throws Exception {
+        // As indexed for builds parsed before the parsed log was compressed
+        final File dir = folder.newFolder();
+        final File content = new File(dir, "log_content.html");
+        final String text = "<pre>" + lines(0, 3);
+        FileUtils.writeStringToFile(content, text + "</pre>", Charset.defaultCharset().name());
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(
+                LogParserContentWriter.getIndexFile(content)));
+        out.writeInt(0x4c504349);
+        out.writeInt(1);
+        out.writeInt(2);
+        out.writeInt(1);
+        out.writeLong(3);
+        out.writeLong(text.getBytes(Charset.defaultCharset()).length);
+        out.writeLong(5);
+        out.writeLong(5 + lines(0, 2).getBytes(Charset.defaultCharset()).length);
+        out.close();
+
+        final LogParserContentIndex index = LogParserContentIndex.read(
+                LogParserContentWriter.getIndexFile(content));
+        assertFalse(index.isCompressed());
+        assertEquals(content, index.getContentFile());
+        assertEquals(lines(1, 2), copy(index, 1, 5));
+    }
+
+    @Test
+    public void testIndexIsOnlyReadOnceComplete() throws Exception {
+        final File content = folder.newFile("log_content.html.gz");
+        final LogParserContentWriter writer = LogParserContentWriter.create(content, true);
+        writer.writeLine("line 0");
+        writer.flush();
+        assertNull(LogParserContentIndex.read(LogParserContentWriter.getIndexFile(content)));
+        writer.finishLines();
+        writer.close();
+        assertNotNull(LogParserContentIndex.read(LogParserContentWriter.getIndexFile(content)));
+    }
+
+    @Test
+    public void testReopenCarriesOnTheIndex() throws Exception {
+        final File whole = writeContent(true);
+        final LogParserContentIndex expected = LogParserContentIndex.read(
+                LogParserContentWriter.getIndexFile(whole));
+
+        // Written up to a line, then more lines that are cut back
+        final File dir = folder.newFolder("resumed");
+        final File content = new File(dir, "log_content.html.gz");
+        final int resumedAt = LogParserConsts.CONTENT_INDEX_INTERVAL + 1;
+        LogParserContentWriter writer = LogParserContentWriter.create(content, true);
+        writer.write("<pre>");
+        for (int i = 0; i < resumedAt; i++) {
+            writer.writeLine(line(i));
+        }
+        writer.flush();
+        final long contentLength = content.length();
+        writer.writeLine("not kept");
+        writer.close();
+
+        writer = LogParserContentWriter.reopen(content, contentLength, resumedAt, true);
+        for (int i = resumedAt; i < LINES; i++) {
+            writer.writeLine(line(i));
+        }
+        writer.finishLines();
+        writer.write("</pre>");
+        writer.close();
+        // The same lines, though not compressed in the same blocks
+        final LogParserContentIndex index = LogParserContentIndex.read(
+                LogParserContentWriter.getIndexFile(content));
+        assertEquals(LINES, index.getLineCount());
+        assertEquals(decompress(whole), decompress(content));
+        for (int start = 0; start < LINES; start += 250) {
+            assertEquals(copy(expected, start, 300), copy(index, start, 300));
+        }
+
+        assertNull(LogParserContentWriter.reopen(content, contentLength, resumedAt, false));
+    }
+
+    private File writeContent(final boolean preformattedHtml) throws Exception {
+        final File content = new File(folder.newFolder(), "log_content.html.gz");
+        final LogParserContentWriter writer = LogParserContentWriter.create(content,
+                preformattedHtml);
+        writer.write(preformattedHtml ? "<pre>" : "");
+        for (int i = 0; i < LINES; i++) {
+            writer.writeLine(preformattedHtml ? line(i) : line(i) + "<br/>\n");
+        }
+        writer.finishLines();
+        writer.write(preformattedHtml ? "</pre>" : "");
+        writer.close();
+        return content;
+    }
+
+    private static String line(final int i) {
+        // Not all characters are a single byte
+        return "line " + i + (i % 7 == 0 ? " \u00e9" : "");
+    }
+
+    private static String lines(final int start, final int count) {
+        final StringBuilder lines = new StringBuilder();
+        for (int i = start; i < start + count; i++) {
+            lines.append(line(i)).append(System.getProperty("line.separator"));
+        }
+        return encoded(lines.toString());
+    }
+
+    /**
+     * @return the text as written in the default charset, which may not have
+     *         all its characters
+     */
+    private static String encoded(final String text) {
+        return new String(text.getBytes(Charset.defaultCharset()), Charset.defaultCharset());
+    }
+
+    private static String decompress(final File content) throws Exception {
+        final GZIPInputStream in = new GZIPInputStream(new FileInputStream(content));
+        try {
+            return IOUtils.toString(in, Charset.defaultCharset().name());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String copy(final LogParserContentIndex index, final int start,
+            final int count) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.copyLines(start, count, out);
+        return new String(out.toByteArray(), Charset.defaultCharset());
+    }
+}
@@ -0,0 +1,42 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import hudson.plugins.logparser.LogParserUtils;
+
+public class LogParserEscapeHtmlTest {
+
+    @Test
+    public void testLineWithoutTagIsReturnedAsIs() {
+        final String line = "[INFO] Building plugin 1.0 & more";
+        assertSame(line, LogParserUtils.escapeHtml(line));
+    }
+
+    @Test
+    public void testSameAsReplaceAll() throws Exception {
+        final String[] lines = { "", "<", ">", "<b>bold</b>", "a<b>c>d<", "List<String>>x",
+            "no tags" };
+        for (String line : lines) {
+            final String expected = line.replaceAll("<", "&lt;").replaceAll(">", "&gt;");
+            assertEquals(expected, LogParserUtils.escapeHtml(line));
+            final StringWriter out = new StringWriter();
+            LogParserUtils.writeEscapedHtml(out, line);
+            assertEquals(expected, out.toString());
+        }
+    }
+
+    @Test
+    public void testHtmlLine() throws Exception {
+        StringWriter out = new StringWriter();
+        LogParserUtils.writeHtmlLine(out, "[ERROR] <x>", "red", false);
+        assertEquals("<span style=\"color:red\">[ERROR] &lt;x&gt;</span><br/>\n", out.toString());
+        out = new StringWriter();
+        LogParserUtils.writeHtmlLine(out, "plain", null, true);
+        assertEquals("plain", out.toString());
+    }
+}
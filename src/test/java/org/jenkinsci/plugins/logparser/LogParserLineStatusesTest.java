@@ -0,0 +1,52 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import hudson.plugins.logparser.LogParserLineStatuses;
+
+public class LogParserLineStatusesTest {
+
+    @Test
+    public void testOnlyMatchedLinesAreStored() {
+        LogParserLineStatuses statuses = new LogParserLineStatuses();
+        statuses.add(3, 0);
+        statuses.add(7, 2);
+
+        assertEquals(2, statuses.size());
+        assertEquals(3, statuses.getLineNumber(0));
+        assertEquals(2, statuses.getRuleIndex(1));
+        assertEquals(0, statuses.getRuleIndexOfLine(3));
+        assertEquals(2, statuses.getRuleIndexOfLine(7));
+        assertEquals(LogParserLineStatuses.NO_MATCH, statuses.getRuleIndexOfLine(5));
+    }
+
+    @Test
+    public void testAddAllShiftsLineNumbers() {
+        LogParserLineStatuses part1 = new LogParserLineStatuses();
+        part1.add(1, 4);
+        LogParserLineStatuses part2 = new LogParserLineStatuses();
+        part2.add(0, 1);
+        for (int i = 1; i < 100; i++) {
+            part2.add(i, 5);
+        }
+
+        LogParserLineStatuses all = new LogParserLineStatuses();
+        all.addAll(part1, 0);
+        all.addAll(part2, 10);
+
+        assertEquals(101, all.size());
+        assertEquals(4, all.getRuleIndexOfLine(1));
+        assertEquals(1, all.getRuleIndexOfLine(10));
+        assertEquals(5, all.getRuleIndexOfLine(109));
+        assertEquals(LogParserLineStatuses.NO_MATCH, all.getRuleIndexOfLine(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLinesMustBeAscending() {
+        LogParserLineStatuses statuses = new LogParserLineStatuses();
+        statuses.add(5, 0);
+        statuses.add(5, 1);
+    }
+}
@@ -0,0 +1,93 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.FilePath;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.plugins.logparser.LogParserAction;
+import hudson.plugins.logparser.LogParserMatchBudget;
+import hudson.plugins.logparser.LogParserParser;
+import hudson.plugins.logparser.LogParserPublisher;
+import hudson.plugins.logparser.LogParserResult;
+import hudson.tasks.Shell;
+
+public class LogParserLiveParsingTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A build parsed while it runs gets the counts of a build parsed at the
+     * end
+     */
+    @Test
+    public void testLiveParsingGivesSameCounts() throws Exception {
+        final File rules = folder.newFile("rules.txt");
+        FileUtils.writeStringToFile(rules, "error /\\[ERROR\\]/\nwarning /\\[WARNING\\]/\n"
+                + "info /\\[INFO\\]/\n");
+
+        final FreeStyleProject project = jenkinsRule.createFreeStyleProject();
+        // The last line has no end of line when the publisher runs, and is
+        // counted as when the log is parsed in full
+        project.getBuildersList().add(new Shell("echo '[INFO] start'\n"
+                + "echo '[ERROR] failed'\n" + "echo '[WARNING] deprecated'\n"
+                + "echo '[WARNING] again'\n" + "printf '[ERROR] no newline'\n"));
+        final LogParserPublisher publisher = new LogParserPublisher(false, null,
+                rules.getAbsolutePath());
+        publisher.setLiveParsing(true);
+        project.getPublishersList().add(publisher);
+
+        final FreeStyleBuild build = jenkinsRule.assertBuildStatusSuccess(project.scheduleBuild2(0));
+        final LogParserResult liveResult = build.getAction(LogParserAction.class).getResult();
+        assertTrue(liveResult.getTotalErrors() > 0);
+        assertTrue(liveResult.getTotalWarnings() > liveResult.getTotalErrors());
+
+        final LogParserResult fullResult = new LogParserParser(new FilePath(rules), true)
+                .parseLog(build);
+        assertEquals(fullResult.getTotalErrors(), liveResult.getTotalErrors());
+        assertEquals(fullResult.getTotalWarnings(), liveResult.getTotalWarnings());
+        assertEquals(fullResult.getTotalInfos(), liveResult.getTotalInfos());
+    }
+
+    /**
+     * The lines parsed live share the time budget of their log part, as when
+     * the log is parsed in full, and the time waited for them does not count
+     */
+    @Test
+    public void testLiveLinesShareTheBudgetOfTheirPart() throws Exception {
+        final String[] parsingRules = { "error /^(.*a){20}b/", "warning /^a/" };
+        final File rules = folder.newFile("rules.txt");
+        FileUtils.writeStringToFile(rules, parsingRules[0] + "\n" + parsingRules[1] + "\n");
+        final FreeStyleBuild build = jenkinsRule.assertBuildStatusSuccess(jenkinsRule
+                .createFreeStyleProject().scheduleBuild2(0));
+
+        final LogParserParser parser = new LogParserParser(new FilePath(rules), true);
+        parser.setMatchBudget(new LogParserMatchBudget(parsingRules, 0, 500));
+        parser.startLog(build);
+        parser.parseLogLine("ab");
+        Thread.sleep(1000);
+        parser.parseLogLine("ab");
+        // Backtracks for hours on the first rule: it uses up the budget
+        parser.parseLogLine("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaac");
+        parser.parseLogLine("ab");
+        final LogParserResult result = parser.finishLog(build);
+
+        assertEquals(2, result.getTotalWarnings());
+        assertEquals("Parsing rule error /^(.*a){20}b/ ran out of time on 1 line\n"
+                + "1 lines of 1 log parts were not parsed, their part took more than 500 ms",
+                result.getBadParsingRulesError());
+    }
+}
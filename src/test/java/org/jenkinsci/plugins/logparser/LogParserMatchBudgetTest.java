@@ -0,0 +1,73 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import hudson.plugins.logparser.CompiledPatterns;
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserLineStatuses;
+import hudson.plugins.logparser.LogParserMatchBudget;
+import hudson.plugins.logparser.LogParserRuleMatcher;
+
+public class LogParserMatchBudgetTest {
+
+    private static final String[] RULES = {
+        "error /^(.*a){20}b/",
+        "warning /^a/"
+    };
+
+    // Backtracks for hours on the first rule
+    private static final String HOSTILE_LINE = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaac";
+
+    @Test
+    public void testRuleRunningOutOfTimeIsReportedThenDisabled() {
+        final CompiledPatterns rules = LogParserRuleMatcherTest.compile(RULES);
+        final LogParserRuleMatcher matcher = new LogParserRuleMatcher(rules);
+        final LogParserMatchBudget budget = new LogParserMatchBudget(rules.getParsingRules(),
+                50, 0);
+
+        final long start = System.nanoTime();
+        for (int i = 0; i < LogParserConsts.MAX_RULE_TIMEOUTS; i++) {
+            assertEquals(LogParserLineStatuses.TIMED_OUT, matcher.getMatchingRule(HOSTILE_LINE,
+                    null, budget, budget.getLineDeadline(budget.getPartDeadline())));
+        }
+        // The rule is not run anymore: the next rule matches
+        assertEquals(1, matcher.getMatchingRule(HOSTILE_LINE, null, budget,
+                budget.getLineDeadline(budget.getPartDeadline())));
+        assertTrue(System.nanoTime() - start < 10L * 1000 * 1000 * 1000);
+
+        assertEquals(LogParserConsts.MAX_RULE_TIMEOUTS, budget.getRuleTimeouts(0));
+        assertEquals(0, budget.getRuleTimeouts(1));
+        assertEquals(LogParserConsts.MAX_RULE_TIMEOUTS, budget.getTimedOutLines());
+        assertEquals("Parsing rule error /^(.*a){20}b/ ran out of time on "
+                + LogParserConsts.MAX_RULE_TIMEOUTS
+                + " lines and was not used for the rest of the log", budget.getReport());
+    }
+
+    @Test
+    public void testLinesClassifiedInTime() {
+        final CompiledPatterns rules = LogParserRuleMatcherTest.compile(RULES);
+        final LogParserRuleMatcher matcher = new LogParserRuleMatcher(rules);
+        final LogParserMatchBudget budget = new LogParserMatchBudget(rules.getParsingRules(),
+                1000, 1000);
+        assertEquals(0, matcher.getMatchingRule("aaaaaaaaaaaaaaaaaaaab", null, budget,
+                budget.getLineDeadline(budget.getPartDeadline())));
+        assertEquals(1, matcher.getMatchingRule("ac", null, budget,
+                budget.getLineDeadline(budget.getPartDeadline())));
+        assertEquals(LogParserLineStatuses.NO_MATCH, matcher.getMatchingRule("b", null, budget,
+                budget.getLineDeadline(budget.getPartDeadline())));
+        assertNull(budget.getReport());
+    }
+
+    @Test
+    public void testLogPartOutOfTime() {
+        final LogParserMatchBudget budget = new LogParserMatchBudget(new String[0], 1000, 10);
+        budget.recordSkippedLines(42);
+        assertEquals(42, budget.getTimedOutLines());
+        assertEquals("42 lines of 1 log parts were not parsed, their part took more than 10 ms",
+                budget.getReport());
+    }
+}
@@ -0,0 +1,63 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.plugins.logparser.LogParserAction;
+import hudson.plugins.logparser.LogParserMetrics;
+import hudson.plugins.logparser.LogParserPublisher;
+import hudson.plugins.logparser.LogParserResult;
+import hudson.tasks.Shell;
+
+public class LogParserMetricsTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The metrics of the parsing are kept with the result and given by the
+     * remote API of the action, with the rules that matched lines
+     */
+    @Test
+    public void testMetricsAreRecordedAndExported() throws Exception {
+        final File rules = folder.newFile("rules.txt");
+        FileUtils.writeStringToFile(rules, "error /\\[ERROR\\]/\ninfo /never printed/\n"
+                + "warning /\\[WARNING\\]/\n");
+
+        final FreeStyleProject project = jenkinsRule.createFreeStyleProject();
+        project.getBuildersList().add(new Shell("echo '[ERROR] failed'\n"
+                + "echo '[WARNING] deprecated'\n" + "echo '[WARNING] again'\n"));
+        project.getPublishersList().add(new LogParserPublisher(false, null,
+                rules.getAbsolutePath()));
+
+        final FreeStyleBuild build = jenkinsRule.assertBuildStatusSuccess(project.scheduleBuild2(0));
+        final LogParserResult result = build.getAction(LogParserAction.class).getResult();
+        final LogParserMetrics metrics = result.getMetrics();
+        assertTrue(metrics.getLines() > 0);
+        assertTrue(metrics.getBytes() > 0);
+        // The rule that matched nothing is not kept with the build
+        assertEquals(2, metrics.getRuleStatistics().size());
+        assertEquals(result.getTotalErrors(), metrics.getRuleStatistics().get(0).getHits());
+        assertEquals(result.getTotalWarnings(), metrics.getRuleStatistics().get(1).getHits());
+
+        final String json = jenkinsRule.createWebClient()
+                .goTo(build.getUrl() + "parsed_console/api/json", "application/json")
+                .getWebResponse().getContentAsString();
+        assertTrue(json.contains("\"totalErrors\":" + result.getTotalErrors()));
+        assertTrue(json.contains("\"linesPerSecond\""));
+        assertTrue(json.contains("\"rule\":\"warning /\\\\[WARNING\\\\]/\""));
+    }
+}
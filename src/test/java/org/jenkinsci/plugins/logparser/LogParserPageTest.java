@@ -0,0 +1,61 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.plugins.logparser.LogParserPublisher;
+import hudson.tasks.Shell;
+
+public class LogParserPageTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The parsed log is served a page at a time, and the links to the errors
+     * lead to the page holding them
+     */
+    @Test
+    public void testParsedLogIsPaginated() throws Exception {
+        final File rules = folder.newFile("rules.txt");
+        FileUtils.writeStringToFile(rules, "error /^ERROR 7777$/\n");
+
+        final FreeStyleProject project = jenkinsRule.createFreeStyleProject();
+        project.getBuildersList().add(new Shell("set +x\n"
+                + "i=0; while [ $i -lt 12000 ]; do echo \"ERROR $i\"; i=$((i+1)); done\n"));
+        project.getPublishersList().add(new LogParserPublisher(false, null,
+                rules.getAbsolutePath()));
+        final FreeStyleBuild build = jenkinsRule.assertBuildStatusSuccess(project.scheduleBuild2(0));
+        final JenkinsRule.WebClient webClient = jenkinsRule.createWebClient();
+
+        final String firstPage = webClient.goTo(build.getUrl() + "parsed_console/page")
+                .getWebResponse().getContentAsString();
+        assertTrue(firstPage.contains("ERROR 10\n"));
+        assertFalse(firstPage.contains("ERROR 7777"));
+
+        // Stored compressed, and served as the page it is
+        assertTrue(new File(build.getRootDir(), "log_ref.html.gz").isFile());
+        final String errorLinks = webClient.goTo(build.getUrl() + "parsed_console/log_ref.html")
+                .getWebResponse().getContentAsString();
+        final int link = errorLinks.indexOf("href=\"page?line=");
+        assertTrue(link > 0);
+        final String target = errorLinks.substring(link + 6, errorLinks.indexOf('#', link));
+        final String errorPage = webClient.goTo(build.getUrl() + "parsed_console/" + target)
+                .getWebResponse().getContentAsString();
+        assertTrue(errorPage.contains("<a name=\"ERROR1\"></a><span style=\"color:red\">ERROR 7777"));
+        assertTrue(errorPage.contains(">Previous</a>"));
+    }
+}
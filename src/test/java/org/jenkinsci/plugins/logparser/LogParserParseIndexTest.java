@@ -0,0 +1,104 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserParseIndex;
+import hudson.plugins.logparser.LogParserParseIndexWriter;
+
+public class LogParserParseIndexTest {
+
+    private static final List<String> STATUSES = Arrays.asList(LogParserConsts.ERROR,
+            LogParserConsts.WARNING, LogParserConsts.INFO, LogParserConsts.DEBUG, "CUSTOM");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSectionTableAndCounts() throws Exception {
+        final File file = new File(folder.getRoot(), LogParserParseIndex.FILE_NAME);
+        final LogParserParseIndexWriter writer = LogParserParseIndexWriter.create(file, STATUSES);
+        writer.writeEntry(LogParserConsts.ERROR, 3, 40, 0, false, "error <one>");
+        writer.writeEntry(LogParserConsts.INFO, 5, 70, 0, true, "Building \u00e9");
+        writer.writeEntry(LogParserConsts.ERROR, 8, 110, 1, false, "error two");
+        writer.writeEntry("CUSTOM", 9, -1, 1, false, "custom");
+        writer.close();
+
+        final LogParserParseIndex index = LogParserParseIndex.read(file);
+        assertEquals(STATUSES, index.getStatuses());
+        assertEquals(2, index.getCount(LogParserConsts.ERROR));
+        assertEquals(0, index.getCount(LogParserConsts.WARNING));
+        assertEquals(1, index.getCount("CUSTOM"));
+
+        final List<LogParserParseIndex.Section> sections = index.getSections();
+        assertEquals(2, sections.size());
+        assertNull(sections.get(0).getHeader());
+        assertEquals(1, sections.get(0).getCount(LogParserConsts.ERROR));
+        assertEquals(1, sections.get(0).getCount(LogParserConsts.INFO));
+        assertEquals("Building \u00e9", sections.get(1).getHeader().getText());
+        assertEquals(1, sections.get(1).getCount(LogParserConsts.ERROR));
+
+        final LogParserParseIndex.Entries entries = index.openEntries();
+        try {
+            LogParserParseIndex.Entry entry = entries.next();
+            assertEquals("error <one>", entry.getText());
+            assertEquals(1, entry.getOrdinal());
+            assertEquals(40, entry.getByteOffset());
+            assertFalse(entry.isStartsSection());
+            assertTrue(entries.next().isStartsSection());
+            entry = entries.next();
+            assertEquals(LogParserConsts.ERROR, entry.getStatus());
+            assertEquals(2, entry.getOrdinal());
+            assertEquals(8, entry.getLineNumber());
+            assertEquals(1, entry.getSection());
+            assertEquals(-1, entries.next().getByteOffset());
+            assertNull(entries.next());
+        } finally {
+            entries.close();
+        }
+    }
+
+    @Test
+    public void testReopenCutsBackToTheFlush() throws Exception {
+        final File file = new File(folder.getRoot(), LogParserParseIndex.FILE_NAME);
+        LogParserParseIndexWriter writer = LogParserParseIndexWriter.create(file, STATUSES);
+        writer.writeEntry(LogParserConsts.WARNING, 0, 0, 0, false, "kept");
+        writer.flush();
+        final long length = file.length();
+        writer.writeEntry(LogParserConsts.WARNING, 1, 5, 0, false, "not kept");
+        writer.close();
+
+        assertNull(LogParserParseIndexWriter.reopen(file, length, STATUSES.subList(0, 4)));
+        writer = LogParserParseIndexWriter.reopen(file, length, STATUSES);
+        writer.writeEntry(LogParserConsts.WARNING, 1, 5, 0, false, "written again");
+        writer.close();
+
+        final LogParserParseIndex index = LogParserParseIndex.read(file);
+        assertEquals(2, index.getCount(LogParserConsts.WARNING));
+        final LogParserParseIndex.Entries entries = index.openEntries();
+        try {
+            assertEquals("kept", entries.next().getText());
+            assertEquals("written again", entries.next().getText());
+            assertNull(entries.next());
+        } finally {
+            entries.close();
+        }
+    }
+
+    @Test
+    public void testNoIndex() throws Exception {
+        assertNull(LogParserParseIndex.read(new File(folder.getRoot(), "missing")));
+        assertNull(LogParserParseIndex.read(folder.newFile("empty")));
+    }
+}
@@ -0,0 +1,213 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.console.ConsoleNote;
+import hudson.plugins.logparser.LogParserLineStatuses;
+import hudson.plugins.logparser.LogParserLogPart;
+import hudson.plugins.logparser.LogParserReader;
+import hudson.plugins.logparser.LogParserRuleMatcher;
+import hudson.plugins.logparser.LogParserUtils;
+
+public class LogParserReaderTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<FileInputStream> opened = new ArrayList<FileInputStream>();
+
+    @After
+    public void tearDown() throws IOException {
+        for (FileInputStream in : opened) {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testSameLinesAsBufferedReader() throws Exception {
+        assertSameLines("a\r\nb\rc\n\nd\r\r\ne");
+        assertSameLines("");
+        assertSameLines("\r\n\r\r\n\n");
+        assertSameLines("\u00e9t\u00e9\n");
+    }
+
+    @Test
+    public void testResumeAtEachPart() throws Exception {
+        final String[] lines = { "[INFO] compiling", "[ERROR] failed", "\u00e9t\u00e9", "" };
+        final String[] terminators = { "\n", "\r\n", "\r" };
+        final Random random = new Random(5);
+        final StringBuilder log = new StringBuilder();
+        for (int i = 0; i < 35000; i++) {
+            log.append(lines[random.nextInt(lines.length)]);
+            log.append(terminators[random.nextInt(terminators.length)]);
+        }
+        final byte[] bytes = log.toString().getBytes(UTF8);
+        final List<String> expected = readWithBufferedReader(bytes);
+        final FileChannel channel = open(bytes);
+
+        // Read the first parts, then the rest of the log from where they end
+        for (int parts = 1; parts <= 4; parts++) {
+            final LogParserReader reader = new LogParserReader(channel, UTF8, 0, false);
+            final List<String> actual = new ArrayList<String>();
+            for (int i = 0; i < parts; i++) {
+                addLines(actual, reader.readLogPart(0));
+            }
+            final LogParserReader resumed = new LogParserReader(channel, UTF8,
+                    reader.getByteOffset(), reader.isAfterCarriageReturn());
+            while (!resumed.isEndOfFile()) {
+                addLines(actual, resumed.readLogPart(0));
+            }
+            assertEquals(expected, actual);
+            assertEquals(bytes.length, resumed.getByteOffset());
+        }
+    }
+
+    /**
+     * The log is mapped a few megabytes at a time: the lines across two
+     * mappings, and those longer than a mapping, are read whole
+     */
+    @Test
+    public void testLinesAcrossMappings() throws Exception {
+        final char[] longLine = new char[9 * 1024 * 1024];
+        Arrays.fill(longLine, 'x');
+        final String[] lines = { "[INFO] compiling", "\u00e9t\u00e9", "" };
+        final String[] terminators = { "\n", "\r\n", "\r" };
+        final Random random = new Random(7);
+        final StringBuilder log = new StringBuilder();
+        while (log.length() < 10 * 1024 * 1024) {
+            log.append(lines[random.nextInt(lines.length)]);
+            log.append(terminators[random.nextInt(terminators.length)]);
+        }
+        log.append(longLine).append("\r\n").append(lines[0]);
+        assertSameLines(log.toString());
+    }
+
+    @Test
+    public void testLineOffsets() throws Exception {
+        final byte[] bytes = ("0123456789a\r\n\u00e9\n\rb").getBytes(UTF8);
+        final LogParserReader reader = new LogParserReader(open(bytes), UTF8, 10, false);
+        final long[] offsets = reader.readLogPart(0).getLineOffsets();
+        assertEquals(10, offsets[0]);
+        assertEquals(13, offsets[1]);
+        assertEquals(16, offsets[2]);
+        assertEquals(17, offsets[3]);
+    }
+
+    @Test
+    public void testLastLineWithoutEndOfLine() throws Exception {
+        LogParserReader reader = read("a\nb");
+        assertFalse(reader.isAtLineStart());
+        reader = read("a\nb\r");
+        assertTrue(reader.isAtLineStart());
+        assertTrue(reader.isAfterCarriageReturn());
+    }
+
+    @Test
+    public void testPrefilter() throws Exception {
+        final LogParserRuleMatcher ruleMatcher = new LogParserRuleMatcher(
+                LogParserUtils.compilePatterns(new String[] { "error /\\[ERROR\\]/",
+                    "warning /^WARN.D /", "info /BUILD SUCCESS/" },
+                        Logger.getAnonymousLogger()));
+        final String note = ConsoleNote.PREAMBLE_STR + "abc" + ConsoleNote.POSTAMBLE_STR;
+        final String log = "[INFO] compiling\r\n[ERR" + note + "OR] split\n" + note
+                + "WARN\u00c9D x\rplain " + note + "\n\u00e9t\u00e9 [ERROR]\nBUILD \u00e9\n";
+        final LogParserReader reader = new LogParserReader(open(log.getBytes(UTF8)), UTF8, 0,
+                false);
+        reader.setPrefilter(ruleMatcher);
+        final LogParserLogPart logPart = reader.readLogPart(0);
+        final boolean[] mayMatch = logPart.getMayMatch();
+        final List<String> ruledOut = new ArrayList<String>();
+        for (int i = 0; logPart.getLines()[i] != null; i++) {
+            if (!mayMatch[i]) {
+                // Left as bytes, and only lines no rule matches
+                assertEquals("", logPart.getLines()[i]);
+                final ByteBuffer bytes = logPart.getRawBytes().duplicate();
+                bytes.limit(logPart.getRawEnd(i));
+                bytes.position(logPart.getRawStart(i));
+                final String line = logPart.getCharset().decode(bytes).toString();
+                assertEquals(LogParserLineStatuses.NO_MATCH, ruleMatcher.getMatchingRule(line));
+                ruledOut.add(line);
+            }
+        }
+        assertEquals(Arrays.asList("[INFO] compiling", "BUILD \u00e9"), ruledOut);
+        assertTrue(mayMatch[1]);
+        assertTrue(mayMatch[4]);
+        // Without a prefilter every line is decoded and classified
+        assertNull(new LogParserReader(open(new byte[0]), UTF8, 0, false).readLogPart(0)
+                .getMayMatch());
+    }
+
+    private LogParserReader read(final String log) throws IOException {
+        final LogParserReader reader = new LogParserReader(open(log.getBytes(UTF8)), UTF8, 0,
+                false);
+        while (!reader.isEndOfFile()) {
+            reader.readLogPart(0);
+        }
+        return reader;
+    }
+
+    private void assertSameLines(final String log) throws IOException {
+        final byte[] bytes = log.getBytes(UTF8);
+        final LogParserReader reader = new LogParserReader(open(bytes), UTF8, 0, false);
+        final List<String> actual = new ArrayList<String>();
+        while (!reader.isEndOfFile()) {
+            addLines(actual, reader.readLogPart(0));
+        }
+        assertEquals(readWithBufferedReader(bytes), actual);
+        assertEquals(bytes.length, reader.getByteOffset());
+    }
+
+    private FileChannel open(final byte[] bytes) throws IOException {
+        final File file = folder.newFile();
+        FileUtils.writeByteArrayToFile(file, bytes);
+        final FileInputStream in = new FileInputStream(file);
+        opened.add(in);
+        return in.getChannel();
+    }
+
+    private static void addLines(final List<String> result, final LogParserLogPart logPart) {
+        for (String line : logPart.getLines()) {
+            if (line == null) {
+                break;
+            }
+            result.add(line);
+        }
+    }
+
+    private static List<String> readWithBufferedReader(final byte[] bytes) throws IOException {
+        final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(bytes), UTF8));
+        final List<String> result = new ArrayList<String>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            result.add(line);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,147 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import hudson.FilePath;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserContentIndex;
+import hudson.plugins.logparser.LogParserParseIndex;
+import hudson.plugins.logparser.LogParserParser;
+import hudson.plugins.logparser.LogParserUtils;
+import hudson.tasks.Shell;
+
+public class LogParserRenderedChunkTest {
+
+    private static final Pattern MARKER = Pattern.compile("<a name=\"([A-Z]+[0-9]+)\"></a>");
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * A log part rendered in several chunks gets the markers and the sections
+     * of a log parsed a line at a time, with sections, errors and warnings on
+     * both sides of each chunk boundary
+     */
+    @Test
+    public void testChunksGetTheMarkersAndSectionsOfOneThread() throws Exception {
+        final int numLines = 6 * LogParserConsts.MIN_LINES_PER_RENDER_CHUNK;
+        assumeTrue(LogParserUtils.getNumThreads() > 1);
+        assumeTrue(LogParserUtils.getLinesPerThread() >= numLines);
+
+        final File rules = folder.newFile("rules.txt");
+        FileUtils.writeStringToFile(rules, "start /^=== /\nerror /\\[ERROR\\]/\n"
+                + "warning /\\[WARNING\\]/\n");
+        final StringBuilder log = new StringBuilder();
+        for (int i = 0; i < numLines; i++) {
+            if (i % 97 == 0) {
+                log.append("=== section ").append(i);
+            } else if (i % 5 == 0) {
+                log.append("[ERROR] line ").append(i);
+            } else if (i % 3 == 0) {
+                log.append("[WARNING] line ").append(i);
+            } else {
+                log.append("line ").append(i);
+            }
+            log.append('\n');
+        }
+        final File logFile = folder.newFile("log.txt");
+        FileUtils.writeStringToFile(logFile, log.toString());
+
+        final FreeStyleProject project = jenkinsRule.createFreeStyleProject();
+        project.getBuildersList().add(new Shell("cat '" + logFile.getAbsolutePath() + "'\n"));
+        final FreeStyleBuild build = jenkinsRule.assertBuildStatusSuccess(project.scheduleBuild2(0));
+        final File dir = build.getLogFile().getParentFile();
+
+        // Rendered in chunks by the workers
+        new LogParserParser(new FilePath(rules), true).parseLog(build);
+        final List<String> markers = readMarkers(dir);
+        final List<String> entries = readEntries(dir);
+
+        // Rendered a line at a time in this thread
+        final LogParserParser parser = new LogParserParser(new FilePath(rules), true);
+        parser.startLog(build);
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(build.getLogFile()), build.getCharset()));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                parser.parseLogLine(line);
+            }
+        } finally {
+            reader.close();
+        }
+        parser.finishLog(build);
+
+        assertTrue(markers.size() > numLines / 3);
+        assertEquals(readMarkers(dir), markers);
+        assertEquals(readEntries(dir), entries);
+    }
+
+    /**
+     * @return the markers of the parsed log, with the number of the line each
+     *         is on
+     */
+    private static List<String> readMarkers(final File dir) throws Exception {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(new File(dir,
+                        LogParserContentIndex.CONTENT_FILE_NAME))), Charset.defaultCharset()));
+        final List<String> result = new ArrayList<String>();
+        try {
+            String line;
+            for (int i = 0; (line = reader.readLine()) != null; i++) {
+                final Matcher matcher = MARKER.matcher(line);
+                while (matcher.find()) {
+                    result.add(i + ":" + matcher.group(1));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    /**
+     * @return the entries of the parse index, but for their offset in the
+     *         log, not known to a log parsed a line at a time
+     */
+    private static List<String> readEntries(final File dir) throws Exception {
+        final LogParserParseIndex.Entries entries = LogParserParseIndex.read(
+                new File(dir, LogParserParseIndex.FILE_NAME)).openEntries();
+        final List<String> result = new ArrayList<String>();
+        try {
+            LogParserParseIndex.Entry entry;
+            while ((entry = entries.next()) != null) {
+                result.add(entry.getStatus() + entry.getOrdinal() + " line "
+                        + entry.getLineNumber() + " section " + entry.getSection()
+                        + (entry.isStartsSection() ? " start " : " ") + entry.getText());
+            }
+        } finally {
+            entries.close();
+        }
+        return result;
+    }
+}
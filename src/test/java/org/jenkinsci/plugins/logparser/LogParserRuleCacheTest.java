@@ -0,0 +1,89 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import hudson.FilePath;
+import hudson.plugins.logparser.LogParserConsts;
+import hudson.plugins.logparser.LogParserRuleCache;
+import hudson.plugins.logparser.LogParserRuleCache.CompiledRules;
+
+public class LogParserRuleCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        LogParserRuleCache.clear();
+    }
+
+    @Test
+    public void testSameRulesAreCompiledOnce() throws Exception {
+        final File rules = folder.newFile("rules.txt");
+        FileUtils.writeStringToFile(rules, "error /\\[ERROR\\]/\nwarning /\\[WARNING\\]/\n");
+
+        final CompiledRules first = LogParserRuleCache.get(new FilePath(rules));
+        final CompiledRules second = LogParserRuleCache.get(new FilePath(rules));
+        assertSame(first, second);
+        assertEquals(2, first.getCompiledPatterns().size());
+        assertEquals(1, LogParserRuleCache.getHitCount());
+        assertEquals(1, LogParserRuleCache.getMissCount());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSharedExtraTagsCannotBeChanged() throws Exception {
+        final File rules = folder.newFile("rules.txt");
+        FileUtils.writeStringToFile(rules, "error /\\[ERROR\\]/\nflaky /\\[FLAKY\\]/\n");
+
+        final CompiledRules compiled = LogParserRuleCache.get(new FilePath(rules));
+        assertEquals(1, compiled.getCompiledPatterns().getExtraTags().size());
+        compiled.getCompiledPatterns().getExtraTags().add("other");
+    }
+
+    @Test
+    public void testChangedRulesAreCompiledAgain() throws Exception {
+        final File rules = folder.newFile("rules.txt");
+        FileUtils.writeStringToFile(rules, "error /\\[ERROR\\]/\n");
+        final CompiledRules before = LogParserRuleCache.get(new FilePath(rules));
+
+        FileUtils.writeStringToFile(rules, "error /\\[ERROR\\]/\ninfo /\\[INFO\\]/\n");
+        final CompiledRules after = LogParserRuleCache.get(new FilePath(rules));
+        assertNotSame(before, after);
+        assertEquals(2, after.getCompiledPatterns().size());
+        assertEquals(0, LogParserRuleCache.getHitCount());
+        assertEquals(2, LogParserRuleCache.getMissCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedRulesAreEvicted() throws Exception {
+        final FilePath[] files = new FilePath[LogParserConsts.RULE_CACHE_SIZE + 1];
+        for (int i = 0; i < files.length; i++) {
+            final File rules = folder.newFile("rules" + i + ".txt");
+            FileUtils.writeStringToFile(rules, "error /error " + i + "/\n");
+            files[i] = new FilePath(rules);
+        }
+        for (int i = 0; i < files.length - 1; i++) {
+            LogParserRuleCache.get(files[i]);
+        }
+        // The first rules are used again: the second ones are the eldest
+        final CompiledRules first = LogParserRuleCache.get(files[0]);
+        LogParserRuleCache.get(files[files.length - 1]);
+        assertEquals(1, LogParserRuleCache.getEvictionCount());
+        assertEquals(LogParserConsts.RULE_CACHE_SIZE, LogParserRuleCache.size());
+
+        assertSame(first, LogParserRuleCache.get(files[0]));
+        final long misses = LogParserRuleCache.getMissCount();
+        LogParserRuleCache.get(files[1]);
+        assertEquals(misses + 1, LogParserRuleCache.getMissCount());
+    }
+}
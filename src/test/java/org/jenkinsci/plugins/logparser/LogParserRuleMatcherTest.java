@@ -0,0 +1,153 @@
+package org.jenkinsci.plugins.logparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import hudson.plugins.logparser.CompiledPatterns;
+import hudson.plugins.logparser.LogParserLineStatuses;
+import hudson.plugins.logparser.LogParserRuleMatcher;
+import hudson.plugins.logparser.LogParserRuleProfile;
+import hudson.plugins.logparser.LogParserUtils;
+
+public class LogParserRuleMatcherTest {
+
+    private static final String[] RULES = {
+        "# comment",
+        "ok /not really/",
+        "",
+        "error /(?i)^error /",
+        "error /\\[ERROR\\]/",
+        "warning /\\[WARNING\\]/",
+        "warn /deprecated/",
+        "info /\\[INFO\\] ---/",
+        "start /^\\[INFO\\] Building /",
+        "debug /DEBUG:/",
+        "custom /CUSTOM-[0-9]+/",
+        "error /fail(ed|ure)/",
+        "warning /x+y*z{2}abc/",
+        "info /ab|cd/",
+        "error /\\d+ errors?/",
+        "warning /\u00e9t\u00e9s/",
+        "end /BUILD SUCCESS/",
+        "warning /<.*>/"
+    };
+
+    @Test
+    public void testRequiredLiteral() {
+        assertEquals("[ERROR] ", literal("^\\[ERROR\\] "));
+        assertEquals("deprecated", literal("deprecated"));
+        assertEquals("CUSTOM-", literal("CUSTOM-[0-9]+"));
+        assertEquals("fail", literal("fail(ed|ure)"));
+        assertEquals(" error", literal("\\d+ errors?"));
+        assertEquals("abc", literal("x+y*z{2}abc"));
+        assertNull(literal("ab|cd"));
+        assertNull(literal("(?i)^error "));
+        assertNull(literal("\\Qa.b\\E"));
+        assertNull(literal("<.*>"));
+        assertNull(LogParserRuleMatcher.getRequiredLiteral(
+                Pattern.compile("deprecated", Pattern.CASE_INSENSITIVE)));
+    }
+
+    @Test
+    public void testSameRuleAsTryingEveryPattern() {
+        final CompiledPatterns rules = compile(RULES);
+        final LogParserRuleMatcher matcher = new LogParserRuleMatcher(rules);
+        final String[] fragments = { "[ERROR] ", "[WARNING]", "deprecated", "[INFO] ---",
+            "[INFO] Building ", "DEBUG:", "CUSTOM-12", "failed", "failure", "xxzzabc", "ab",
+            "cd", "3 errors", "\u00e9t\u00e9s", "\u00e9t", "BUILD SUCCESS", "<tag>", "error ",
+            "ERROR ", "not really", " ", "-", "abc" };
+        final Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            final StringBuilder line = new StringBuilder();
+            final int count = random.nextInt(4);
+            for (int j = 0; j < count; j++) {
+                line.append(fragments[random.nextInt(fragments.length)]);
+            }
+            assertEquals(line.toString(), firstMatchingRule(rules, line.toString()),
+                    matcher.getMatchingRule(line));
+        }
+    }
+
+    @Test
+    public void testNoRules() {
+        final LogParserRuleMatcher matcher = new LogParserRuleMatcher(compile(new String[0]));
+        assertEquals(LogParserLineStatuses.NO_MATCH, matcher.getMatchingRule("[ERROR] x"));
+    }
+
+    @Test
+    public void testRuleTable() {
+        final CompiledPatterns rules = compile(RULES);
+        assertEquals(16, rules.size());
+        assertEquals("ok /not really/", rules.getParsingRules()[0]);
+        assertEquals("NONE", rules.getStatuses()[0]);
+        assertEquals("ERROR", rules.getStatuses()[1]);
+        assertEquals("WARNING", rules.getStatuses()[4]);
+        assertEquals("custom", rules.getStatuses()[8]);
+        assertEquals("INFO", rules.getStatuses()[14]);
+        assertSame(rules.getStatuses()[1], rules.getStatuses()[2]);
+        assertNull(rules.getError());
+    }
+
+    @Test
+    public void testNestedQuantifier() {
+        assertTrue(LogParserRuleMatcher.hasNestedQuantifier("(a+)+"));
+        assertTrue(LogParserRuleMatcher.hasNestedQuantifier("^(\\w+\\s?)*$"));
+        assertTrue(LogParserRuleMatcher.hasNestedQuantifier("(.*,){2,}end"));
+        assertTrue(LogParserRuleMatcher.hasNestedQuantifier("((a*)b)+"));
+        assertTrue(LogParserRuleMatcher.hasNestedQuantifier("x(?:[a-z]+\\.)*y"));
+        assertFalse(LogParserRuleMatcher.hasNestedQuantifier("\\[ERROR\\] .*"));
+        assertFalse(LogParserRuleMatcher.hasNestedQuantifier("(ab|cd)+"));
+        assertFalse(LogParserRuleMatcher.hasNestedQuantifier("(a+)?b*"));
+        assertFalse(LogParserRuleMatcher.hasNestedQuantifier("(a+){2}"));
+        assertFalse(LogParserRuleMatcher.hasNestedQuantifier("(a++)+"));
+        assertFalse(LogParserRuleMatcher.hasNestedQuantifier("(?>a+)+"));
+        assertFalse(LogParserRuleMatcher.hasNestedQuantifier("\\(a+\\)+"));
+        assertFalse(LogParserRuleMatcher.hasNestedQuantifier("[(a+)]+"));
+    }
+
+    @Test
+    public void testProfileCountsPatternRuns() {
+        final CompiledPatterns rules = compile(RULES);
+        final LogParserRuleMatcher matcher = new LogParserRuleMatcher(rules);
+        final LogParserRuleProfile profile = new LogParserRuleProfile(rules.size());
+        final String[] lines = { "[ERROR] failed", "[WARNING] deprecated", "nothing here",
+            "[ERROR] again" };
+        for (String line : lines) {
+            assertEquals(matcher.getMatchingRule(line), matcher.getMatchingRule(line, profile));
+        }
+        // The [ERROR] rule is only run on the lines holding its literal
+        assertEquals(2, profile.getEvaluations(2));
+        // The first rule without a literal is run on every line
+        assertEquals(lines.length, profile.getEvaluations(1));
+        // The rules after the first match are not run
+        assertEquals(1, profile.getEvaluations(3));
+        assertEquals(0, profile.getEvaluations(5));
+    }
+
+    private static String literal(final String regex) {
+        return LogParserRuleMatcher.getRequiredLiteral(Pattern.compile(regex));
+    }
+
+    static CompiledPatterns compile(final String[] rules) {
+        return LogParserUtils.compilePatterns(rules, Logger.getAnonymousLogger());
+    }
+
+    private static int firstMatchingRule(final CompiledPatterns rules, final String line) {
+        final Pattern[] patterns = rules.getCompiledPatterns();
+        for (int i = 0; i < patterns.length; i++) {
+            if (patterns[i].matcher(line).find()) {
+                return i;
+            }
+        }
+        return LogParserLineStatuses.NO_MATCH;
+    }
+}